@@ -0,0 +1,128 @@
+package mcast.ht.bench;
+
+import mcast.ht.admin.PieceIndexSet;
+import mcast.ht.admin.PieceIndexSetFactory;
+import mcast.ht.admin.PieceInterest;
+import mcast.ht.admin.PieceInterestFactory;
+
+/**
+ * Measures how fast a piece interest takes in the bitfields of its peers,
+ * without any networking. For each iteration, a new interest is created in
+ * which all pieces are golden, and every peer announces that it has all
+ * pieces twice: the first bitfield adds all pieces to the lists of the peer,
+ * the second one adds nothing new. The average time per announced bitfield is
+ * printed for both.
+ *
+ * The interest is created by PieceInterestFactory, so it can be configured
+ * with the usual properties (e.g. mcast.ht.admin.interest_stripes and
+ * mcast.ht.admin.piece_selection).
+ */
+public class InterestBenchmark {
+
+    private static final String OPTION_PIECES = "-pieces";
+    private static final String OPTION_PEERS = "-peers";
+    private static final String OPTION_WARMUP = "-warmup";
+    private static final String OPTION_ITERATIONS = "-iterations";
+
+    private final int pieces;
+    private final int peers;
+    private final int warmup;
+    private final int iterations;
+
+    public InterestBenchmark(int pieces, int peers, int warmup,
+            int iterations) {
+        this.pieces = pieces;
+        this.peers = peers;
+        this.warmup = warmup;
+        this.iterations = iterations;
+    }
+
+    public void run() {
+        PieceIndexSet all = PieceIndexSetFactory.createFullPieceIndexSet(pieces);
+
+        long firstNanos = 0;
+        long repeatNanos = 0;
+
+        for (int i = 0; i < warmup + iterations; i++) {
+            PieceInterest interest = PieceInterestFactory.createPieceInterest(
+                    pieces, PieceIndexSetFactory.createEmptyPieceIndexSet(),
+                    all.deepCopy());
+
+            long first = 0;
+            long repeat = 0;
+
+            for (int p = 0; p < peers; p++) {
+                String peer = "peer" + p;
+
+                long time = System.nanoTime();
+                interest.tellHave(peer, all, false);
+                first += System.nanoTime() - time;
+
+                time = System.nanoTime();
+                interest.tellHave(peer, all, false);
+                repeat += System.nanoTime() - time;
+            }
+
+            if (i >= warmup) {
+                firstNanos += first;
+                repeatNanos += repeat;
+            }
+        }
+
+        long bitfields = (long)iterations * peers;
+
+        System.out.println(String.format("%10s %6s %-8s %12s", "pieces",
+                "peers", "bitfield", "us/bitfield"));
+        System.out.println(String.format("%10d %6d %-8s %12.1f", pieces,
+                peers, "first",
+                firstNanos / 1000.0 / bitfields));
+        System.out.println(String.format("%10d %6d %-8s %12.1f", pieces,
+                peers, "repeat",
+                repeatNanos / 1000.0 / bitfields));
+    }
+
+    private static void usage() {
+        System.err.println("usage:");
+        System.err.println("  java " + InterestBenchmark.class.getName() +
+                " [" + OPTION_PIECES + " <n>]" +
+                " [" + OPTION_PEERS + " <n>]" +
+                " [" + OPTION_WARMUP + " <n>]" +
+                " [" + OPTION_ITERATIONS + " <n>]");
+        System.exit(1);
+    }
+
+    public static void main(String[] argv) {
+        int pieces = 1024 * 1024;
+        int peers = 16;
+        int warmup = 3;
+        int iterations = 5;
+
+        try {
+            for (int i = 0; i < argv.length; i++) {
+                if (argv[i].equals(OPTION_PIECES)) {
+                    pieces = Integer.parseInt(argv[++i]);
+                } else if (argv[i].equals(OPTION_PEERS)) {
+                    peers = Integer.parseInt(argv[++i]);
+                } else if (argv[i].equals(OPTION_WARMUP)) {
+                    warmup = Integer.parseInt(argv[++i]);
+                } else if (argv[i].equals(OPTION_ITERATIONS)) {
+                    iterations = Integer.parseInt(argv[++i]);
+                } else {
+                    System.err.println("unknown option: " + argv[i]);
+                    usage();
+                }
+            }
+
+            InterestBenchmark benchmark = new InterestBenchmark(pieces, peers,
+                    warmup, Math.max(1, iterations));
+
+            benchmark.run();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+}
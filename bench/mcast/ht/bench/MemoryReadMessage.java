@@ -0,0 +1,224 @@
+package mcast.ht.bench;
+
+import ibis.ipl.ReadMessage;
+import ibis.ipl.ReceivePort;
+import ibis.ipl.SendPortIdentifier;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * A read message that deserializes the bytes written by a MemoryWriteMessage.
+ * Objects and strings are not supported.
+ */
+public class MemoryReadMessage implements ReadMessage {
+
+    private byte[] buf;
+    private int length;
+    private int pos;
+
+    public MemoryReadMessage() {
+        buf = null;
+        length = 0;
+        pos = 0;
+    }
+
+    /**
+     * Makes this message (re)start reading the given bytes.
+     */
+    public void init(byte[] buf, int length) {
+        this.buf = buf;
+        this.length = length;
+        pos = 0;
+    }
+
+    private void check(int bytes) throws EOFException {
+        if (pos + bytes > length) {
+            throw new EOFException("cannot read " + bytes + " bytes at " +
+                    "position " + pos + " of a " + length + "-byte message");
+        }
+    }
+
+    private long get(int bytes) {
+        long result = 0;
+
+        for (int i = 0; i < bytes; i++) {
+            result = (result << 8) | (buf[pos++] & 0xff);
+        }
+
+        return result;
+    }
+
+    public long finish() {
+        return pos;
+    }
+
+    public void finish(IOException e) {
+        // do nothing
+    }
+
+    public long bytesRead() {
+        return pos;
+    }
+
+    public ReceivePort localPort() {
+        return null;
+    }
+
+    public long sequenceNumber() {
+        return INITIAL_SEQNO;
+    }
+
+    public SendPortIdentifier origin() {
+        return null;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public byte readByte() throws IOException {
+        check(1);
+        return buf[pos++];
+    }
+
+    public char readChar() throws IOException {
+        check(2);
+        return (char)get(2);
+    }
+
+    public short readShort() throws IOException {
+        check(2);
+        return (short)get(2);
+    }
+
+    public int readInt() throws IOException {
+        check(4);
+        return (int)get(4);
+    }
+
+    public long readLong() throws IOException {
+        check(8);
+        return get(8);
+    }
+
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    public String readString() {
+        throw new UnsupportedOperationException("strings are not supported");
+    }
+
+    public Object readObject() {
+        throw new UnsupportedOperationException("objects are not supported");
+    }
+
+    public void readArray(boolean[] value) throws IOException {
+        readArray(value, 0, value.length);
+    }
+
+    public void readArray(byte[] value) throws IOException {
+        readArray(value, 0, value.length);
+    }
+
+    public void readArray(char[] value) throws IOException {
+        readArray(value, 0, value.length);
+    }
+
+    public void readArray(short[] value) throws IOException {
+        readArray(value, 0, value.length);
+    }
+
+    public void readArray(int[] value) throws IOException {
+        readArray(value, 0, value.length);
+    }
+
+    public void readArray(long[] value) throws IOException {
+        readArray(value, 0, value.length);
+    }
+
+    public void readArray(float[] value) throws IOException {
+        readArray(value, 0, value.length);
+    }
+
+    public void readArray(double[] value) throws IOException {
+        readArray(value, 0, value.length);
+    }
+
+    public void readArray(Object[] value) {
+        throw new UnsupportedOperationException("objects are not supported");
+    }
+
+    public void readArray(boolean[] value, int offset, int length) 
+    throws IOException {
+        check(length);
+        for (int i = offset; i < offset + length; i++) {
+            value[i] = buf[pos++] != 0;
+        }
+    }
+
+    public void readArray(byte[] value, int offset, int length) 
+    throws IOException {
+        check(length);
+        System.arraycopy(buf, pos, value, offset, length);
+        pos += length;
+    }
+
+    public void readArray(char[] value, int offset, int length) 
+    throws IOException {
+        check(length * 2);
+        for (int i = offset; i < offset + length; i++) {
+            value[i] = (char)get(2);
+        }
+    }
+
+    public void readArray(short[] value, int offset, int length) 
+    throws IOException {
+        check(length * 2);
+        for (int i = offset; i < offset + length; i++) {
+            value[i] = (short)get(2);
+        }
+    }
+
+    public void readArray(int[] value, int offset, int length) 
+    throws IOException {
+        check(length * 4);
+        for (int i = offset; i < offset + length; i++) {
+            value[i] = (int)get(4);
+        }
+    }
+
+    public void readArray(long[] value, int offset, int length) 
+    throws IOException {
+        check(length * 8);
+        for (int i = offset; i < offset + length; i++) {
+            value[i] = get(8);
+        }
+    }
+
+    public void readArray(float[] value, int offset, int length) 
+    throws IOException {
+        check(length * 4);
+        for (int i = offset; i < offset + length; i++) {
+            value[i] = Float.intBitsToFloat((int)get(4));
+        }
+    }
+
+    public void readArray(double[] value, int offset, int length) 
+    throws IOException {
+        check(length * 8);
+        for (int i = offset; i < offset + length; i++) {
+            value[i] = Double.longBitsToDouble(get(8));
+        }
+    }
+
+    public void readArray(Object[] value, int offset, int length) {
+        throw new UnsupportedOperationException("objects are not supported");
+    }
+
+}
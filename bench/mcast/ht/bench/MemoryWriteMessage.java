@@ -0,0 +1,237 @@
+package mcast.ht.bench;
+
+import ibis.ipl.SendPort;
+import ibis.ipl.WriteMessage;
+
+import java.io.IOException;
+
+/**
+ * A write message that serializes everything into a growing byte array in
+ * memory, using the same big-endian encoding as DataOutputStream. The bytes
+ * can be read back with a MemoryReadMessage. Objects and strings are not
+ * supported.
+ */
+public class MemoryWriteMessage implements WriteMessage {
+
+    private byte[] buf;
+    private int count;
+
+    public MemoryWriteMessage(int capacity) {
+        buf = new byte[Math.max(16, capacity)];
+        count = 0;
+    }
+
+    /**
+     * Removes all written bytes, so this message can be reused.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    public int getLength() {
+        return count;
+    }
+
+    public byte[] toByteArray() {
+        byte[] result = new byte[count];
+        System.arraycopy(buf, 0, result, 0, count);
+        return result;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > buf.length) {
+            int newLength = buf.length;
+
+            while (newLength < count + extra) {
+                newLength <<= 1;
+            }
+
+            byte[] newBuf = new byte[newLength];
+            System.arraycopy(buf, 0, newBuf, 0, count);
+            buf = newBuf;
+        }
+    }
+
+    private void put(long value, int bytes) {
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+            buf[count++] = (byte)(value >>> shift);
+        }
+    }
+
+    public int send() {
+        return 0;
+    }
+
+    public void sync(int ticket) {
+        // do nothing
+    }
+
+    public void flush() {
+        // do nothing
+    }
+
+    public void reset() {
+        // do nothing
+    }
+
+    public long finish() {
+        return count;
+    }
+
+    public void finish(IOException e) {
+        // do nothing
+    }
+
+    public long bytesWritten() {
+        return count;
+    }
+
+    public SendPort localPort() {
+        return null;
+    }
+
+    public void writeBoolean(boolean value) {
+        writeByte(value ? (byte)1 : (byte)0);
+    }
+
+    public void writeByte(byte value) {
+        ensureCapacity(1);
+        buf[count++] = value;
+    }
+
+    public void writeChar(char value) {
+        ensureCapacity(2);
+        put(value, 2);
+    }
+
+    public void writeShort(short value) {
+        ensureCapacity(2);
+        put(value, 2);
+    }
+
+    public void writeInt(int value) {
+        ensureCapacity(4);
+        put(value, 4);
+    }
+
+    public void writeLong(long value) {
+        ensureCapacity(8);
+        put(value, 8);
+    }
+
+    public void writeFloat(float value) {
+        writeInt(Float.floatToRawIntBits(value));
+    }
+
+    public void writeDouble(double value) {
+        writeLong(Double.doubleToRawLongBits(value));
+    }
+
+    public void writeString(String value) {
+        throw new UnsupportedOperationException("strings are not supported");
+    }
+
+    public void writeObject(Object value) {
+        throw new UnsupportedOperationException("objects are not supported");
+    }
+
+    public void writeArray(boolean[] value) {
+        writeArray(value, 0, value.length);
+    }
+
+    public void writeArray(byte[] value) {
+        writeArray(value, 0, value.length);
+    }
+
+    public void writeArray(char[] value) {
+        writeArray(value, 0, value.length);
+    }
+
+    public void writeArray(short[] value) {
+        writeArray(value, 0, value.length);
+    }
+
+    public void writeArray(int[] value) {
+        writeArray(value, 0, value.length);
+    }
+
+    public void writeArray(long[] value) {
+        writeArray(value, 0, value.length);
+    }
+
+    public void writeArray(float[] value) {
+        writeArray(value, 0, value.length);
+    }
+
+    public void writeArray(double[] value) {
+        writeArray(value, 0, value.length);
+    }
+
+    public void writeArray(Object[] value) {
+        throw new UnsupportedOperationException("objects are not supported");
+    }
+
+    public void writeArray(boolean[] value, int offset, int length) {
+        ensureCapacity(length);
+        for (int i = offset; i < offset + length; i++) {
+            buf[count++] = value[i] ? (byte)1 : (byte)0;
+        }
+    }
+
+    public void writeArray(byte[] value, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(value, offset, buf, count, length);
+        count += length;
+    }
+
+    public void writeArray(char[] value, int offset, int length) {
+        ensureCapacity(length * 2);
+        for (int i = offset; i < offset + length; i++) {
+            put(value[i], 2);
+        }
+    }
+
+    public void writeArray(short[] value, int offset, int length) {
+        ensureCapacity(length * 2);
+        for (int i = offset; i < offset + length; i++) {
+            put(value[i], 2);
+        }
+    }
+
+    public void writeArray(int[] value, int offset, int length) {
+        ensureCapacity(length * 4);
+        for (int i = offset; i < offset + length; i++) {
+            put(value[i], 4);
+        }
+    }
+
+    public void writeArray(long[] value, int offset, int length) {
+        ensureCapacity(length * 8);
+        for (int i = offset; i < offset + length; i++) {
+            put(value[i], 8);
+        }
+    }
+
+    public void writeArray(float[] value, int offset, int length) {
+        ensureCapacity(length * 4);
+        for (int i = offset; i < offset + length; i++) {
+            put(Float.floatToRawIntBits(value[i]), 4);
+        }
+    }
+
+    public void writeArray(double[] value, int offset, int length) {
+        ensureCapacity(length * 8);
+        for (int i = offset; i < offset + length; i++) {
+            put(Double.doubleToRawLongBits(value[i]), 8);
+        }
+    }
+
+    public void writeArray(Object[] value, int offset, int length) {
+        throw new UnsupportedOperationException("objects are not supported");
+    }
+
+}
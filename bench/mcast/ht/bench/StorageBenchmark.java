@@ -0,0 +1,505 @@
+package mcast.ht.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import mcast.ht.storage.ByteArrayStorage;
+import mcast.ht.storage.CompositeStorage;
+import mcast.ht.storage.MemoryMappedFileStorage;
+import mcast.ht.storage.RandomAccessFileStorage;
+import mcast.ht.storage.Storage;
+import mcast.ht.storage.StripedByteArrayStorage;
+import mcast.ht.util.Convert;
+
+/**
+ * Measures how fast storage implementations write pieces into messages and
+ * read pieces out of messages, without any networking. Messages are
+ * serialized into memory by MemoryWriteMessage and deserialized by
+ * MemoryReadMessage. For each combination of storage, piece size, arrival
+ * order and thread count, the throughput and the amount of memory allocated
+ * per piece are printed.
+ *
+ * Every iteration that reads pieces does so into a fresh, empty target 
+ * storage, and the time includes closing it, since file storages only write
+ * out all pieces then.
+ */
+public class StorageBenchmark {
+
+    private static final String OPTION_STORAGE = "-storage";
+    private static final String OPTION_DATA_SIZE = "-data";
+    private static final String OPTION_PIECE_SIZE = "-pieces";
+    private static final String OPTION_ORDER = "-order";
+    private static final String OPTION_THREADS = "-threads";
+    private static final String OPTION_WARMUP = "-warmup";
+    private static final String OPTION_ITERATIONS = "-iterations";
+    private static final String OPTION_DIR = "-dir";
+
+    private enum StorageType { BYTEARRAY, STRIPED, RAF, MMAP, COMPOSITE };
+
+    private enum Order { INORDER, RANDOM };
+
+    private enum Operation { WRITE, READ };
+
+    /**
+     * Number of stripes of a striped byte array storage
+     */
+    private static final int STRIPES = 4;
+
+    /**
+     * Number of byte array storages in a composite storage
+     */
+    private static final int COMPOSITE_PARTS = 8;
+
+    private final int dataSize;
+    private final int warmup;
+    private final int iterations;
+    private final File dir;
+    private final Random random;
+    private final ThreadMXBean mx;
+
+    public StorageBenchmark(int dataSize, int warmup, int iterations,
+            File dir) {
+        this.dataSize = dataSize;
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.dir = dir;
+
+        random = new Random(230979);
+        mx = ManagementFactory.getThreadMXBean();
+    }
+
+    public void run(List<StorageType> types, List<Integer> pieceSizes,
+            List<Order> orders, List<Integer> threadCounts)
+    throws IOException, InterruptedException {
+        System.out.println(String.format("%-10s %10s %-8s %7s %-5s %10s " +
+                "%12s %12s", "storage", "piece_size", "order", "threads",
+                "op", "MB/s", "pieces/s", "alloc/piece"));
+
+        for (StorageType type: types) {
+            for (int pieceSize: pieceSizes) {
+                Storage source = createStorage(type, pieceSize, "source", true);
+
+                for (Order order: orders) {
+                    int[] indices = createIndices(source.getPieceCount(), order);
+
+                    for (int threads: threadCounts) {
+                        int[][] work = divide(indices, threads);
+
+                        measure(type, pieceSize, order, Operation.WRITE,
+                                source, work);
+                        measure(type, pieceSize, order, Operation.READ,
+                                source, work);
+                    }
+                }
+
+                source.close();
+
+                deleteFiles(type);
+            }
+        }
+    }
+
+    private void measure(StorageType type, int pieceSize, Order order,
+            Operation op, Storage source, int[][] work)
+    throws IOException, InterruptedException {
+        // serialize all pieces up front, so reading them is measured in
+        // isolation
+        byte[][][] messages = null;
+
+        if (op == Operation.READ) {
+            messages = serialize(source, work);
+        }
+
+        long totalNanos = 0;
+        long totalAllocated = 0;
+
+        for (int i = 0; i < warmup + iterations; i++) {
+            Storage target = null;
+
+            if (op == Operation.READ) {
+                target = createStorage(type, pieceSize, "target", false);
+            }
+
+            Worker[] workers = new Worker[work.length];
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(workers.length);
+
+            for (int t = 0; t < workers.length; t++) {
+                byte[][] m = messages == null ? null : messages[t];
+                workers[t] = new Worker(op, source, target, work[t], m,
+                        pieceSize, start, done);
+                workers[t].start();
+            }
+
+            long time = System.nanoTime();
+            start.countDown();
+            done.await();
+
+            if (target != null) {
+                // file storages write out all pieces when they are closed
+                target.close();
+            }
+
+            time = System.nanoTime() - time;
+
+            if (target != null) {
+                getFile(type, "target").delete();
+            }
+
+            for (Worker w: workers) {
+                if (w.exception != null) {
+                    throw w.exception;
+                }
+            }
+
+            if (i >= warmup) {
+                totalNanos += time;
+
+                for (Worker w: workers) {
+                    totalAllocated += w.allocated;
+                }
+            }
+        }
+
+        int pieces = source.getPieceCount();
+        double sec = Convert.nanosecToSec(totalNanos / iterations);
+        double mbytesPerSec = Convert.bytesPerSecToMBytesPerSec(dataSize / sec);
+        double piecesPerSec = pieces / sec;
+
+        String allocPerPiece = "n/a";
+        if (totalAllocated >= 0) {
+            allocPerPiece = String.valueOf(
+                    totalAllocated / iterations / Math.max(1, pieces));
+        }
+
+        System.out.println(String.format("%-10s %10d %-8s %7d %-5s %10.2f " +
+                "%12.0f %12s", type.toString().toLowerCase(), pieceSize,
+                order.toString().toLowerCase(), work.length,
+                op.toString().toLowerCase(), mbytesPerSec, piecesPerSec,
+                allocPerPiece));
+    }
+
+    private byte[][][] serialize(Storage source, int[][] work)
+    throws IOException {
+        byte[][][] result = new byte[work.length][][];
+
+        MemoryWriteMessage m = new MemoryWriteMessage(1024);
+
+        for (int t = 0; t < work.length; t++) {
+            result[t] = new byte[work[t].length][];
+
+            for (int i = 0; i < work[t].length; i++) {
+                m.clear();
+                source.writePiece(source.createPiece(work[t][i]), m);
+                result[t][i] = m.toByteArray();
+            }
+        }
+
+        return result;
+    }
+
+    private int[] createIndices(int pieceCount, Order order) {
+        int[] result = new int[pieceCount];
+
+        for (int i = 0; i < result.length; i++) {
+            result[i] = i;
+        }
+
+        if (order == Order.RANDOM) {
+            for (int i = result.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = result[i];
+                result[i] = result[j];
+                result[j] = tmp;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Divides the given indices round-robin over the given number of threads,
+     * so all threads together still handle the pieces in the given order.
+     */
+    private int[][] divide(int[] indices, int threads) {
+        int[][] result = new int[threads][];
+
+        for (int t = 0; t < threads; t++) {
+            int length = indices.length / threads;
+            if (t < indices.length % threads) {
+                length++;
+            }
+
+            result[t] = new int[length];
+
+            for (int i = 0; i < length; i++) {
+                result[t][i] = indices[i * threads + t];
+            }
+        }
+
+        return result;
+    }
+
+    private Storage createStorage(StorageType type, int pieceSize,
+            String name, boolean fill) throws IOException {
+        switch (type) {
+        case BYTEARRAY: {
+            byte[] data = createData(dataSize, fill);
+            return new ByteArrayStorage(data, 0, data.length, pieceSize);
+        }
+        case STRIPED: {
+            int stripeSize = (int)Math.ceil(dataSize / (double)STRIPES);
+            byte[][] data = new byte[STRIPES][];
+            for (int i = 0; i < STRIPES; i++) {
+                int size = Math.min(stripeSize, dataSize - (i * stripeSize));
+                data[i] = createData(Math.max(0, size), fill);
+            }
+            return new StripedByteArrayStorage(data, pieceSize);
+        }
+        case COMPOSITE: {
+            CompositeStorage result = new CompositeStorage();
+            int partSize = (int)Math.ceil(dataSize / (double)COMPOSITE_PARTS);
+            for (int i = 0; i < COMPOSITE_PARTS; i++) {
+                int size = Math.min(partSize, dataSize - (i * partSize));
+                byte[] data = createData(Math.max(0, size), fill);
+                result.addStorage(new ByteArrayStorage(data, 0, data.length,
+                        pieceSize));
+            }
+            return result;
+        }
+        case RAF: {
+            File file = createFile(type, name, fill);
+            return new RandomAccessFileStorage(file, dataSize, pieceSize,
+                    fill);
+        }
+        case MMAP: {
+            File file = createFile(type, name, fill);
+            return new MemoryMappedFileStorage(file, dataSize, pieceSize,
+                    fill);
+        }
+        }
+
+        throw new RuntimeException("unknown storage type: " + type);
+    }
+
+    private byte[] createData(int size, boolean fill) {
+        byte[] result = new byte[size];
+
+        if (fill) {
+            random.nextBytes(result);
+        }
+
+        return result;
+    }
+
+    private File getFile(StorageType type, String name) {
+        return new File(dir, "storagebench-" + type.toString().toLowerCase() +
+                "-" + name);
+    }
+
+    private File createFile(StorageType type, String name, boolean fill)
+    throws IOException {
+        File file = getFile(type, name);
+        file.delete();
+        file.deleteOnExit();
+
+        if (fill) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+            try {
+                byte[] buf = new byte[1024 * 1024];
+                for (int written = 0; written < dataSize; written += buf.length) {
+                    random.nextBytes(buf);
+                    raf.write(buf, 0, Math.min(buf.length, dataSize - written));
+                }
+            } finally {
+                raf.close();
+            }
+        }
+
+        return file;
+    }
+
+    private void deleteFiles(StorageType type) {
+        getFile(type, "source").delete();
+        getFile(type, "target").delete();
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far, or
+     * a negative value if the JVM cannot tell.
+     */
+    private long getAllocatedBytes() {
+        try {
+            if (mx instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean sunMx =
+                    (com.sun.management.ThreadMXBean)mx;
+                long id = Thread.currentThread().getId();
+                return sunMx.getThreadAllocatedBytes(id);
+            }
+        } catch (Throwable ignored) {
+            // not a JVM with allocation accounting
+        }
+
+        return -1;
+    }
+
+    // INNER CLASSES
+
+    private class Worker extends Thread {
+
+        private final Operation op;
+        private final Storage source;
+        private final Storage target;
+        private final int[] indices;
+        private final byte[][] messages;
+        private final int pieceSize;
+        private final CountDownLatch start;
+        private final CountDownLatch done;
+
+        volatile long allocated;
+        volatile IOException exception;
+
+        Worker(Operation op, Storage source, Storage target, int[] indices,
+                byte[][] messages, int pieceSize, CountDownLatch start,
+                CountDownLatch done) {
+            this.op = op;
+            this.source = source;
+            this.target = target;
+            this.indices = indices;
+            this.messages = messages;
+            this.pieceSize = pieceSize;
+            this.start = start;
+            this.done = done;
+
+            allocated = -1;
+            exception = null;
+        }
+
+        public void run() {
+            try {
+                start.await();
+
+                long before = getAllocatedBytes();
+
+                if (op == Operation.WRITE) {
+                    MemoryWriteMessage m = new MemoryWriteMessage(pieceSize + 16);
+
+                    for (int i = 0; i < indices.length; i++) {
+                        m.clear();
+                        source.writePiece(source.createPiece(indices[i]), m);
+                    }
+                } else {
+                    MemoryReadMessage m = new MemoryReadMessage();
+
+                    for (int i = 0; i < messages.length; i++) {
+                        m.init(messages[i], messages[i].length);
+                        target.readPiece(m);
+                    }
+                }
+
+                long after = getAllocatedBytes();
+
+                if (before >= 0 && after >= 0) {
+                    allocated = after - before;
+                }
+            } catch (IOException e) {
+                exception = e;
+            } catch (InterruptedException e) {
+                exception = new IOException("interrupted: " + e.getMessage());
+            } finally {
+                done.countDown();
+            }
+        }
+
+    }
+
+    private static void usage() {
+        System.err.println("usage:");
+        System.err.println("  java " + StorageBenchmark.class.getName() +
+                " [" + OPTION_STORAGE + " bytearray,striped,raf,mmap,composite]" +
+                " [" + OPTION_DATA_SIZE + " <size>]" +
+                " [" + OPTION_PIECE_SIZE + " <size>,<size>,...]" +
+                " [" + OPTION_ORDER + " inorder,random]" +
+                " [" + OPTION_THREADS + " <n>,<n>,...]" +
+                " [" + OPTION_WARMUP + " <n>]" +
+                " [" + OPTION_ITERATIONS + " <n>]" +
+                " [" + OPTION_DIR + " <directory for file storages>]");
+        System.exit(1);
+    }
+
+    public static void main(String[] argv) {
+        String storages = "bytearray,striped,raf,mmap,composite";
+        String dataSize = "64MB";
+        String pieceSizes = "4KB,32KB,256KB";
+        String orders = "inorder,random";
+        String threadCounts = "1,4";
+        int warmup = 2;
+        int iterations = 5;
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+
+        try {
+            for (int i = 0; i < argv.length; i++) {
+                if (argv[i].equals(OPTION_STORAGE)) {
+                    storages = argv[++i];
+                } else if (argv[i].equals(OPTION_DATA_SIZE)) {
+                    dataSize = argv[++i];
+                } else if (argv[i].equals(OPTION_PIECE_SIZE)) {
+                    pieceSizes = argv[++i];
+                } else if (argv[i].equals(OPTION_ORDER)) {
+                    orders = argv[++i];
+                } else if (argv[i].equals(OPTION_THREADS)) {
+                    threadCounts = argv[++i];
+                } else if (argv[i].equals(OPTION_WARMUP)) {
+                    warmup = Integer.parseInt(argv[++i]);
+                } else if (argv[i].equals(OPTION_ITERATIONS)) {
+                    iterations = Integer.parseInt(argv[++i]);
+                } else if (argv[i].equals(OPTION_DIR)) {
+                    dir = new File(argv[++i]);
+                } else {
+                    System.err.println("unknown option: " + argv[i]);
+                    usage();
+                }
+            }
+
+            List<StorageType> types = new ArrayList<StorageType>();
+            for (String s: storages.split(",")) {
+                types.add(StorageType.valueOf(s.trim().toUpperCase()));
+            }
+
+            List<Integer> sizes = new ArrayList<Integer>();
+            for (String s: pieceSizes.split(",")) {
+                sizes.add((int)Convert.parseBytes(s.trim()));
+            }
+
+            List<Order> orderList = new ArrayList<Order>();
+            for (String s: orders.split(",")) {
+                orderList.add(Order.valueOf(s.trim().toUpperCase()));
+            }
+
+            List<Integer> threads = new ArrayList<Integer>();
+            for (String s: threadCounts.split(",")) {
+                threads.add(Integer.parseInt(s.trim()));
+            }
+
+            StorageBenchmark benchmark = new StorageBenchmark(
+                    (int)Convert.parseBytes(dataSize), warmup,
+                    Math.max(1, iterations), dir);
+
+            benchmark.run(types, sizes, orderList, threads);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+}
@@ -11,19 +11,38 @@ import org.apache.log4j.Logger;
 
 import mcast.ht.admin.PieceIndexSet;
 import mcast.ht.admin.PieceIndexSetFactory;
+import mcast.ht.admin.PiecePriorities;
+import mcast.ht.admin.PieceSelectionPolicy;
+import mcast.ht.admin.PieceSelectionPolicyFactory;
+import mcast.ht.net.CompletionReport;
+import mcast.ht.storage.DurableStorage;
 import mcast.ht.storage.Storage;
 import mcast.ht.util.Defense;
 
-public abstract class AbstractMulticastChannel implements MulticastChannel {
+public abstract class AbstractMulticastChannel 
+implements MulticastChannel, Config {
 
     private Logger logger = Logger.getLogger(AbstractMulticastChannel.class);
     
     protected IbisIdentifier me;
+    private final Ibis ibis;
+    private final Pool pool;
+    private final CompletionReport durableReport;
+    private final PiecePriorities priorities;
+    private Storage storage;
+    private Set<IbisIdentifier> roots;
     private boolean flushed;
     private boolean closed;
 
-    public AbstractMulticastChannel(IbisIdentifier me) {
-        this.me = me;
+    public AbstractMulticastChannel(Ibis ibis, Pool pool) {
+        this.ibis = ibis;
+        this.pool = pool;
+
+        me = ibis.identifier();
+        durableReport = new CompletionReport("durable-" + pool.getName());
+        priorities = new PiecePriorities();
+        storage = null;
+        roots = null;
         flushed = true;
         closed = false;
     }
@@ -68,6 +87,8 @@ public abstract class AbstractMulticastChannel implements MulticastChannel {
         }
 
         flushed = false;
+        this.storage = storage;
+        this.roots = roots;
 
         long time = 0;
         
@@ -84,6 +105,10 @@ public abstract class AbstractMulticastChannel implements MulticastChannel {
     }
 
     public synchronized void flush() throws IOException {
+        flush(DURABLE_FLUSH);
+    }
+
+    public synchronized void flush(boolean durable) throws IOException {
         checkNotClosed();
 
         if (flushed) {
@@ -92,6 +117,36 @@ public abstract class AbstractMulticastChannel implements MulticastChannel {
 
         doFlush();
         flushed = true;
+
+        if (durable) {
+            makeDurable();
+        }
+
+        storage = null;
+        roots = null;
+    }
+
+    /**
+     * Forces the storage of the last multicast operation to stable storage,
+     * and reports that to the roots. The roots (or everybody, if the roots are
+     * unknown) wait until all members reported.
+     */
+    private void makeDurable() throws IOException {
+        long time = System.currentTimeMillis();
+
+        if (storage instanceof DurableStorage) {
+            ((DurableStorage)storage).sync();
+        }
+
+        boolean wait = roots == null || roots.isEmpty() || roots.contains(me);
+
+        durableReport.report(pool.getEverybody(), ibis, wait);
+
+        if (logger.isInfoEnabled()) {
+            time = System.currentTimeMillis() - time;
+            logger.info(me + " made the data durable" + 
+                    (wait ? " at all members" : "") + " in " + time + " ms.");
+        }
     }
 
     private void checkNotClosed() {
@@ -121,6 +176,38 @@ public abstract class AbstractMulticastChannel implements MulticastChannel {
         }
     }
 
+    public void setPiecePriority(int start, int end, int priority) {
+        priorities.setPriority(start, end, priority);
+    }
+
+    public void setPieceDeadline(int start, int end, long deadline) {
+        priorities.setDeadline(start, end, deadline);
+    }
+
+    public void clearPiecePriorities() {
+        priorities.clear();
+    }
+
+    /**
+     * Returns the urgent pieces of this channel; admins of the multicast 
+     * operations on it request these first.
+     */
+    protected PiecePriorities getPiecePriorities() {
+        return priorities;
+    }
+
+    /**
+     * Creates the piece selection policy configured for this channel. The 
+     * members of our own collective are the local peers.
+     */
+    protected PieceSelectionPolicy createPieceSelectionPolicy() {
+        Set<IbisIdentifier> localPeers = new HashSet<IbisIdentifier>(
+                pool.getCollective(me).getMembers());
+
+        return PieceSelectionPolicyFactory.createPolicy(pool.getName(), 
+                localPeers);
+    }
+
     protected abstract void doMulticastStorage(Storage storage, 
             Set<IbisIdentifier> roots, PieceIndexSet possession) 
     throws IOException;
@@ -5,6 +5,7 @@ public interface Config {
     static final String PROPERTY_PREFIX = "mcast.ht.";
 
 	static final String s_random_seed = PROPERTY_PREFIX + "random_seed";
+	static final String s_durable_flush = PROPERTY_PREFIX + "durable_flush";
 
 	static ConfigProperties config = ConfigProperties.getInstance();
 	
@@ -12,5 +13,13 @@ public interface Config {
 	 * Seed value to use for Random instances in various algorithms
 	 */
 	static final int RANDOM_SEED = config.getIntProperty(s_random_seed, 23979);
+
+	/**
+	 * Whether flush() waits until all data is on stable storage at every 
+	 * member
+	 */
+	static final boolean DURABLE_FLUSH = 
+	    config.getBooleanProperty(s_durable_flush, false);
+	
 	
 }
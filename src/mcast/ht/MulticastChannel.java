@@ -56,13 +56,67 @@ public interface MulticastChannel {
     public void multicastStorage(Storage storage, Set<IbisIdentifier> roots, 
             PieceIndexSet possession) throws IOException;
     
+    /**
+     * Asks this node to request the pieces from start (inclusive) to end 
+     * (exclusive) before the normal pieces, e.g. the start of a file that is
+     * streamed. Pieces with a higher priority are requested first; a priority
+     * of PiecePriorities.NORMAL or lower makes the pieces normal again. The 
+     * priority applies to all following multicast operations, and to the 
+     * current one from its next piece request on.
+     * 
+     * @param start
+     *                the first piece of the range
+     * @param end
+     *                the end of the range (exclusive)
+     * @param priority
+     *                the priority of the pieces
+     */
+    public void setPiecePriority(int start, int end, int priority);
+
+    /**
+     * Asks this node to request the pieces from start (inclusive) to end 
+     * (exclusive) before all pieces without a deadline, the earliest deadline 
+     * first. Like priorities, deadlines apply until they are changed.
+     * 
+     * @param start
+     *                the first piece of the range
+     * @param end
+     *                the end of the range (exclusive)
+     * @param deadline
+     *                the time the pieces are needed, in milliseconds since the
+     *                epoch
+     */
+    public void setPieceDeadline(int start, int end, long deadline);
+
+    /**
+     * Makes all pieces normal again.
+     */
+    public void clearPiecePriorities();
+
     /**
      * Flushes the last multicast operation. After this method returned, all
      * members of this channel have received all data, and the distributed
-     * storage will have been closed.
+     * storage will have been closed. Whether the data is also on stable
+     * storage is determined by the property mcast.ht.durable_flush (see 
+     * flush(boolean)).
      */
     public void flush() throws IOException;
     
+    /**
+     * Flushes the last multicast operation. If 'durable' is false, this is the
+     * same as flush() without durability. If 'durable' is true, each member
+     * also forces the distributed storage (if it is a DurableStorage) to 
+     * stable storage and reports this to the roots. A root returns only after
+     * all members have reported, so the data survives a crash of any member 
+     * afterwards. Members that do not know the roots wait for all members. 
+     * All members must flush with the same 'durable' value.
+     * 
+     * @param durable
+     *                whether to wait until all data is on stable storage at 
+     *                every member
+     */
+    public void flush(boolean durable) throws IOException;
+    
     /**
      * Logs statistics about the last multicast operation.
      * 
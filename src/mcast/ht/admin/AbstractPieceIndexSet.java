@@ -3,7 +3,7 @@ package mcast.ht.admin;
 public abstract class AbstractPieceIndexSet implements PieceIndexSet {
 
     public void addAll(PieceIndexSet set) {
-        for (Integer i : set) {
+        for (int i = set.nextIndex(0); i >= 0; i = set.nextIndex(i + 1)) {
             add(i);
         }
     }
@@ -24,7 +24,8 @@ public abstract class AbstractPieceIndexSet implements PieceIndexSet {
             largest = this;
         }
 
-        for (int i: smallest) {
+        for (int i = smallest.nextIndex(0); i >= 0; 
+                i = smallest.nextIndex(i + 1)) {
             if (largest.contains(i)) {
                 return true;
             }
@@ -36,7 +37,8 @@ public abstract class AbstractPieceIndexSet implements PieceIndexSet {
     public boolean removeAll(PieceIndexSet indices) {
         boolean result = false;
 
-        for (int i: indices) {
+        for (int i = indices.nextIndex(0); i >= 0; 
+                i = indices.nextIndex(i + 1)) {
             result |= remove(i);
         }
 
@@ -0,0 +1,52 @@
+package mcast.ht.admin;
+
+import mcast.ht.ConfigProperties;
+
+interface Config {
+
+    static final String PROPERTY_PREFIX = 
+        mcast.ht.Config.PROPERTY_PREFIX + "admin.";
+    static final String s_piece_selection = PROPERTY_PREFIX + "piece_selection";
+    static final String s_interest_stripes = 
+        PROPERTY_PREFIX + "interest_stripes";
+    static final String s_min_stripe_pieces = 
+        PROPERTY_PREFIX + "min_stripe_pieces";
+    static final String s_piece_index_set_version = 
+        PROPERTY_PREFIX + "piece_index_set_version";
+
+    static ConfigProperties config = ConfigProperties.getInstance();
+
+    /**
+     * How to choose which pieces to request from a peer: 'random' (uniformly
+     * at random), 'rarest' (the pieces announced by the fewest peers, ties
+     * broken at random), 'sequential' (lowest index first), 'locality' (the
+     * pieces the fewest peers in our cluster have), or the class name of a
+     * PieceSelectionPolicy. Can be overridden per channel by appending 
+     * '.<channel name>' to the property name.
+     */
+    static final String PIECE_SELECTION = 
+        config.getStringProperty(s_piece_selection, "random");
+
+    /**
+     * Number of stripes, each with their own lock, in which the piece interest
+     * is divided. With 1 stripe, one lock protects the whole interest.
+     */
+    static final int INTEREST_STRIPES = config.getIntProperty(
+            s_interest_stripes, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Minimum number of pieces in a stripe of the piece interest
+     */
+    static final int MIN_STRIPE_PIECES = 
+        config.getIntProperty(s_min_stripe_pieces, 1024);
+
+    /**
+     * Format in which piece index sets are sent: 0 (one boolean per piece, 
+     * the only format older nodes read) or 1 (the smallest of several 
+     * encodings; only set it when all nodes are upgraded). Both formats are
+     * always accepted.
+     */
+    static final int PIECE_INDEX_SET_VERSION = 
+        config.getIntProperty(s_piece_index_set_version, 0);
+
+}
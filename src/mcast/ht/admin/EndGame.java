@@ -0,0 +1,292 @@
+package mcast.ht.admin;
+
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The administration of end game mode. When no more pieces can be requested
+ * normally, pieces that are still outstanding at other peers are requested
+ * again (as duplicates) from peers that have them, so a slow peer cannot
+ * delay the completion of the multicast.
+ *
+ * For every piece, we keep the peers it was requested from. The outstanding
+ * pieces that can still be requested again are kept in a set, which only
+ * changes when a request is made or a piece is received. Entering end game
+ * mode and receiving a piece therefore only cost time in the order of the
+ * number of requests of that piece.
+ *
+ * The number of duplicate requests is limited per piece, and in total, so
+ * the number of duplicate bytes sent to us is bounded.
+ *
+ * Which peers have which pieces is not kept here, but taken from the piece
+ * interest when duplicates are requested, so announcements of pieces do not
+ * pass this administration.
+ */
+public class EndGame {
+
+    private static final Logger logger = Logger.getLogger(EndGame.class);
+
+    private static final Object[] NOBODY = new Object[0];
+
+    private final int maxRequestsPerPiece;
+    private final int maxDuplicates;
+
+    // the peers each piece is requested from; null if there are none
+    private final Object[][] requesters;
+
+    // the pieces with at least one, but less than the maximum number of
+    // requests
+    private final PieceIndexSet outstanding;
+
+    private int duplicates;
+    private boolean started;
+
+    /**
+     * @param totalPieces
+     *                the total number of pieces
+     * @param maxRequestsPerPiece
+     *                the maximum number of peers each piece is requested from
+     *                at the same time (1 disables duplicate requests)
+     * @param maxDuplicates
+     *                the maximum number of duplicate requests outstanding at
+     *                the same time
+     */
+    public EndGame(int totalPieces, int maxRequestsPerPiece,
+            int maxDuplicates) {
+        this.maxRequestsPerPiece = maxRequestsPerPiece;
+        this.maxDuplicates = maxDuplicates;
+
+        requesters = new Object[totalPieces][];
+        outstanding = PieceIndexSetFactory.createEmptyPieceIndexSet(totalPieces);
+
+        duplicates = 0;
+        started = false;
+    }
+
+    /**
+     * Returns the maximum number of pieces this administration can hold.
+     */
+    public int getCapacity() {
+        return requesters.length;
+    }
+
+    /**
+     * Forgets all requests, so the administration can be used for another 
+     * multicast. The memory of the administration is kept.
+     */
+    public synchronized void reset() {
+        Arrays.fill(requesters, null);
+
+        outstanding.clear();
+
+        duplicates = 0;
+        started = false;
+    }
+
+    /**
+     * Registers that the given pieces were requested from a peer.
+     */
+    public synchronized void requested(Object peer, int[] pieceIndices) {
+        for (int i: pieceIndices) {
+            addRequester(i, peer);
+        }
+    }
+
+    /**
+     * Starts end game mode, if it had not started yet.
+     *
+     * @return true if end game mode started now, false if it had started
+     *         before
+     */
+    public synchronized boolean start() {
+        if (started) {
+            return false;
+        }
+
+        started = true;
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("starting end game, outstanding pieces: " +
+                    outstanding);
+        }
+
+        return true;
+    }
+
+    public synchronized boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Adds duplicate requests to the given pieces, up to the given amount, and
+     * registers them. Only pieces the peer has and that were not requested
+     * from it before are chosen; pieces that were requested from the fewest
+     * peers go first.
+     *
+     * @param peer
+     *                the peer to request pieces from
+     * @param has
+     *                the pieces the peer has, as known by the piece interest
+     * @param picked
+     *                the pieces that were already picked to request from the
+     *                peer
+     * @param amount
+     *                the maximum number of pieces to request from the peer
+     *
+     * @return the picked pieces, followed by the duplicate requests
+     */
+    public int[] requestDuplicates(Object peer, PieceIndexSet has,
+            int[] picked, int amount) {
+        return requestDuplicates(peer, has, picked, amount, null);
+    }
+
+    /**
+     * Adds duplicate requests like 
+     * requestDuplicates(peer, has, picked, amount),
+     * but only of the given eligible pieces. Channels use this to honour their
+     * own rules about which pieces may be requested from which peers.
+     *
+     * @param eligible
+     *                the pieces that may be requested from the peer, or null
+     *                if all pieces may be requested
+     */
+    public synchronized int[] requestDuplicates(Object peer, 
+            PieceIndexSet has, int[] picked, int amount, 
+            PieceIndexSet eligible) {
+        if (!started || picked.length >= amount || duplicates >= maxDuplicates) {
+            return picked;
+        }
+
+        PieceIndexSet candidates = outstanding.and(has);
+
+        if (eligible != null) {
+            candidates = candidates.and(eligible);
+        }
+
+        int[] result = new int[amount];
+        System.arraycopy(picked, 0, result, 0, picked.length);
+        int count = picked.length;
+
+        // take the pieces with the fewest requesters first
+        for (int requests = 1; requests < maxRequestsPerPiece &&
+                count < amount && duplicates < maxDuplicates; requests++) {
+            for (int i = candidates.nextIndex(0); i >= 0 && count < amount &&
+                    duplicates < maxDuplicates; i = candidates.nextIndex(i + 1)) {
+                Object[] r = requesters[i];
+
+                if (r != null && r.length == requests && !contains(r, peer)) {
+                    addRequester(i, peer);
+                    result[count++] = i;
+                }
+            }
+        }
+
+        if (count < amount) {
+            int[] shorter = new int[count];
+            System.arraycopy(result, 0, shorter, 0, count);
+            result = shorter;
+        }
+
+        if (logger.isDebugEnabled() && count > picked.length) {
+            logger.debug("[end game] requesting " + (count - picked.length) +
+                    " duplicate pieces from " + peer + ", " + duplicates +
+                    " duplicates outstanding");
+        }
+
+        return result;
+    }
+
+    /**
+     * Registers that the request of a piece from a peer timed out, and
+     * forgets it.
+     *
+     * @return true if the piece is not requested from any other peer
+     */
+    public synchronized boolean timedOut(Object peer, int pieceIndex) {
+        Object[] r = requesters[pieceIndex];
+
+        if (r == null || !contains(r, peer)) {
+            return r == null;
+        }
+
+        if (r.length == 1) {
+            requesters[pieceIndex] = null;
+            outstanding.remove(pieceIndex);
+            return true;
+        }
+
+        Object[] newR = new Object[r.length - 1];
+        int count = 0;
+
+        for (Object p: r) {
+            if (!p.equals(peer)) {
+                newR[count++] = p;
+            }
+        }
+
+        requesters[pieceIndex] = newR;
+        duplicates--;
+
+        // the piece can be requested again from another peer
+        outstanding.add(pieceIndex);
+
+        return false;
+    }
+
+    /**
+     * Registers that a piece was received, and forgets its requests.
+     *
+     * @return the peers the piece was requested from
+     */
+    public synchronized Object[] received(int pieceIndex) {
+        Object[] result = requesters[pieceIndex];
+
+        if (result == null) {
+            return NOBODY;
+        }
+
+        requesters[pieceIndex] = null;
+        outstanding.remove(pieceIndex);
+        duplicates -= result.length - 1;
+
+        return result;
+    }
+
+    private void addRequester(int pieceIndex, Object peer) {
+        Object[] r = requesters[pieceIndex];
+
+        if (r == null) {
+            r = new Object[] { peer };
+        } else {
+            Object[] newR = new Object[r.length + 1];
+            System.arraycopy(r, 0, newR, 0, r.length);
+            newR[r.length] = peer;
+            r = newR;
+
+            duplicates++;
+        }
+
+        requesters[pieceIndex] = r;
+
+        if (r.length < maxRequestsPerPiece) {
+            outstanding.add(pieceIndex);
+        } else {
+            outstanding.remove(pieceIndex);
+        }
+    }
+
+    /**
+     * Returns whether the given array of peers contains the given peer.
+     */
+    public static boolean contains(Object[] peers, Object peer) {
+        for (Object p: peers) {
+            if (p.equals(peer)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+}
@@ -0,0 +1,60 @@
+package mcast.ht.admin;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Prefers pieces that none or few of the local peers (the peers in our own 
+ * cluster) have, so the pieces we fetch from other peers are new to our 
+ * cluster and can be shared locally afterwards. 
+ * 
+ * Scanning all candidates for every request would be too slow, so we take a 
+ * small random sample of them and select the one the fewest local peers have.
+ */
+public class LocalityAwarePieceSelection implements PieceSelectionPolicy {
+
+    private static final int SAMPLES = 8;
+
+    private final Set<?> localPeers;
+
+    public LocalityAwarePieceSelection() {
+        this(Collections.emptySet());
+    }
+
+    public LocalityAwarePieceSelection(Set<?> localPeers) {
+        this.localPeers = localPeers;
+    }
+
+    public boolean needsAvailabilityOrder() {
+        return false;
+    }
+
+    public boolean prefersLowIndices() {
+        return false;
+    }
+
+    public int select(PieceCandidates candidates, Random random) {
+        int size = candidates.size();
+        int best = random.nextInt(size);
+
+        if (localPeers.isEmpty()) {
+            return candidates.getPiece(best);
+        }
+
+        int bestCount = candidates.countPeers(best, localPeers);
+
+        for (int i = 1; i < SAMPLES && bestCount > 0 && i < size; i++) {
+            int position = random.nextInt(size);
+            int count = candidates.countPeers(position, localPeers);
+
+            if (count < bestCount) {
+                best = position;
+                bestCount = count;
+            }
+        }
+
+        return candidates.getPiece(best);
+    }
+
+}
@@ -0,0 +1,56 @@
+package mcast.ht.admin;
+
+/**
+ * What one peer has of the pieces in a piece interest: a bitmap of the pieces
+ * it announced that we are, or were, interested in (minus the offset of the 
+ * interest), and the ones we are still interested in as a golden and a silver
+ * list to pick from.
+ */
+class PeerInterest {
+
+    private Object peer;
+    private final PieceIndexBitSet have;
+    private final PieceList gold;
+    private final PieceList silver;
+
+    PeerInterest(Object peer, int offset, int capacity, int[] availability,
+            boolean byAvailability) {
+        this.peer = peer;
+
+        have = new PieceIndexBitSet(capacity);
+
+        int[] positions = new int[capacity];
+        gold = new PieceList(offset, positions, availability, byAvailability);
+        silver = new PieceList(offset, positions, availability, 
+                byAvailability);
+    }
+
+    Object getPeer() {
+        return peer;
+    }
+
+    /**
+     * Makes this the administration of another peer, that has no pieces yet.
+     * The memory is kept.
+     */
+    void reset(Object peer, boolean byAvailability) {
+        this.peer = peer;
+
+        have.clear();
+        gold.clear(byAvailability);
+        silver.clear(byAvailability);
+    }
+
+    /**
+     * Returns the pieces the peer has that are, or were, in the golden or 
+     * silver list
+     */
+    PieceIndexBitSet getHave() {
+        return have;
+    }
+
+    PieceList getList(boolean golden) {
+        return golden ? gold : silver;
+    }
+
+}
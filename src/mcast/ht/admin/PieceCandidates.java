@@ -0,0 +1,50 @@
+package mcast.ht.admin;
+
+import java.util.Set;
+
+/**
+ * The pieces a piece selection policy can choose from: the pieces we are 
+ * interested in that a certain peer has. Candidates can be accessed by 
+ * position, in an arbitrary order, or by piece index.
+ */
+public interface PieceCandidates {
+
+    /**
+     * @return the number of candidates
+     */
+    public int size();
+
+    /**
+     * @return the index of the piece at the given position, which lies
+     *         between 0 (inclusive) and size() (exclusive)
+     */
+    public int getPiece(int position);
+
+    /**
+     * @return the number of peers that announced to have the piece at the 
+     *         given position
+     */
+    public int getAvailability(int position);
+
+    /**
+     * Returns the number of candidates with the lowest availability. These
+     * are the candidates at the first positions. Only supported if the policy
+     * needs the availability order.
+     * 
+     * @return the number of least available candidates
+     */
+    public int getLeastAvailableCount();
+
+    /**
+     * @return the lowest piece index of a candidate at or after the given 
+     *         index, or -1 if there is none
+     */
+    public int nextPiece(int fromIndex);
+
+    /**
+     * @return how many of the given peers announced to have the piece at the
+     *         given position
+     */
+    public int countPeers(int position, Set<?> peers);
+
+}
@@ -0,0 +1,636 @@
+package mcast.ht.admin;
+
+import ibis.ipl.WriteMessage;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A piece index set that stores one bit per piece in an array of longs. Set
+ * operations with other bit sets work a word (64 pieces) at a time.
+ */
+public class PieceIndexBitSet extends AbstractPieceIndexSet
+        implements PieceIndexSet {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private static final int ADDRESS_BITS_PER_WORD = 6;
+    private static final int BITS_PER_WORD = 1 << ADDRESS_BITS_PER_WORD;
+    private static final long WORD_MASK = 0xffffffffffffffffL;
+
+    private long[] words;
+    private int size;
+    private boolean frozen;
+
+    PieceIndexBitSet() {
+        init(DEFAULT_CAPACITY);
+    }
+
+    PieceIndexBitSet(int capacity) {
+        init(capacity);
+    }
+
+    PieceIndexBitSet(long[] words, int size) {
+        this.words = words;
+        this.size = size;
+    }
+
+    /**
+     * Creates a copy of the given set. The copy is never frozen.
+     */
+    PieceIndexBitSet(PieceIndexBitSet original) {
+        size = original.size;
+
+        words = new long[original.words.length];
+        System.arraycopy(original.words, 0, words, 0, words.length);
+    }
+
+    private void init(int capacity) {
+        words = new long[wordCount(capacity)];
+        size = 0;
+    }
+
+    /**
+     * Makes this set immutable; all methods that would change it throw an 
+     * UnsupportedOperationException from now on. Frozen sets can be shared 
+     * between threads without locking.
+     */
+    void freeze() {
+        frozen = true;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("piece index set is " +
+                    "immutable");
+        }
+    }
+
+    private static int wordIndex(int index) {
+        return index >> ADDRESS_BITS_PER_WORD;
+    }
+
+    private static int wordCount(int capacity) {
+        return wordIndex(Math.max(0, capacity) + BITS_PER_WORD - 1);
+    }
+
+    private static int countBits(long[] words) {
+        int result = 0;
+
+        for (long word: words) {
+            result += Long.bitCount(word);
+        }
+
+        return result;
+    }
+
+    public void clear() {
+        checkNotFrozen();
+        Arrays.fill(words, 0L);
+        size = 0;
+    }
+
+    long[] getWords() {
+        return words;
+    }
+
+    public void writeTo(WriteMessage m) throws IOException {
+        PieceIndexSetCodec.write(this, m);
+    }
+
+    private void ensureCapacity(int capacity) {
+        int wordsRequired = wordCount(capacity);
+
+        if (words.length < wordsRequired) {
+            // double the number of words until the capacity suffices
+            int newLength = Math.max(1, words.length);
+
+            while (newLength < wordsRequired) {
+                newLength <<= 1;
+            }
+
+            long[] newWords = new long[newLength];
+            System.arraycopy(words, 0, newWords, 0, words.length);
+            words = newWords;
+        }
+    }
+
+    public void add(int index) {
+        checkNotFrozen();
+        ensureCapacity(index + 1);
+
+        int w = wordIndex(index);
+        long bit = 1L << index;
+
+        if ((words[w] & bit) == 0) {
+            // bit was not present yet
+            words[w] |= bit;
+            size++;
+        }
+    }
+
+    public void add(int start, int end) {
+        checkNotFrozen();
+
+        if (start >= end) {
+            return;
+        }
+
+        ensureCapacity(end);
+
+        int startWord = wordIndex(start);
+        int endWord = wordIndex(end - 1);
+
+        long firstMask = WORD_MASK << start;
+        long lastMask = WORD_MASK >>> -end;
+
+        if (startWord == endWord) {
+            setBits(startWord, firstMask & lastMask);
+        } else {
+            setBits(startWord, firstMask);
+
+            for (int w = startWord + 1; w < endWord; w++) {
+                setBits(w, WORD_MASK);
+            }
+
+            setBits(endWord, lastMask);
+        }
+    }
+
+    private void setBits(int w, long mask) {
+        long old = words[w];
+        words[w] = old | mask;
+        size += Long.bitCount(mask & ~old);
+    }
+
+    public void addAll(PieceIndexSet indices) {
+        checkNotFrozen();
+
+        if (indices instanceof PieceIndexBitSet) {
+            PieceIndexBitSet other = (PieceIndexBitSet)indices;
+
+            if (words.length < other.words.length) {
+                ensureCapacity(other.words.length * BITS_PER_WORD);
+            }
+
+            for (int w = 0; w < other.words.length; w++) {
+                setBits(w, other.words[w]);
+            }
+        } else {
+            super.addAll(indices);
+        }
+    }
+
+    public PieceIndexSet and(PieceIndexSet indices) {
+        PieceIndexBitSet result = new PieceIndexBitSet(0);
+        result.words = new long[words.length];
+
+        if (indices instanceof PieceIndexBitSet) {
+            PieceIndexBitSet other = (PieceIndexBitSet)indices;
+
+            int common = Math.min(words.length, other.words.length);
+
+            for (int w = 0; w < common; w++) {
+                result.words[w] = words[w] & other.words[w];
+            }
+
+            result.size = countBits(result.words);
+        } else {
+            for (int i = nextIndex(0); i >= 0; i = nextIndex(i + 1)) {
+                if (indices.contains(i)) {
+                    result.add(i);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the indices of the given set from offset (inclusive) to
+     * offset + length (exclusive), minus offset. Bit sets with an offset that
+     * is a multiple of 64 are copied a word at a time.
+     */
+    static PieceIndexBitSet window(PieceIndexSet indices, int offset,
+            int length) {
+        PieceIndexBitSet result = new PieceIndexBitSet(length);
+
+        if (indices instanceof PieceIndexBitSet &&
+                (offset & (BITS_PER_WORD - 1)) == 0) {
+            long[] other = ((PieceIndexBitSet)indices).words;
+
+            int first = wordIndex(offset);
+            int count = Math.min(result.words.length, other.length - first);
+
+            if (count > 0) {
+                System.arraycopy(other, first, result.words, 0, count);
+
+                if (count == result.words.length) {
+                    // clear the bits at and beyond length in the last word
+                    result.words[count - 1] &= WORD_MASK >>> -length;
+                }
+
+                result.size = countBits(result.words);
+            }
+        } else {
+            int end = offset + length;
+
+            for (int i = indices.nextIndex(offset); i >= 0 && i < end;
+                    i = indices.nextIndex(i + 1)) {
+                result.add(i - offset);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the indices in this set that are in the given set once offset
+     * is added to them. Bit sets with an offset that is a multiple of 64 are
+     * intersected a word at a time.
+     */
+    PieceIndexBitSet and(PieceIndexSet indices, int offset) {
+        PieceIndexBitSet result = new PieceIndexBitSet(0);
+        result.words = new long[words.length];
+
+        if (indices instanceof PieceIndexBitSet &&
+                (offset & (BITS_PER_WORD - 1)) == 0) {
+            long[] other = ((PieceIndexBitSet)indices).words;
+
+            int first = wordIndex(offset);
+            int common = Math.min(words.length, other.length - first);
+
+            for (int w = 0; w < common; w++) {
+                result.words[w] = words[w] & other[first + w];
+            }
+
+            result.size = countBits(result.words);
+        } else {
+            for (int i = nextIndex(0); i >= 0; i = nextIndex(i + 1)) {
+                if (indices.contains(i + offset)) {
+                    result.add(i);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns a copy of this set with the given offset added to every index.
+     * An offset that is a multiple of 64 moves whole words.
+     */
+    PieceIndexBitSet shift(int offset) {
+        PieceIndexBitSet result;
+
+        if ((offset & (BITS_PER_WORD - 1)) == 0) {
+            result = new PieceIndexBitSet(0);
+            result.words = new long[wordIndex(offset) + words.length];
+
+            System.arraycopy(words, 0, result.words, wordIndex(offset),
+                    words.length);
+
+            result.size = size;
+        } else {
+            result = new PieceIndexBitSet(offset + words.length *
+                    BITS_PER_WORD);
+
+            for (int i = nextIndex(0); i >= 0; i = nextIndex(i + 1)) {
+                result.add(i + offset);
+            }
+        }
+
+        return result;
+    }
+
+    public PieceIndexSet or(PieceIndexSet indices) {
+        PieceIndexBitSet result = new PieceIndexBitSet(this);
+        result.addAll(indices);
+        return result;
+    }
+
+    public PieceIndexSet not(int lastIndex) {
+        PieceIndexBitSet result = new PieceIndexBitSet(lastIndex);
+
+        int wordCount = wordCount(lastIndex);
+        int common = Math.min(words.length, wordCount);
+
+        for (int w = 0; w < common; w++) {
+            result.words[w] = ~words[w];
+        }
+
+        for (int w = common; w < wordCount; w++) {
+            result.words[w] = WORD_MASK;
+        }
+
+        // clear the bits at and beyond lastIndex in the last word
+        if (wordCount > 0) {
+            result.words[wordCount - 1] &= WORD_MASK >>> -lastIndex;
+        }
+
+        result.size = countBits(result.words);
+
+        return result;
+    }
+
+    public boolean containsAny(PieceIndexSet indices) {
+        if (indices instanceof PieceIndexBitSet) {
+            PieceIndexBitSet other = (PieceIndexBitSet)indices;
+
+            int common = Math.min(words.length, other.words.length);
+
+            for (int w = 0; w < common; w++) {
+                if ((words[w] & other.words[w]) != 0) {
+                    return true;
+                }
+            }
+
+            return false;
+        } else {
+            return super.containsAny(indices);
+        }
+    }
+
+    public boolean removeAll(PieceIndexSet indices) {
+        checkNotFrozen();
+
+        if (indices instanceof PieceIndexBitSet) {
+            PieceIndexBitSet other = (PieceIndexBitSet)indices;
+
+            int common = Math.min(words.length, other.words.length);
+            int oldSize = size;
+
+            for (int w = 0; w < common; w++) {
+                long removed = words[w] & other.words[w];
+
+                if (removed != 0) {
+                    words[w] &= ~removed;
+                    size -= Long.bitCount(removed);
+                }
+            }
+
+            return size != oldSize;
+        } else {
+            return super.removeAll(indices);
+        }
+    }
+
+    public boolean contains(int index) {
+        int w = wordIndex(index);
+
+        if (index < 0 || w >= words.length) {
+            // index lies outside the current capacity, so it's not present
+            return false;
+        } else {
+            return (words[w] & (1L << index)) != 0;
+        }
+    }
+
+    public void init(int offset, int length) {
+        checkNotFrozen();
+
+        words = new long[wordCount(offset + length)];
+        size = 0;
+
+        add(offset, offset + length);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean remove(int index) {
+        checkNotFrozen();
+
+        int w = wordIndex(index);
+
+        if (index >= 0 && w < words.length) {
+            long bit = 1L << index;
+
+            if ((words[w] & bit) != 0) {
+                words[w] &= ~bit;
+                size--;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    protected PieceIndexSet createEmptySet() {
+        return new PieceIndexBitSet();
+    }
+
+    public PieceIndexSet removeFirst(double fraction) {
+        checkNotFrozen();
+
+        return super.removeFirst(fraction);
+    }
+
+    protected PieceIndexSet doRemoveFirst(int amount) {
+        PieceIndexBitSet result = new PieceIndexBitSet(0);
+        result.words = new long[words.length];
+
+        int remaining = amount;
+
+        for (int w = 0; w < words.length && remaining > 0; w++) {
+            long word = words[w];
+            int bits = Long.bitCount(word);
+
+            if (bits <= remaining) {
+                // take the whole word
+                result.words[w] = word;
+                words[w] = 0;
+                remaining -= bits;
+            } else {
+                // take the lowest 'remaining' bits of this word
+                long taken = 0;
+
+                for (int i = 0; i < remaining; i++) {
+                    long lowest = word & -word;
+                    taken |= lowest;
+                    word &= ~lowest;
+                }
+
+                result.words[w] = taken;
+                words[w] = word;
+                remaining = 0;
+            }
+        }
+
+        result.size = amount;
+        size -= amount;
+
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int nextIndex(int fromIndex) {
+        if (fromIndex < 0) {
+            fromIndex = 0;
+        }
+
+        int w = wordIndex(fromIndex);
+
+        if (w >= words.length) {
+            return -1;
+        }
+
+        long word = words[w] & (WORD_MASK << fromIndex);
+
+        while (true) {
+            if (word != 0) {
+                return (w * BITS_PER_WORD) + Long.numberOfTrailingZeros(word);
+            }
+
+            if (++w == words.length) {
+                return -1;
+            }
+
+            word = words[w];
+        }
+    }
+
+    /**
+     * Returns the first index not in this set at or after the given index.
+     */
+    public int nextClearBit(int fromIndex) {
+        int w = wordIndex(fromIndex);
+
+        if (w >= words.length) {
+            return fromIndex;
+        }
+
+        long word = ~words[w] & (WORD_MASK << fromIndex);
+
+        while (true) {
+            if (word != 0) {
+                return (w * BITS_PER_WORD) + Long.numberOfTrailingZeros(word);
+            }
+
+            if (++w == words.length) {
+                return w * BITS_PER_WORD;
+            }
+
+            word = ~words[w];
+        }
+    }
+
+    public Iterator<Integer> iterator() {
+        return new BitSetIterator();
+    }
+
+    public boolean equals(Object o) {
+        if (o == null) {
+            return false;
+        } else if (this == o) {
+            return true;
+        } else if (o instanceof PieceIndexBitSet) {
+            PieceIndexBitSet other = (PieceIndexBitSet) o;
+
+            if (size != other.size) {
+                return false;
+            }
+
+            int smallest = Math.min(words.length, other.words.length);
+
+            for (int w = 0; w < smallest; w++) {
+                if (words[w] != other.words[w]) {
+                    return false;
+                }
+            }
+
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    public int hashCode() {
+        long h = 1234;
+
+        for (int w = words.length - 1; w >= 0; w--) {
+            h ^= words[w] * (w + 1);
+        }
+
+        return (int)((h >> 32) ^ h);
+    }
+
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        String concat = "";
+
+        result.append('[');
+
+        int rangeStart = nextIndex(0);
+
+        while (rangeStart >= 0) {
+            int rangeEnd = rangeStart;
+
+            while (contains(rangeEnd + 1)) {
+                rangeEnd++;
+            }
+
+            result.append(concat);
+            result.append(rangeStart);
+
+            if (rangeEnd > rangeStart) {
+                result.append('-');
+                result.append(rangeEnd);
+            }
+
+            concat = ",";
+
+            rangeStart = nextIndex(rangeEnd + 1);
+        }
+
+        result.append("]");
+
+        return result.toString();
+    }
+
+    public PieceIndexSet deepCopy() {
+        return new PieceIndexBitSet(this);
+    }
+
+    private class BitSetIterator implements Iterator<Integer> {
+
+        int cursor;
+        int next;
+
+        BitSetIterator() {
+            cursor = -1;
+            next = nextIndex(0);
+        }
+
+        public boolean hasNext() {
+            return next >= 0;
+        }
+
+        public Integer next() {
+            if (next < 0) {
+                throw new NoSuchElementException();
+            }
+
+            cursor = next;
+            next = nextIndex(cursor + 1);
+
+            return Integer.valueOf(cursor);
+        }
+
+        public void remove() {
+            if (cursor < 0) {
+                throw new IllegalStateException("next() not called yet");
+            } else if (!PieceIndexBitSet.this.remove(cursor)) {
+                throw new IllegalStateException("remove() was already called");
+            }
+        }
+
+    }
+
+}
@@ -40,7 +40,8 @@ public class PieceIndexBooleanSet extends AbstractPieceIndexSet
     }
 
     public void clear() {
-        init(DEFAULT_CAPACITY);
+        Arrays.fill(list, false);
+        size = 0;
     }
 
     PieceIndexBooleanSet(ReadMessage m) throws IOException {
@@ -124,6 +125,18 @@ public class PieceIndexBooleanSet extends AbstractPieceIndexSet
     }
 
     public void writeTo(WriteMessage m) throws IOException {
+        // use the same encoding as the default piece index sets, so
+        // PieceIndexSetFactory can read it back
+        PieceIndexBitSet bits = new PieceIndexBitSet(list.length);
+        bits.addAll(this);
+        bits.writeTo(m);
+    }
+
+    /**
+     * Writes this set in the old format, which is read back by the 
+     * PieceIndexBooleanSet(ReadMessage) constructor.
+     */
+    void writeBooleansTo(WriteMessage m) throws IOException {
         m.writeInt(size);
         m.writeInt(list.length);
         
@@ -153,7 +166,7 @@ public class PieceIndexBooleanSet extends AbstractPieceIndexSet
             return capacity;
         } else {
             // double the size of the current array until the capacity suffices
-            int newSize = list.length;
+            int newSize = Math.max(1, list.length);
 
             while (newSize < capacity) {
                 newSize <<= 1; // times 2
@@ -205,7 +218,7 @@ public class PieceIndexBooleanSet extends AbstractPieceIndexSet
 
         result.size = size;
 
-        for (Integer i : other) {
+        for (int i = other.nextIndex(0); i >= 0; i = other.nextIndex(i + 1)) {
             result.add(i);
         }
 
@@ -247,6 +260,7 @@ public class PieceIndexBooleanSet extends AbstractPieceIndexSet
 
     public void init(int offset, int length) {
         ensureCapacity(offset + length, true);
+        Arrays.fill(list, false);
         Arrays.fill(list, offset, offset + length, true);
         size = length;
     }
@@ -297,6 +311,16 @@ public class PieceIndexBooleanSet extends AbstractPieceIndexSet
         return size;
     }
 
+    public int nextIndex(int fromIndex) {
+        for (int i = Math.max(0, fromIndex); i < list.length; i++) {
+            if (list[i]) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
     public Iterator<Integer> iterator() {
         return new BooleanSetIterator();
     }
@@ -19,7 +19,8 @@ public interface PieceIndexSet extends Iterable<Integer> {
     public void init(int offset, int amount);
 
     /**
-     * Removes all piece indices in this set.
+     * Removes all piece indices in this set. The memory of the set is kept, so
+     * it can be filled up again without growing.
      */
     public void clear();
 
@@ -154,6 +155,22 @@ public interface PieceIndexSet extends Iterable<Integer> {
      */
     public void writeTo(WriteMessage m) throws IOException;
 
+    /**
+     * Returns the smallest piece index in this set that is equal to or larger
+     * than the given index, or -1 if there is none. Unlike iterator(), this 
+     * does not box the indices; to visit all indices in a set, use:
+     * 
+     * <pre>
+     * for (int i = set.nextIndex(0); i >= 0; i = set.nextIndex(i + 1)) {
+     *     ...
+     * }
+     * </pre>
+     * 
+     * @param fromIndex
+     *                the index to start looking from (inclusive)
+     */
+    public int nextIndex(int fromIndex);
+
     /**
      * Returns an iterator of Integer objects, that each represent the index of
      * a piece that is present in this set.
@@ -0,0 +1,343 @@
+package mcast.ht.admin;
+
+import ibis.ipl.ReadMessage;
+import ibis.ipl.WriteMessage;
+
+import java.io.IOException;
+
+/**
+ * Encodes piece index sets in messages. Each message starts with a negative
+ * version number and an encoding byte; the encoding is chosen per message, 
+ * whichever is estimated to be the smallest:
+ * <ul>
+ * <li>RANGES: the runs of consecutive indices, as variable-length gaps and
+ * run lengths (small for nearly full or nearly empty sets)</li>
+ * <li>INDICES: the individual indices, as variable-length gaps (small for
+ * sparse sets)</li>
+ * <li>BITS: one bit per piece (small for fragmented sets)</li>
+ * </ul>
+ * The legacy format (version 0) is the one of PieceIndexBooleanSet, which 
+ * older nodes read and write: the set size, the capacity and one boolean per
+ * piece up to the capacity. Its first int is a size, so never negative; that
+ * is how the reader tells both formats apart. The version is an int rather 
+ * than a byte since the Ibis data serialization keeps ints and bytes in 
+ * separate buffers, so a leading byte cannot be peeked at.
+ * <p>
+ * Older nodes only read the legacy format. Since connections do not 
+ * negotiate a version, the sender writes the format configured with the 
+ * piece_index_set_version property, which is the legacy format by default. 
+ * New nodes read both formats, so the property can be set to 1 once all 
+ * nodes are upgraded. Nodes that receive an unknown version fail with a 
+ * clear error instead of misinterpreting it.
+ */
+class PieceIndexSetCodec {
+
+    static final int VERSION = 1;
+
+    static final int LEGACY_VERSION = 0;
+
+    static final byte ENCODING_BITS = 0;
+    static final byte ENCODING_RANGES = 1;
+    static final byte ENCODING_INDICES = 2;
+
+    // estimated average number of bytes of one variable-length number
+    private static final int AVG_VARINT_SIZE = 2;
+
+    // largest number of bytes of one variable-length int
+    private static final int MAX_VARINT_SIZE = 5;
+
+    private PieceIndexSetCodec() {
+        // static methods only
+    }
+
+    static void write(PieceIndexBitSet set, WriteMessage m) throws IOException {
+        write(set, m, Config.PIECE_INDEX_SET_VERSION);
+    }
+
+    /**
+     * Writes the given set in the format of the given version.
+     */
+    static void write(PieceIndexBitSet set, WriteMessage m, int version) 
+    throws IOException {
+        if (version == LEGACY_VERSION) {
+            writeLegacy(set, m);
+            return;
+        }
+
+        long[] words = set.getWords();
+
+        int wordCount = words.length;
+        while (wordCount > 0 && words[wordCount - 1] == 0) {
+            wordCount--;
+        }
+
+        int runs = countRuns(words, wordCount);
+        int size = set.size();
+
+        long bitsCost = 8L * wordCount;
+        long rangesCost = 2L * AVG_VARINT_SIZE * runs;
+        long indicesCost = (long)AVG_VARINT_SIZE * size;
+
+        m.writeInt(-VERSION);
+
+        if (bitsCost <= rangesCost && bitsCost <= indicesCost) {
+            m.writeByte(ENCODING_BITS);
+            m.writeInt(size);
+            m.writeInt(wordCount);
+            m.writeArray(words, 0, wordCount);
+        } else if (rangesCost <= indicesCost) {
+            byte[] buf = new byte[2 * MAX_VARINT_SIZE * runs];
+            int length = encodeRanges(set, buf);
+
+            m.writeByte(ENCODING_RANGES);
+            m.writeInt(size);
+            m.writeInt(length);
+            m.writeArray(buf, 0, length);
+        } else {
+            byte[] buf = new byte[MAX_VARINT_SIZE * size];
+            int length = encodeIndices(set, buf);
+
+            m.writeByte(ENCODING_INDICES);
+            m.writeInt(size);
+            m.writeInt(length);
+            m.writeArray(buf, 0, length);
+        }
+    }
+
+    static PieceIndexBitSet read(ReadMessage m) throws IOException {
+        int header = m.readInt();
+
+        if (header >= 0) {
+            return readLegacy(m, header);
+        }
+
+        int version = -header;
+
+        if (version != VERSION) {
+            throw new IOException("unsupported piece index set version: " +
+                    version + " (expected " + VERSION + ")");
+        }
+
+        byte encoding = m.readByte();
+        int size = m.readInt();
+        int length = m.readInt();
+
+        if (size < 0 || length < 0) {
+            throw new IOException("read negative piece index set size (" +
+                    size + ") or length (" + length + ")");
+        }
+
+        switch (encoding) {
+        case ENCODING_BITS: {
+            long[] words = new long[length];
+            m.readArray(words);
+            return new PieceIndexBitSet(words, size);
+        }
+        case ENCODING_RANGES: {
+            byte[] buf = new byte[length];
+            m.readArray(buf);
+            return decodeRanges(buf, size);
+        }
+        case ENCODING_INDICES: {
+            byte[] buf = new byte[length];
+            m.readArray(buf);
+            return decodeIndices(buf, size);
+        }
+        default:
+            throw new IOException("unknown piece index set encoding: " +
+                    encoding);
+        }
+    }
+
+    /**
+     * Writes the given set in the legacy format, with a capacity of one more
+     * than its largest index.
+     */
+    private static void writeLegacy(PieceIndexBitSet set, WriteMessage m) 
+    throws IOException {
+        long[] words = set.getWords();
+
+        int wordCount = words.length;
+        while (wordCount > 0 && words[wordCount - 1] == 0) {
+            wordCount--;
+        }
+
+        int capacity = wordCount == 0 ? 0 : 
+            64 * wordCount - Long.numberOfLeadingZeros(words[wordCount - 1]);
+
+        boolean[] list = new boolean[capacity];
+
+        for (int i = set.nextIndex(0); i >= 0; i = set.nextIndex(i + 1)) {
+            list[i] = true;
+        }
+
+        m.writeInt(set.size());
+        m.writeInt(capacity);
+        m.writeArray(list);
+    }
+
+    /**
+     * Reads the rest of a set in the legacy format, of which the size was 
+     * already read.
+     */
+    private static PieceIndexBitSet readLegacy(ReadMessage m, int size) 
+    throws IOException {
+        int capacity = m.readInt();
+
+        if (capacity < 0) {
+            throw new IOException("read negative capacity: " + capacity);
+        }
+
+        boolean[] list = new boolean[capacity];
+        m.readArray(list);
+
+        PieceIndexBitSet result = new PieceIndexBitSet(capacity);
+
+        for (int i = 0; i < capacity; i++) {
+            if (list[i]) {
+                result.add(i);
+            }
+        }
+
+        checkSize(result, size);
+
+        return result;
+    }
+
+    /**
+     * Returns the number of runs of consecutive ones in the given words.
+     */
+    private static int countRuns(long[] words, int wordCount) {
+        int result = 0;
+        long carry = 0;
+
+        for (int w = 0; w < wordCount; w++) {
+            long word = words[w];
+
+            // a run starts at each one that is not preceded by a one
+            result += Long.bitCount(word & ~((word << 1) | carry));
+            carry = word >>> 63;
+        }
+
+        return result;
+    }
+
+    private static int encodeRanges(PieceIndexBitSet set, byte[] buf) {
+        int pos = 0;
+        int prevEnd = 0;
+
+        for (int start = set.nextIndex(0); start >= 0;
+                start = set.nextIndex(prevEnd)) {
+            int end = set.nextClearBit(start);
+
+            pos = writeVarInt(buf, pos, start - prevEnd);
+            pos = writeVarInt(buf, pos, end - start);
+
+            prevEnd = end;
+        }
+
+        return pos;
+    }
+
+    private static PieceIndexBitSet decodeRanges(byte[] buf, int size)
+    throws IOException {
+        PieceIndexBitSet result = new PieceIndexBitSet(0);
+
+        int[] pos = new int[1];
+        int prevEnd = 0;
+
+        while (pos[0] < buf.length) {
+            int start = prevEnd + readVarInt(buf, pos);
+            int end = start + readVarInt(buf, pos);
+
+            result.add(start, end);
+
+            prevEnd = end;
+        }
+
+        checkSize(result, size);
+
+        return result;
+    }
+
+    private static int encodeIndices(PieceIndexBitSet set, byte[] buf) {
+        int pos = 0;
+        int next = 0;
+
+        for (int i = set.nextIndex(0); i >= 0; i = set.nextIndex(i + 1)) {
+            pos = writeVarInt(buf, pos, i - next);
+            next = i + 1;
+        }
+
+        return pos;
+    }
+
+    private static PieceIndexBitSet decodeIndices(byte[] buf, int size)
+    throws IOException {
+        PieceIndexBitSet result = new PieceIndexBitSet(0);
+
+        int[] pos = new int[1];
+        int next = 0;
+
+        while (pos[0] < buf.length) {
+            int index = next + readVarInt(buf, pos);
+
+            result.add(index);
+
+            next = index + 1;
+        }
+
+        checkSize(result, size);
+
+        return result;
+    }
+
+    private static void checkSize(PieceIndexSet set, int size)
+    throws IOException {
+        if (set.size() != size) {
+            throw new IOException("decoded " + set.size() + " piece " +
+                    "indices, expected " + size);
+        }
+    }
+
+    /**
+     * Writes a non-negative int in 7-bit groups, least significant first.
+     *
+     * @return the position after the written bytes
+     */
+    private static int writeVarInt(byte[] buf, int pos, int value) {
+        while ((value & ~0x7f) != 0) {
+            buf[pos++] = (byte)((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+
+        buf[pos++] = (byte)value;
+
+        return pos;
+    }
+
+    /**
+     * Reads an int written by writeVarInt at pos[0], and moves pos[0] beyond
+     * it.
+     */
+    private static int readVarInt(byte[] buf, int[] pos) throws IOException {
+        int result = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (pos[0] >= buf.length) {
+                throw new IOException("truncated piece index set");
+            }
+
+            byte b = buf[pos[0]++];
+
+            result |= (b & 0x7f) << shift;
+
+            if (b >= 0) {
+                return result;
+            }
+        }
+
+        throw new IOException("malformed piece index set");
+    }
+
+}
@@ -7,21 +7,21 @@ import java.io.IOException;
 public class PieceIndexSetFactory {
 
     public static PieceIndexSet createEmptyPieceIndexSet() {
-        return new PieceIndexBooleanSet();
+        return new PieceIndexBitSet();
     }
 
     public static PieceIndexSet createEmptyPieceIndexSet(int capacity) {
-        return new PieceIndexBooleanSet(capacity); 
+        return new PieceIndexBitSet(capacity); 
     }
 
     public static PieceIndexSet createFullPieceIndexSet(int size) {
-        PieceIndexSet set = new PieceIndexBooleanSet(size);
+        PieceIndexSet set = new PieceIndexBitSet(size);
         set.init(0, size);
         return set;
     }
 
     public static PieceIndexSet readPieceIndexSet(ReadMessage m) throws IOException {
-        return new PieceIndexBooleanSet(m);
+        return PieceIndexSetCodec.read(m);
     }
 
 }
@@ -1,5 +1,7 @@
 package mcast.ht.admin;
 
+import java.util.List;
+
 /**
  * Represents the interest of this peer in certain pieces from other peers.
  * The interest is split in two distinct groups: gold pieces and silver pieces.
@@ -9,9 +11,16 @@ package mcast.ht.admin;
  *    
  * The interest can be informed of the possession of pieces on certain peers
  * by calling the tellHave() methods. We only remember the existence of pieces 
- * in which we are interested.   
+ * in which we are interested, or were until they were removed, since removed
+ * pieces can be restored or requested again in end game mode.
+ * 
+ * The size of the interest only grows when a removed piece is restored.
  * 
- * The size of the interest never grows, it only shrinks.
+ * An interest can be reset for another multicast with at most as many pieces
+ * as its capacity. It then keeps the memory it allocated per piece, so 
+ * repeated multicasts on the same channel do not allocate it again. Its 
+ * peers are forgotten, since the next multicast can have other ones, but the
+ * memory allocated per peer is reused for the peers of the next multicast.
  */
 public interface PieceInterest {
 
@@ -59,6 +68,23 @@ public interface PieceInterest {
      */
     public void remove(int pieceIndex);
 
+    /**
+     * Puts a piece that was removed from this interest back, with the metal
+     * it had when it was removed. The piece can be removed again for all 
+     * peers that were known to have it, except the given peer, unless no 
+     * other peer has it. If the piece was never part of this interest, or was 
+     * not removed, nothing happens.
+     * 
+     * @param pieceIndex
+     *                the index of the piece we are interested in again
+     * @param peer
+     *                the peer to avoid, e.g. because its request of the piece
+     *                timed out; can be null
+     * 
+     * @return the peers the piece can be removed for again
+     */
+    public List<Object> restore(int pieceIndex, Object peer);
+
     /**
      * Removes at most the given amount of distinct golden or silver pieces from
      * this interest that the given peer has. Golden pieces are preferred; only
@@ -90,6 +116,28 @@ public interface PieceInterest {
      */
     public int[] removeGold(Object peer, int amount);
 
+    /**
+     * Removes at most the given amount of distinct pieces from this interest
+     * that the given peer has and that are part of the given set, lowest 
+     * indices first. The piece selection policy is not consulted; this is 
+     * used to request urgent pieces first.
+     * 
+     * @param peer
+     *                the peer whose possession of pieces we should use
+     * @param pieceIndices
+     *                the pieces that may be removed
+     * @param amount
+     *                the maximum amount of pieces to remove
+     * @param orSilver
+     *                whether silver pieces may be removed too, or only golden
+     *                ones
+     * 
+     * @return the indices of the removed pieces. The length of the returned
+     *         array can vary between 0 (inclusive) and amount (exclusive).
+     */
+    public int[] removeFrom(Object peer, PieceIndexSet pieceIndices, 
+            int amount, boolean orSilver);
+
     /**
      * Changes the metal of the given piece from gold to silver. If the piece
      * was already silver, or this interest does not contain the given piece,
@@ -151,6 +199,26 @@ public interface PieceInterest {
      */
     public PieceIndexSet getSilver(Object peer);
 
+    /**
+     * Returns the pieces a peer told us it has that we are interested in, or
+     * that were removed from this interest since. The latter are the ones 
+     * that can be requested again in end game mode, or restored.
+     * 
+     * @param peer the peer that has the pieces.
+     * 
+     * @return the pieces we know the given peer has.
+     */
+    public PieceIndexSet getHave(Object peer);
+
+    /**
+     * Returns all golden and silver pieces in this interest. Unlike the union
+     * of getGold() and getSilver(), this never misses a piece that changes 
+     * metal concurrently.
+     *  
+     * @return all golden and silver pieces in this interest.
+     */
+    public PieceIndexSet getGoldOrSilver();
+
     /**
      * Returns all golden pieces in this interest.
      *  
@@ -169,4 +237,25 @@ public interface PieceInterest {
 
     public boolean containsSilver();
 
+    /**
+     * Returns the number of pieces this interest can hold.
+     */
+    public int getCapacity();
+
+    /**
+     * Makes this interest as it was just after its creation with the given 
+     * pieces and policy: all pieces and peers are forgotten. The memory the 
+     * interest allocated per piece and per peer is kept.
+     * 
+     * @param silverPieces
+     *                the silver pieces we are interested in
+     * @param goldenPieces
+     *                the golden pieces we are interested in; a piece in both
+     *                sets is golden
+     * @param policy
+     *                the piece selection policy to use from now on
+     */
+    public void reset(PieceIndexSet silverPieces, PieceIndexSet goldenPieces,
+            PieceSelectionPolicy policy);
+
 }
@@ -1,10 +1,45 @@
 package mcast.ht.admin;
 
-public class PieceInterestFactory {
+public class PieceInterestFactory implements Config {
 
     public static PieceInterest createPieceInterest(int totalPieces,
             PieceIndexSet silver, PieceIndexSet gold) {
-        return new PieceInterestSharedObjects(totalPieces, silver, gold);
+        return createPieceInterest(totalPieces, silver, gold, 
+                PieceSelectionPolicyFactory.createPolicy());
+    }
+
+    public static PieceInterest createPieceInterest(int totalPieces,
+            PieceIndexSet silver, PieceIndexSet gold, 
+            PieceSelectionPolicy policy) {
+        int stripes = Math.min(INTEREST_STRIPES, 
+                totalPieces / Math.max(1, MIN_STRIPE_PIECES));
+
+        if (stripes <= 1) {
+            return new PieceInterestSharedObjects(totalPieces, silver, gold, 
+                    policy);
+        } else {
+            return new PieceInterestStriped(totalPieces, silver, gold, policy, 
+                    stripes);
+        }
+    }
+
+    /**
+     * Returns the given interest of an earlier multicast, reset to the given 
+     * pieces, if it can hold them; otherwise, a new interest is created.
+     * 
+     * @param interest
+     *                an interest that is not used anymore, or null
+     */
+    public static PieceInterest reusePieceInterest(PieceInterest interest,
+            int totalPieces, PieceIndexSet silver, PieceIndexSet gold, 
+            PieceSelectionPolicy policy) {
+        if (interest == null || interest.getCapacity() < totalPieces) {
+            return createPieceInterest(totalPieces, silver, gold, policy);
+        }
+
+        interest.reset(silver, gold, policy);
+
+        return interest;
     }
 
 }
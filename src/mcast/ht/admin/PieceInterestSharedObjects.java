@@ -1,42 +1,147 @@
 package mcast.ht.admin;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
+/**
+ * A piece interest that keeps, per peer, a bitmap of the pieces it has and
+ * lists of its golden and silver pieces to pick from. The availability of
+ * each piece is shared between all peers. All methods synchronize on the
+ * interest.
+ *
+ * Sets of announced pieces are intersected with the golden and silver pieces
+ * and with what we already knew of the peer a word at a time, and adding a
+ * piece to a list does not allocate objects.
+ *
+ * An interest can be limited to a range of pieces, so a PieceInterestStriped
+ * can use several of them, each with their own lock. Its bitmaps then hold 
+ * the piece indices minus the offset of the range, so their size and the 
+ * cost of intersecting them only depend on the length of the range. Methods
+ * take and return the piece indices themselves.
+ */
 public class PieceInterestSharedObjects implements PieceInterest {
 
+    private static final PeerInterest[] NO_PEERS = new PeerInterest[0];
+
     private Logger logger = Logger.getLogger(PieceInterestSharedObjects.class);
 
-    private final PieceIndexSet goldenPieces;
-    private final PieceIndexSet silverPieces;
-    private final SharedPiece[] pieces;
-    private final HashMap<Object, InterestNodeList> goldMap;
-    private final HashMap<Object, InterestNodeList> silverMap;
+    // the pieces of the range, minus its offset
+    private final PieceIndexBitSet goldenPieces;
+    private final PieceIndexBitSet silverPieces;
+    private final PieceIndexBitSet removedPieces;
+    private final PieceIndexBitSet removedGold;
+    private final int offset;
+    private final int capacity;
+    private final int[] availability;
+    private final Map<Object, PeerInterest> peerMap;
+    private PeerInterest[] peers;
+    // the administrations of the peers of earlier multicasts, to reuse
+    private PeerInterest[] released;
+    private int releasedCount;
     private final Random random;
+    private PieceSelectionPolicy policy;
 
     PieceInterestSharedObjects(int capacity, PieceIndexSet silverPieces,
-            PieceIndexSet goldenPieces) {
+            PieceIndexSet goldenPieces, PieceSelectionPolicy policy) {
+        this(0, capacity, silverPieces, goldenPieces, policy);
+    }
+
+    /**
+     * Creates an interest in the pieces from offset (inclusive) to
+     * offset + capacity (exclusive). Gold and silver pieces outside this
+     * range are ignored. The offset should be a multiple of 64, so sets of
+     * pieces can be taken in a word at a time.
+     */
+    PieceInterestSharedObjects(int offset, int capacity,
+            PieceIndexSet silverPieces, PieceIndexSet goldenPieces,
+            PieceSelectionPolicy policy) {
         if (logger.isTraceEnabled()) {
-            logger.trace("<init>(" + capacity + ", " + silverPieces + ", "
-                    + goldenPieces + ");");
+            logger.trace("<init>(" + offset + ", " + capacity + ", " +
+                    silverPieces + ", " + goldenPieces + ");");
         }
 
-        this.goldenPieces = goldenPieces.deepCopy();
-        this.silverPieces = silverPieces.deepCopy();
+        this.goldenPieces = PieceIndexBitSet.window(goldenPieces, offset, 
+                capacity);
+        this.silverPieces = PieceIndexBitSet.window(silverPieces, offset, 
+                capacity);
 
-        this.silverPieces.removeAll(goldenPieces);
+        this.silverPieces.removeAll(this.goldenPieces);
 
-        pieces = new SharedPiece[capacity];
-        goldMap = new HashMap<Object, InterestNodeList>();
-        silverMap = new HashMap<Object, InterestNodeList>();
+        removedPieces = new PieceIndexBitSet(capacity);
+        removedGold = new PieceIndexBitSet(capacity);
+
+        this.offset = offset;
+        this.capacity = capacity;
+        availability = new int[capacity];
+        // a concurrent map, so peekSize() can look up peers without locking
+        peerMap = new ConcurrentHashMap<Object, PeerInterest>();
+        peers = NO_PEERS;
+        released = NO_PEERS;
+        releasedCount = 0;
         random = new Random();
+        this.policy = policy;
+    }
+
+    private int end() {
+        return offset + capacity;
+    }
+
+    public int getCapacity() {
+        return end();
+    }
+
+    public synchronized void reset(PieceIndexSet silverPieces,
+            PieceIndexSet goldenPieces, PieceSelectionPolicy policy) {
+        if (logger.isTraceEnabled()) {
+            logger.trace("reset(" + silverPieces + ", " + goldenPieces + ");");
+        }
+
+        // only pieces that were never removed can still be available
+        for (int i = this.goldenPieces.nextIndex(0); i >= 0;
+                i = this.goldenPieces.nextIndex(i + 1)) {
+            availability[i] = 0;
+        }
 
-        for (int i = 0; i < pieces.length; i++) {
-            pieces[i] = new SharedPiece(i);
+        for (int i = this.silverPieces.nextIndex(0); i >= 0;
+                i = this.silverPieces.nextIndex(i + 1)) {
+            availability[i] = 0;
         }
+
+        this.goldenPieces.clear();
+        this.silverPieces.clear();
+        removedPieces.clear();
+        removedGold.clear();
+
+        this.goldenPieces.addAll(
+                PieceIndexBitSet.window(goldenPieces, offset, capacity));
+        this.silverPieces.addAll(
+                PieceIndexBitSet.window(silverPieces, offset, capacity));
+
+        this.silverPieces.removeAll(this.goldenPieces);
+
+        // the peers of the next multicast can be others, so forget them all,
+        // but keep their administrations for the peers to come
+        peerMap.clear();
+
+        if (releasedCount + peers.length > released.length) {
+            PeerInterest[] newReleased = 
+                new PeerInterest[releasedCount + peers.length];
+            System.arraycopy(released, 0, newReleased, 0, releasedCount);
+            released = newReleased;
+        }
+
+        System.arraycopy(peers, 0, released, releasedCount, peers.length);
+        releasedCount += peers.length;
+        peers = NO_PEERS;
+
+        this.policy = policy;
     }
 
     public synchronized int[] removeGoldOrSilver(Object peer, int amount) {
@@ -44,12 +149,14 @@ public class PieceInterestSharedObjects implements PieceInterest {
             logger.trace("removeGoldOrSilver(" + peer + ", " + amount + ");");
         }
 
-        if (amount <= 0) {
+        PeerInterest p = peerMap.get(peer);
+
+        if (amount <= 0 || p == null) {
             return NOTHING;
         }
 
-        InterestNodeList gold = getList(peer, goldMap);
-        InterestNodeList silver = getList(peer, silverMap);
+        PieceList gold = p.getList(true);
+        PieceList silver = p.getList(false);
 
         if (gold.size() == 0 && silver.size() == 0) {
             // currently we desire no pieces from this peer
@@ -59,21 +166,12 @@ public class PieceInterestSharedObjects implements PieceInterest {
             int noIndicesToPick = Math.min(amount, gold.size() + silver.size());
             int[] result = new int[noIndicesToPick];
 
-            InterestNodeList pickList = gold;
-
             for (int i = 0; i < result.length; i++) {
-                if (pickList.size() == 0) {
-                    pickList = silver;
-                }
+                boolean golden = gold.size() > 0;
 
-                int index = random.nextInt(pickList.size());
+                result[i] = pick(p, golden);
 
-                InterestNode node = pickList.getNode(index);
-                SharedPiece piece = node.getPiece();
-
-                result[i] = piece.getIndex();
-
-                doRemove(piece.getIndex());
+                doRemove(result[i]);
             }
 
             return result;
@@ -85,11 +183,13 @@ public class PieceInterestSharedObjects implements PieceInterest {
             logger.trace("removeGold(" + peer + ", " + amount + ");");
         }
 
-        if (amount <= 0) {
+        PeerInterest p = peerMap.get(peer);
+
+        if (amount <= 0 || p == null) {
             return NOTHING;
         }
 
-        InterestNodeList gold = getList(peer, goldMap);
+        PieceList gold = p.getList(true);
 
         if (gold.size() == 0) {
             // currently we desire no pieces from this peer
@@ -100,52 +200,134 @@ public class PieceInterestSharedObjects implements PieceInterest {
             int[] result = new int[noIndicesToPick];
 
             for (int i = 0; i < result.length; i++) {
-                int index = random.nextInt(gold.size());
+                result[i] = pick(p, true);
+
+                doRemove(result[i]);
+            }
+
+            return result;
+        }
+    }
+
+    public synchronized int[] removeFrom(Object peer, 
+            PieceIndexSet pieceIndices, int amount, boolean orSilver) {
+        if (logger.isTraceEnabled()) {
+            logger.trace("removeFrom(" + peer + ", " + pieceIndices + ", " + 
+                    amount + ", " + orSilver + ");");
+        }
 
-                InterestNode node = gold.getNode(index);
-                SharedPiece piece = node.getPiece();
+        PeerInterest p = peerMap.get(peer);
 
-                result[i] = piece.getIndex();
+        if (amount <= 0 || p == null) {
+            return NOTHING;
+        }
 
-                doRemove(piece.getIndex());
+        PieceIndexSet candidates = p.getHave().and(pieceIndices, offset);
+
+        int[] result = new int[Math.min(amount, candidates.size())];
+        int count = 0;
+
+        for (int i = candidates.nextIndex(0); i >= 0 && count < result.length;
+                i = candidates.nextIndex(i + 1)) {
+            if (goldenPieces.contains(i) || 
+                    (orSilver && silverPieces.contains(i))) {
+                result[count++] = i + offset;
+                doRemove(i + offset);
             }
+        }
 
-            return result;
+        if (count < result.length) {
+            int[] shorter = new int[count];
+            System.arraycopy(result, 0, shorter, 0, count);
+            result = shorter;
         }
+
+        return result;
+    }
+
+    /**
+     * Lets the policy pick a piece from the given (non-empty) list of a peer
+     */
+    private int pick(PeerInterest p, boolean golden) {
+        PieceIndexSet metal = golden ? goldenPieces : silverPieces;
+
+        int pieceIndex = policy.select(new Candidates(p, golden), random);
+
+        if (!p.getHave().contains(pieceIndex - offset) || 
+                !metal.contains(pieceIndex - offset)) {
+            throw new IllegalStateException("piece selection policy " +
+                    policy.getClass().getName() + " selected piece " +
+                    pieceIndex + ", which is not a candidate");
+        }
+
+        return pieceIndex;
     }
 
     public synchronized void devaluate(int pieceIndex) {
-        if (goldenPieces.remove(pieceIndex)) {
-            silverPieces.add(pieceIndex);
-            movePieces(pieces[pieceIndex], silverMap);
+        int i = pieceIndex - offset;
+
+        if (i >= 0 && goldenPieces.remove(i)) {
+            silverPieces.add(i);
+            movePiece(pieceIndex, false);
         }
     }
 
     public synchronized void devaluate(PieceIndexSet pieceIndices) {
-        for (int i : pieceIndices) {
-            if (goldenPieces.remove(i)) {
-                silverPieces.add(i);
-                movePieces(pieces[i], silverMap);
+        int end = end();
+
+        for (int i = pieceIndices.nextIndex(offset); i >= 0 && i < end;
+                i = pieceIndices.nextIndex(i + 1)) {
+            if (goldenPieces.remove(i - offset)) {
+                silverPieces.add(i - offset);
+                movePiece(i, false);
             }
         }
     }
 
     public synchronized PieceIndexSet devaluateFirst(double fraction) {
-        PieceIndexSet result = goldenPieces.removeFirst(fraction);
+        PieceIndexBitSet result = 
+            (PieceIndexBitSet)goldenPieces.removeFirst(fraction);
 
-        for (int i : result) {
+        for (int i = result.nextIndex(0); i >= 0; i = result.nextIndex(i + 1)) {
             silverPieces.add(i);
-            movePieces(pieces[i], silverMap);
+            movePiece(i + offset, false);
         }
 
-        return result;
+        return result.shift(offset);
+    }
+
+    /**
+     * Changes the metal of the first given amount of golden pieces to silver.
+     *
+     * @return the pieces that were devaluated from gold to silver.
+     */
+    synchronized PieceIndexSet devaluateFirst(int amount) {
+        PieceIndexBitSet result = new PieceIndexBitSet(capacity);
+
+        for (int i = goldenPieces.nextIndex(0); i >= 0 && amount > 0;
+                i = goldenPieces.nextIndex(i + 1)) {
+            result.add(i);
+            amount--;
+        }
+
+        goldenPieces.removeAll(result);
+
+        for (int i = result.nextIndex(0); i >= 0; i = result.nextIndex(i + 1)) {
+            silverPieces.add(i);
+            movePiece(i + offset, false);
+        }
+
+        return result.shift(offset);
     }
 
     public synchronized void revaluate(PieceIndexSet pieceIndices) {
-        for (int i : pieceIndices) {
-            if (silverPieces.remove(i)) {
-                goldenPieces.add(i);
-                movePieces(pieces[i], goldMap);
+        int end = end();
+
+        for (int i = pieceIndices.nextIndex(offset); i >= 0 && i < end;
+                i = pieceIndices.nextIndex(i + 1)) {
+            if (silverPieces.remove(i - offset)) {
+                goldenPieces.add(i - offset);
+                movePiece(i, true);
             }
         }
     }
@@ -158,21 +340,32 @@ public class PieceInterestSharedObjects implements PieceInterest {
                     + wantOnlyGold + ");");
         }
 
-        if (pieces.length == 0) {
+        int i = pieceIndex - offset;
+
+        if (i < 0 || i >= capacity) {
             return false;
         }
 
-        if (goldenPieces.contains(pieceIndex)) {
-            InterestNodeList gold = getList(peer, goldMap);
-            gold.addPiece(pieces[pieceIndex]);
-            return true;
-        } else if (silverPieces.contains(pieceIndex)) {
-            InterestNodeList silver = getList(peer, silverMap);
-            silver.addPiece(pieces[pieceIndex]);
-            return !wantOnlyGold;
+        boolean golden = goldenPieces.contains(i);
+
+        if (!golden && !silverPieces.contains(i)) {
+            if (removedPieces.contains(i)) {
+                // requested already; remember the peer has it, in case the 
+                // piece is restored or requested again in end game mode
+                getPeer(peer).getHave().add(i);
+            }
+
+            return false;
+        }
+
+        PeerInterest p = getPeer(peer);
+
+        if (!p.getHave().contains(i)) {
+            p.getHave().add(i);
+            addPiece(p, pieceIndex, golden);
         }
 
-        return false;
+        return golden || !wantOnlyGold;
     }
 
     public synchronized boolean tellHave(Object peer,
@@ -183,35 +376,74 @@ public class PieceInterestSharedObjects implements PieceInterest {
                     + wantOnlyGold + ");");
         }
 
-        if (pieces.length == 0) {
+        if (capacity == 0) {
             return false;
         }
 
-        boolean result = false;
+        // find the golden and silver pieces we did not know the peer had yet,
+        // a word at a time
+        PieceIndexSet gold = goldenPieces.and(pieceIndices, offset);
+        PieceIndexSet silver = silverPieces.and(pieceIndices, offset);
+        PieceIndexSet removed = removedPieces.and(pieceIndices, offset);
 
-        InterestNodeList gold = getList(peer, goldMap);
-        InterestNodeList silver = getList(peer, silverMap);
+        boolean result = !gold.isEmpty() || (!wantOnlyGold && !silver.isEmpty());
 
-        for (Integer pieceIndex : pieceIndices) {
-            SharedPiece piece = pieces[pieceIndex.intValue()];
+        if (gold.isEmpty() && silver.isEmpty() && removed.isEmpty()) {
+            return result;
+        }
 
-            if (goldenPieces.contains(piece.getIndex())) {
-                gold.addPiece(piece);
-                result |= true;
-            } else if (silverPieces.contains(piece.getIndex())) {
-                silver.addPiece(piece);
-                result |= !wantOnlyGold;
-            }
+        PeerInterest p = getPeer(peer);
+        PieceIndexBitSet have = p.getHave();
+
+        gold.removeAll(have);
+        silver.removeAll(have);
+
+        have.addAll(gold);
+        have.addAll(silver);
+        have.addAll(removed);
+
+        for (int i = gold.nextIndex(0); i >= 0; i = gold.nextIndex(i + 1)) {
+            addPiece(p, i + offset, true);
+        }
+
+        for (int i = silver.nextIndex(0); i >= 0; i = silver.nextIndex(i + 1)) {
+            addPiece(p, i + offset, false);
         }
 
         return result;
     }
 
-    private void movePieces(SharedPiece piece, Map<Object, InterestNodeList> destMap) {
-        for (InterestNode node : piece.getNodes()) {
-            InterestNodeList destList = getList(node.getPeer(), destMap);
-            node.setOwner(destList);
-        }	
+    /**
+     * Adds a piece to a list of a peer, and makes it one more available in
+     * the lists of all other peers that have it.
+     */
+    private void addPiece(PeerInterest p, int pieceIndex, boolean golden) {
+        int a = availability[pieceIndex - offset];
+
+        if (policy.needsAvailabilityOrder()) {
+            for (PeerInterest other: peers) {
+                if (other != p && 
+                        other.getHave().contains(pieceIndex - offset)) {
+                    other.getList(golden).increaseAvailability(pieceIndex, a);
+                }
+            }
+        }
+
+        availability[pieceIndex - offset] = a + 1;
+
+        p.getList(golden).add(pieceIndex);
+    }
+
+    /**
+     * Moves a piece to the golden or silver list of all peers that have it
+     */
+    private void movePiece(int pieceIndex, boolean toGold) {
+        for (PeerInterest p: peers) {
+            if (p.getHave().contains(pieceIndex - offset)) {
+                p.getList(!toGold).remove(pieceIndex);
+                p.getList(toGold).add(pieceIndex);
+            }
+        }
     }
 
     public synchronized boolean isEmpty() {
@@ -235,44 +467,175 @@ public class PieceInterestSharedObjects implements PieceInterest {
     }
 
     private void doRemove(int pieceIndex) {
-        goldenPieces.remove(pieceIndex);
-        silverPieces.remove(pieceIndex);
-        pieces[pieceIndex].forget();
+        int i = pieceIndex - offset;
+
+        if (i < 0) {
+            return;
+        }
+
+        boolean golden = goldenPieces.remove(i);
+        boolean silver = silverPieces.remove(i);
+
+        if (golden || silver) {
+            // remember the metal, in case the piece is restored
+            removedPieces.add(i);
+
+            if (golden) {
+                removedGold.add(i);
+            }
+
+            // take the piece out of the lists, but remember which peers 
+            // have it, in case it is restored
+            for (PeerInterest p: peers) {
+                if (p.getHave().contains(i)) {
+                    p.getList(golden).remove(pieceIndex);
+                }
+            }
+
+            availability[i] = 0;
+        }
+    }
+
+    public synchronized List<Object> restore(int pieceIndex, Object peer) {
+        if (logger.isTraceEnabled()) {
+            logger.trace("restore(" + pieceIndex + ", " + peer + ");");
+        }
+
+        int i = pieceIndex - offset;
+
+        if (i < 0 || !removedPieces.remove(i)) {
+            return Collections.emptyList();
+        }
+
+        boolean golden = removedGold.remove(i);
+
+        if (golden) {
+            goldenPieces.add(i);
+        } else {
+            silverPieces.add(i);
+        }
+
+        List<Object> result = new ArrayList<Object>();
+        PeerInterest avoided = null;
+
+        for (PeerInterest p: peers) {
+            if (p.getHave().contains(i)) {
+                if (p.getPeer().equals(peer)) {
+                    avoided = p;
+                } else {
+                    result.add(p.getPeer());
+                }
+            }
+        }
+
+        if (avoided != null) {
+            if (result.isEmpty()) {
+                // better to ask the same peer again than nobody
+                result.add(avoided.getPeer());
+            } else {
+                // as if the peer never told us it has the piece
+                avoided.getHave().remove(i);
+            }
+        }
+
+        // all lists take the piece at the same availability
+        availability[i] = result.size();
+
+        for (Object o: result) {
+            peerMap.get(o).getList(golden).add(pieceIndex);
+        }
+
+        return result;
     }
 
     public synchronized PieceIndexSet getGold(Object peer) {
-        return getPieces(peer, goldMap);
+        return getPieces(peer, goldenPieces);
     }
 
     public synchronized PieceIndexSet getGold() {
-        return goldenPieces.deepCopy();
+        return goldenPieces.shift(offset);
     }
 
     public synchronized PieceIndexSet getSilver() {
-        return silverPieces.deepCopy();
+        return silverPieces.shift(offset);
     }
 
     public synchronized PieceIndexSet getSilver(Object peer) {
-        return getPieces(peer, silverMap);
+        return getPieces(peer, silverPieces);
     }
 
-    private PieceIndexSet getPieces(Object peer, Map<Object, InterestNodeList> map) {
-        InterestNodeList pieces = getList(peer, map);
+    public synchronized PieceIndexSet getHave(Object peer) {
+        PeerInterest p = peerMap.get(peer);
 
-        if (pieces == null) {
+        if (p == null) {
             return PieceIndexSetFactory.createEmptyPieceIndexSet();
         } else {
-            return pieces.getPieceIndices();
+            return p.getHave().shift(offset);
         }
     }
 
-    private InterestNodeList getList(Object peer, Map<Object, InterestNodeList> list) {
-        InterestNodeList result = list.get(peer);
+    public synchronized PieceIndexSet getGoldOrSilver() {
+        return ((PieceIndexBitSet)goldenPieces.or(silverPieces)).shift(offset);
+    }
+
+    synchronized int goldSize() {
+        return goldenPieces.size();
+    }
+
+    /**
+     * Returns the number of golden or silver pieces the given peer has,
+     * without locking. The result can be outdated.
+     */
+    int peekSize(Object peer, boolean gold) {
+        PeerInterest p = peerMap.get(peer);
+
+        return p == null ? 0 : p.getList(gold).size();
+    }
 
-        // add node list for the peer if it does not have one yet
+    /**
+     * Returns the lowest availability of the golden or silver pieces the given
+     * peer has, or Integer.MAX_VALUE if it has none, without locking. The
+     * result can be outdated. Only valid if the policy needs the availability
+     * order.
+     */
+    int peekLeastAvailability(Object peer, boolean gold) {
+        PeerInterest p = peerMap.get(peer);
+
+        return p == null ? Integer.MAX_VALUE :
+            p.getList(gold).peekLeastAvailability();
+    }
+
+    private PieceIndexSet getPieces(Object peer, PieceIndexSet metal) {
+        PeerInterest p = peerMap.get(peer);
+
+        if (p == null) {
+            return PieceIndexSetFactory.createEmptyPieceIndexSet();
+        } else {
+            return ((PieceIndexBitSet)p.getHave().and(metal)).shift(offset);
+        }
+    }
+
+    private PeerInterest getPeer(Object peer) {
+        PeerInterest result = peerMap.get(peer);
+
+        // add the peer if we do not know it yet
         if (result == null) {
-            result = new InterestNodeList(peer);
-            list.put(peer, result);
+            if (releasedCount > 0) {
+                result = released[--releasedCount];
+                released[releasedCount] = null;
+
+                result.reset(peer, policy.needsAvailabilityOrder());
+            } else {
+                result = new PeerInterest(peer, offset, capacity, availability,
+                        policy.needsAvailabilityOrder());
+            }
+
+            PeerInterest[] newPeers = new PeerInterest[peers.length + 1];
+            System.arraycopy(peers, 0, newPeers, 0, peers.length);
+            newPeers[peers.length] = result;
+            peers = newPeers;
+
+            peerMap.put(peer, result);
         }
 
         return result;
@@ -282,29 +645,95 @@ public class PieceInterestSharedObjects implements PieceInterest {
         StringBuilder result = new StringBuilder();
 
         result.append("gold=");
-        result.append(goldenPieces);
+        result.append(goldenPieces.shift(offset));
         result.append(", silver=");
-        result.append(silverPieces);
+        result.append(silverPieces.shift(offset));
+
+        for (PeerInterest p: peers) {
+            PieceIndexSet gold = 
+                ((PieceIndexBitSet)p.getHave().and(goldenPieces)).shift(offset);
 
-        for (Map.Entry<Object, InterestNodeList> entry : goldMap.entrySet()) {
             result.append('\n');
-            result.append(entry.getKey());
+            result.append(p.getPeer());
             result.append("-gold=");
-            result.append(entry.getValue().size());
+            result.append(gold.size());
             result.append(':');
-            result.append(entry.getValue().getPieceIndices());
+            result.append(gold);
         }
 
-        for (Map.Entry<Object, InterestNodeList> entry : silverMap.entrySet()) {
+        for (PeerInterest p: peers) {
+            PieceIndexSet silver = 
+                ((PieceIndexBitSet)p.getHave().and(silverPieces)).shift(offset);
+
             result.append('\n');
-            result.append(entry.getKey());
+            result.append(p.getPeer());
             result.append("-silver=");
-            result.append(entry.getValue().size());
+            result.append(silver.size());
             result.append(':');
-            result.append(entry.getValue().getPieceIndices());
+            result.append(silver);
         }
 
         return result.toString();
     }
 
+    // INNER CLASSES
+
+    private class Candidates implements PieceCandidates {
+
+        private final PeerInterest peer;
+        private final PieceList list;
+        private final PieceIndexSet metal;
+
+        Candidates(PeerInterest peer, boolean golden) {
+            this.peer = peer;
+            list = peer.getList(golden);
+            metal = golden ? goldenPieces : silverPieces;
+        }
+
+        public int size() {
+            return list.size();
+        }
+
+        public int getPiece(int position) {
+            return list.get(position);
+        }
+
+        public int getAvailability(int position) {
+            return availability[list.get(position) - offset];
+        }
+
+        public int getLeastAvailableCount() {
+            return list.getLeastAvailableCount();
+        }
+
+        public int nextPiece(int fromIndex) {
+            PieceIndexBitSet have = peer.getHave();
+
+            for (int i = have.nextIndex(fromIndex - offset); i >= 0;
+                    i = have.nextIndex(i + 1)) {
+                if (metal.contains(i)) {
+                    return i + offset;
+                }
+            }
+
+            return -1;
+        }
+
+        public int countPeers(int position, Set<?> peers) {
+            int pieceIndex = list.get(position);
+            int result = 0;
+
+            for (Object peer: peers) {
+                PeerInterest p = peerMap.get(peer);
+
+                if (p != null && p.getHave().contains(pieceIndex - offset)) {
+                    result++;
+                }
+            }
+
+            return result;
+        }
+
+    }
+
 }
@@ -0,0 +1,386 @@
+package mcast.ht.admin;
+
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A piece interest that divides the pieces in consecutive ranges (stripes),
+ * each kept in a separate PieceInterestSharedObjects with its own lock.
+ * Operations on a single piece lock only the stripe of that piece, so
+ * connections that announce, request and receive different pieces hardly
+ * block each other.
+ *
+ * To pick a piece, a stripe is chosen by looking at the candidates of the
+ * peer in all stripes without locking, after which only the chosen stripe is
+ * locked. When the chosen stripe turned out to be emptied in the meantime,
+ * another stripe is chosen.
+ *
+ * Operations on sets of pieces handle one stripe at a time. They are atomic
+ * per piece, but not for the set as a whole.
+ */
+public class PieceInterestStriped implements PieceInterest {
+
+    private static final Logger logger =
+        Logger.getLogger(PieceInterestStriped.class);
+
+    private final PieceInterestSharedObjects[] stripes;
+    private final int stripeLength;
+    private final int capacity;
+    private volatile PieceSelectionPolicy policy;
+    private final Random random;
+
+    PieceInterestStriped(int capacity, PieceIndexSet silverPieces,
+            PieceIndexSet goldenPieces, PieceSelectionPolicy policy,
+            int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("stripe count (" +
+                    stripeCount + ") must be positive");
+        }
+
+        // a multiple of 64 pieces, so every stripe starts at a word of the 
+        // piece index sets
+        stripeLength = (Math.max(1, (capacity + stripeCount - 1) / stripeCount)
+                + 63) & ~63;
+        stripeCount = Math.max(1, (capacity + stripeLength - 1) / stripeLength);
+
+        stripes = new PieceInterestSharedObjects[stripeCount];
+
+        for (int s = 0; s < stripes.length; s++) {
+            int offset = s * stripeLength;
+            int length = Math.min(stripeLength, capacity - offset);
+
+            stripes[s] = new PieceInterestSharedObjects(offset, length,
+                    silverPieces, goldenPieces, policy);
+        }
+
+        this.capacity = capacity;
+        this.policy = policy;
+        random = new Random();
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("created interest of " + capacity + " pieces in " +
+                    stripes.length + " stripes of " + stripeLength);
+        }
+    }
+
+    private PieceInterestSharedObjects stripe(int pieceIndex) {
+        return stripes[pieceIndex / stripeLength];
+    }
+
+    public boolean tellHave(Object peer, int pieceIndex, boolean wantOnlyGold) {
+        if (stripes.length == 0) {
+            return false;
+        }
+
+        return stripe(pieceIndex).tellHave(peer, pieceIndex, wantOnlyGold);
+    }
+
+    public boolean tellHave(Object peer, PieceIndexSet pieceIndices,
+            boolean wantOnlyGold) {
+        boolean result = false;
+
+        for (PieceInterestSharedObjects stripe: stripes) {
+            result |= stripe.tellHave(peer, pieceIndices, wantOnlyGold);
+        }
+
+        return result;
+    }
+
+    public void remove(int pieceIndex) {
+        stripe(pieceIndex).remove(pieceIndex);
+    }
+
+    public List<Object> restore(int pieceIndex, Object peer) {
+        return stripe(pieceIndex).restore(pieceIndex, peer);
+    }
+
+    public int[] removeGoldOrSilver(Object peer, int amount) {
+        return removePieces(peer, amount, true);
+    }
+
+    public int[] removeGold(Object peer, int amount) {
+        return removePieces(peer, amount, false);
+    }
+
+    private int[] removePieces(Object peer, int amount, boolean orSilver) {
+        if (amount <= 0) {
+            return NOTHING;
+        }
+
+        int[] result = new int[amount];
+        int count = 0;
+
+        while (count < amount) {
+            int[] picked = NOTHING;
+
+            PieceInterestSharedObjects stripe = chooseStripe(peer, true);
+
+            if (stripe != null) {
+                picked = stripe.removeGold(peer, 1);
+            } else if (orSilver) {
+                stripe = chooseStripe(peer, false);
+
+                if (stripe != null) {
+                    picked = stripe.removeGoldOrSilver(peer, 1);
+                }
+            }
+
+            if (stripe == null) {
+                // the peer has no more pieces we desire
+                break;
+            }
+
+            if (picked.length > 0) {
+                result[count++] = picked[0];
+            }
+        }
+
+        if (count < amount) {
+            int[] shorter = new int[count];
+            System.arraycopy(result, 0, shorter, 0, count);
+            result = shorter;
+        }
+
+        return result;
+    }
+
+    public int[] removeFrom(Object peer, PieceIndexSet pieceIndices, 
+            int amount, boolean orSilver) {
+        if (amount <= 0) {
+            return NOTHING;
+        }
+
+        int[] result = new int[amount];
+        int count = 0;
+
+        // the stripes cover consecutive ranges, so this keeps the indices in
+        // ascending order
+        for (int s = 0; s < stripes.length && count < amount; s++) {
+            int[] picked = stripes[s].removeFrom(peer, pieceIndices, 
+                    amount - count, orSilver);
+
+            System.arraycopy(picked, 0, result, count, picked.length);
+            count += picked.length;
+        }
+
+        if (count < amount) {
+            int[] shorter = new int[count];
+            System.arraycopy(result, 0, shorter, 0, count);
+            result = shorter;
+        }
+
+        return result;
+    }
+
+    /**
+     * Chooses a stripe in which the peer has golden or silver pieces, in a
+     * way that matches the piece selection policy.
+     *
+     * @return the chosen stripe, or null if the peer has no pieces of the
+     *         given metal in any stripe
+     */
+    private PieceInterestSharedObjects chooseStripe(Object peer, boolean gold) {
+        if (policy.needsAvailabilityOrder()) {
+            // the stripe with the rarest piece, ties broken at random
+            PieceInterestSharedObjects result = null;
+            int least = Integer.MAX_VALUE;
+            int ties = 0;
+
+            for (PieceInterestSharedObjects stripe: stripes) {
+                int availability = stripe.peekLeastAvailability(peer, gold);
+
+                if (availability < least) {
+                    result = stripe;
+                    least = availability;
+                    ties = 1;
+                } else if (availability == least && result != null &&
+                        random.nextInt(++ties) == 0) {
+                    result = stripe;
+                }
+            }
+
+            return result;
+        } else if (policy.prefersLowIndices()) {
+            for (PieceInterestSharedObjects stripe: stripes) {
+                if (stripe.peekSize(peer, gold) > 0) {
+                    return stripe;
+                }
+            }
+
+            return null;
+        } else {
+            // a random stripe, weighted by the number of candidates in it
+            int[] sizes = new int[stripes.length];
+            int total = 0;
+
+            for (int s = 0; s < stripes.length; s++) {
+                sizes[s] = stripes[s].peekSize(peer, gold);
+                total += sizes[s];
+            }
+
+            if (total == 0) {
+                return null;
+            }
+
+            int pick = random.nextInt(total);
+
+            for (int s = 0; s < stripes.length; s++) {
+                pick -= sizes[s];
+
+                if (pick < 0) {
+                    return stripes[s];
+                }
+            }
+
+            return null;
+        }
+    }
+
+    public void devaluate(int pieceIndex) {
+        stripe(pieceIndex).devaluate(pieceIndex);
+    }
+
+    public void devaluate(PieceIndexSet pieceIndices) {
+        for (PieceInterestSharedObjects stripe: stripes) {
+            stripe.devaluate(pieceIndices);
+        }
+    }
+
+    public PieceIndexSet devaluateFirst(double fraction) {
+        if (fraction < 0.0 || fraction > 1.0) {
+            throw new IllegalArgumentException("fraction (" + fraction +
+                    ") must be between 0.0 and 1.0");
+        }
+
+        int total = 0;
+
+        for (PieceInterestSharedObjects stripe: stripes) {
+            total += stripe.goldSize();
+        }
+
+        int amount = (int)Math.floor(total * fraction);
+
+        PieceIndexSet result = PieceIndexSetFactory.createEmptyPieceIndexSet();
+
+        for (int s = 0; s < stripes.length && result.size() < amount; s++) {
+            result.addAll(stripes[s].devaluateFirst(amount - result.size()));
+        }
+
+        return result;
+    }
+
+    public void revaluate(PieceIndexSet pieceIndices) {
+        for (PieceInterestSharedObjects stripe: stripes) {
+            stripe.revaluate(pieceIndices);
+        }
+    }
+
+    public PieceIndexSet getGold(Object peer) {
+        PieceIndexSet result = PieceIndexSetFactory.createEmptyPieceIndexSet();
+
+        for (PieceInterestSharedObjects stripe: stripes) {
+            result.addAll(stripe.getGold(peer));
+        }
+
+        return result;
+    }
+
+    public PieceIndexSet getSilver(Object peer) {
+        PieceIndexSet result = PieceIndexSetFactory.createEmptyPieceIndexSet();
+
+        for (PieceInterestSharedObjects stripe: stripes) {
+            result.addAll(stripe.getSilver(peer));
+        }
+
+        return result;
+    }
+
+    public PieceIndexSet getHave(Object peer) {
+        PieceIndexSet result = PieceIndexSetFactory.createEmptyPieceIndexSet();
+
+        for (PieceInterestSharedObjects stripe: stripes) {
+            result.addAll(stripe.getHave(peer));
+        }
+
+        return result;
+    }
+
+    public PieceIndexSet getGold() {
+        PieceIndexSet result = PieceIndexSetFactory.createEmptyPieceIndexSet();
+
+        for (PieceInterestSharedObjects stripe: stripes) {
+            result.addAll(stripe.getGold());
+        }
+
+        return result;
+    }
+
+    public PieceIndexSet getSilver() {
+        PieceIndexSet result = PieceIndexSetFactory.createEmptyPieceIndexSet();
+
+        for (PieceInterestSharedObjects stripe: stripes) {
+            result.addAll(stripe.getSilver());
+        }
+
+        return result;
+    }
+
+    public PieceIndexSet getGoldOrSilver() {
+        PieceIndexSet result = PieceIndexSetFactory.createEmptyPieceIndexSet();
+
+        for (PieceInterestSharedObjects stripe: stripes) {
+            result.addAll(stripe.getGoldOrSilver());
+        }
+
+        return result;
+    }
+
+    public boolean containsGold() {
+        for (PieceInterestSharedObjects stripe: stripes) {
+            if (stripe.containsGold()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public boolean containsSilver() {
+        for (PieceInterestSharedObjects stripe: stripes) {
+            if (stripe.containsSilver()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void reset(PieceIndexSet silverPieces, PieceIndexSet goldenPieces,
+            PieceSelectionPolicy policy) {
+        for (PieceInterestSharedObjects stripe: stripes) {
+            stripe.reset(silverPieces, goldenPieces, policy);
+        }
+
+        this.policy = policy;
+    }
+
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        String concat = "";
+
+        for (PieceInterestSharedObjects stripe: stripes) {
+            result.append(concat);
+            result.append(stripe);
+            concat = "\n";
+        }
+
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,205 @@
+package mcast.ht.admin;
+
+import java.util.Arrays;
+
+/**
+ * The golden or silver pieces of one peer, kept as piece indices in an array.
+ * The position of every piece in the array is kept in a positions array that
+ * the peer shares between its golden and silver list, since a piece is in at
+ * most one of them. A removed piece is replaced by the last one, so pieces can
+ * be added, removed and looked up by position in constant time, without 
+ * allocating objects.
+ * 
+ * If the list is ordered by availability, the array is kept sorted on the 
+ * availability of the pieces, as consecutive buckets of pieces with the same
+ * availability. A piece that becomes one more available is swapped to the
+ * edge of its bucket, which costs constant time; adding and removing a piece
+ * costs time linear in the number of buckets (at most the number of peers).
+ */
+class PieceList {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final int offset;
+    private final int[] positions;
+    private final int[] availability;
+    private boolean byAvailability;
+    private int[] pieces;
+    private volatile int size;
+
+    // ends[a] is the number of pieces with an availability of at most a; the
+    // last entry always equals size
+    private int[] ends;
+
+    /**
+     * @param offset
+     *                the index of the first piece of the interest
+     * @param positions
+     *                the positions of the pieces in the lists of the peer, 
+     *                indexed by piece index minus offset
+     * @param availability
+     *                the availability of the pieces, indexed by piece index 
+     *                minus offset
+     * @param byAvailability
+     *                whether to keep the list ordered by availability
+     */
+    PieceList(int offset, int[] positions, int[] availability, 
+            boolean byAvailability) {
+        this.offset = offset;
+        this.positions = positions;
+        this.availability = availability;
+        this.byAvailability = byAvailability;
+        pieces = new int[DEFAULT_CAPACITY];
+        size = 0;
+        ends = new int[1];
+    }
+
+    /**
+     * Empties the list, keeping its memory, and orders it by availability or 
+     * not from now on.
+     */
+    void clear(boolean byAvailability) {
+        this.byAvailability = byAvailability;
+        size = 0;
+        Arrays.fill(ends, 0);
+    }
+
+    void add(int pieceIndex) {
+        if (size == pieces.length) {
+            int[] newPieces = new int[pieces.length << 1];
+            System.arraycopy(pieces, 0, newPieces, 0, size);
+            pieces = newPieces;
+        }
+
+        int a = availability[pieceIndex - offset];
+
+        if (byAvailability) {
+            ensureBuckets(a);
+        }
+
+        int position = size;
+        pieces[position] = pieceIndex;
+        positions[pieceIndex - offset] = position;
+        size = position + 1;
+
+        if (byAvailability) {
+            // move the piece down to the end of its bucket, by swapping it 
+            // with the first piece of every bucket above it
+            for (int b = ends.length - 1; b > a; b--) {
+                position = swap(position, ends[b - 1]);
+                ends[b]++;
+            }
+
+            ends[a]++;
+        }
+    }
+
+    void remove(int pieceIndex) {
+        int position = positions[pieceIndex - offset];
+
+        if (byAvailability) {
+            // move the piece up to the end of the array, by swapping it with 
+            // the last piece of its own bucket and every bucket above it
+            for (int b = availability[pieceIndex - offset]; b < ends.length; 
+                    b++) {
+                position = swap(position, ends[b] - 1);
+                ends[b]--;
+            }
+        } else {
+            // move the last piece into the hole
+            position = swap(position, size - 1);
+        }
+
+        size = position;
+    }
+
+    /**
+     * Moves the given piece from the bucket with the given availability to 
+     * the next one.
+     */
+    void increaseAvailability(int pieceIndex, int a) {
+        if (byAvailability) {
+            ensureBuckets(a + 1);
+
+            swap(positions[pieceIndex - offset], ends[a] - 1);
+            ends[a]--;
+        }
+    }
+
+    private void ensureBuckets(int a) {
+        if (a >= ends.length) {
+            int[] newEnds = new int[a + 1];
+            System.arraycopy(ends, 0, newEnds, 0, ends.length);
+
+            for (int b = ends.length; b < newEnds.length; b++) {
+                newEnds[b] = size;
+            }
+
+            ends = newEnds;
+        }
+    }
+
+    /**
+     * Swaps the pieces at the given positions.
+     * 
+     * @return the new position of the piece that was at position 'from'
+     */
+    private int swap(int from, int to) {
+        if (from != to) {
+            int piece = pieces[from];
+            pieces[from] = pieces[to];
+            positions[pieces[from] - offset] = from;
+            pieces[to] = piece;
+            positions[piece - offset] = to;
+        }
+
+        return to;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int get(int position) {
+        return pieces[position];
+    }
+
+    /**
+     * Returns the number of pieces with the lowest availability; these are 
+     * the first pieces in the list. Only valid for lists ordered by 
+     * availability.
+     */
+    int getLeastAvailableCount() {
+        if (!byAvailability) {
+            throw new IllegalStateException("pieces are not ordered by " +
+                    "availability");
+        }
+
+        if (size == 0) {
+            return 0;
+        }
+
+        // the first piece is always in the lowest non-empty bucket
+        int a = availability[pieces[0] - offset];
+
+        return ends[a] - ends[a - 1];
+    }
+
+    /**
+     * Returns the lowest availability in this list, or Integer.MAX_VALUE if
+     * the list is empty. Can be called without holding the lock of the 
+     * interest, in which case the result can be outdated.
+     */
+    int peekLeastAvailability() {
+        int[] pieces = this.pieces;
+
+        if (size == 0) {
+            return Integer.MAX_VALUE;
+        }
+
+        int a = availability[pieces[0] - offset];
+
+        return a == 0 ? Integer.MAX_VALUE : a;
+    }
+
+}
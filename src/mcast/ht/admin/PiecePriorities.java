@@ -0,0 +1,169 @@
+package mcast.ht.admin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The pieces a consumer wants to receive before the others, e.g. the start of
+ * each file for streaming, or metadata before payload. Ranges of pieces get a
+ * priority or a deadline; all other pieces are normal. Urgent pieces are
+ * requested before normal ones, in the following order:
+ * <ol>
+ * <li>pieces with a deadline, the earliest deadline first</li>
+ * <li>pieces with a priority, the highest priority first</li>
+ * </ol>
+ * Within one range, the lowest indices go first. A piece belongs to the range
+ * it was assigned to last.
+ *
+ * The priorities are kept per channel, and apply to all multicasts on it
+ * until they are changed.
+ */
+public class PiecePriorities {
+
+    /**
+     * The priority of pieces that are not urgent
+     */
+    public static final int NORMAL = 0;
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private static final PieceIndexSet[] NONE = new PieceIndexSet[0];
+
+    private final List<Entry> entries;
+    private int version;
+
+    public PiecePriorities() {
+        entries = new ArrayList<Entry>();
+        version = 0;
+    }
+
+    /**
+     * Assigns a priority to the pieces from start (inclusive) to end
+     * (exclusive). Pieces with a higher priority are requested first; a
+     * priority of NORMAL or lower makes the pieces normal again.
+     */
+    public synchronized void setPriority(int start, int end, int priority) {
+        set(start, end, priority > NORMAL ?
+                new Entry(priority, NO_DEADLINE) : null);
+    }
+
+    /**
+     * Assigns a deadline to the pieces from start (inclusive) to end
+     * (exclusive). Pieces with a deadline are requested before all others,
+     * the earliest deadline first.
+     *
+     * @param deadline
+     *                the time the pieces are needed, in milliseconds since the
+     *                epoch (see System.currentTimeMillis())
+     */
+    public synchronized void setDeadline(int start, int end, long deadline) {
+        set(start, end, new Entry(NORMAL, deadline));
+    }
+
+    /**
+     * Makes all pieces normal again.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        version++;
+    }
+
+    private void set(int start, int end, Entry entry) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("illegal piece range: " +
+                    start + " to " + end);
+        }
+
+        PieceIndexSet range = PieceIndexSetFactory.createEmptyPieceIndexSet(end);
+        range.add(start, end);
+
+        // a piece belongs to the range it was assigned to last
+        for (Iterator<Entry> it = entries.iterator(); it.hasNext(); ) {
+            Entry e = it.next();
+
+            e.pieces.removeAll(range);
+
+            if (e.pieces.isEmpty()) {
+                it.remove();
+            }
+        }
+
+        if (entry != null && !range.isEmpty()) {
+            entry.pieces.addAll(range);
+            entries.add(entry);
+
+            Collections.sort(entries, URGENCY);
+        }
+
+        version++;
+    }
+
+    /**
+     * Returns a number that changes every time the priorities change.
+     */
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns copies of the sets of urgent pieces, the most urgent set first.
+     */
+    public synchronized PieceIndexSet[] getUrgentPieces() {
+        if (entries.isEmpty()) {
+            return NONE;
+        }
+
+        PieceIndexSet[] result = new PieceIndexSet[entries.size()];
+
+        for (int i = 0; i < result.length; i++) {
+            result[i] = entries.get(i).pieces.deepCopy();
+        }
+
+        return result;
+    }
+
+    public synchronized String toString() {
+        return entries.toString();
+    }
+
+    private static final Comparator<Entry> URGENCY = new Comparator<Entry>() {
+
+        public int compare(Entry a, Entry b) {
+            if (a.deadline != b.deadline) {
+                return a.deadline < b.deadline ? -1 : 1;
+            } else if (a.priority != b.priority) {
+                return a.priority > b.priority ? -1 : 1;
+            } else {
+                return 0;
+            }
+        }
+
+    };
+
+    private static class Entry {
+
+        final int priority;
+        final long deadline;
+        final PieceIndexSet pieces;
+
+        Entry(int priority, long deadline) {
+            this.priority = priority;
+            this.deadline = deadline;
+
+            pieces = PieceIndexSetFactory.createEmptyPieceIndexSet();
+        }
+
+        public String toString() {
+            if (deadline == NO_DEADLINE) {
+                return pieces + " priority " + priority;
+            } else {
+                return pieces + " deadline " + deadline;
+            }
+        }
+
+    }
+
+}
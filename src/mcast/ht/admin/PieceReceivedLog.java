@@ -0,0 +1,153 @@
+package mcast.ht.admin;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A log of the pieces received during a multicast, in the order in which they
+ * were received. Pieces are published without locking, and every reader keeps
+ * its own position in the log, so publishing a piece costs the same no matter
+ * how many connections have to be told about it. Readers drain all entries
+ * published since their last visit at once.
+ *
+ * Readers register themselves, and are told after every publication, so
+ * they only have to look at the log when something was published.
+ *
+ * Each piece is published at most once, so the log never holds more entries
+ * than the total number of pieces. A log can be reset for another multicast 
+ * with at most as many pieces.
+ */
+public class PieceReceivedLog {
+
+    private final int[] pieceIndices;
+    private final AtomicReferenceArray<Object> origins;
+    private final AtomicInteger claimed;
+    private final List<Reader> readers;
+
+    public PieceReceivedLog(int totalPieces) {
+        pieceIndices = new int[totalPieces];
+        origins = new AtomicReferenceArray<Object>(totalPieces);
+        claimed = new AtomicInteger(0);
+        readers = new CopyOnWriteArrayList<Reader>();
+    }
+
+    /**
+     * Returns the maximum number of entries of this log.
+     */
+    public int getCapacity() {
+        return pieceIndices.length;
+    }
+
+    /**
+     * Registers a reader that is told about every publication from now on.
+     */
+    public void addReader(Reader reader) {
+        readers.add(reader);
+    }
+
+    /**
+     * Unregisters a reader; nothing happens if it was not registered.
+     */
+    public void removeReader(Reader reader) {
+        readers.remove(reader);
+    }
+
+    /**
+     * Empties the log, so it can be used for another multicast. All readers
+     * are unregistered; they must register again and start reading at 
+     * position 0. Nobody may publish while the log is being reset.
+     */
+    public void reset() {
+        readers.clear();
+
+        int end = Math.min(claimed.get(), pieceIndices.length);
+
+        // only the entries that were published have to be cleared
+        for (int i = 0; i < end; i++) {
+            origins.set(i, null);
+        }
+
+        claimed.set(0);
+    }
+
+    /**
+     * Appends a received piece to the log.
+     *
+     * @param origin
+     *                the peer the piece was received from
+     * @param pieceIndex
+     *                the index of the piece
+     */
+    public void publish(Object origin, int pieceIndex) {
+        if (origin == null) {
+            throw new IllegalArgumentException("origin cannot be null");
+        }
+
+        int position = claimed.getAndIncrement();
+
+        if (position >= pieceIndices.length) {
+            throw new IllegalStateException("more pieces published than the " +
+                    "total number of pieces (" + pieceIndices.length + ")");
+        }
+
+        pieceIndices[position] = pieceIndex;
+
+        // setting the origin publishes the entry; the volatile write also
+        // makes the piece index visible to readers that see the origin
+        origins.set(position, origin);
+
+        for (Reader reader: readers) {
+            reader.piecesPublished();
+        }
+    }
+
+    /**
+     * Returns the end of the range of entries from the given position that
+     * have been published completely. Entries of which the publication is
+     * still in progress end the range, so readers never skip an entry.
+     */
+    public int getEnd(int position) {
+        int limit = Math.min(claimed.get(), pieceIndices.length);
+        int end = position;
+
+        while (end < limit && origins.get(end) != null) {
+            end++;
+        }
+
+        return end;
+    }
+
+    /**
+     * Returns the index of the piece at the given position, which must lie
+     * before getEnd().
+     */
+    public int getPieceIndex(int position) {
+        return pieceIndices[position];
+    }
+
+    /**
+     * Returns the peer the piece at the given position was received from; the
+     * position must lie before getEnd().
+     */
+    public Object getOrigin(int position) {
+        return origins.get(position);
+    }
+
+    // INNER CLASSES
+
+    /**
+     * A reader of the log that wants to know when pieces are published.
+     */
+    public interface Reader {
+
+        /**
+         * Called by the thread that published a piece, possibly while it 
+         * holds locks, so it should return quickly without blocking.
+         */
+        public void piecesPublished();
+
+    }
+
+}
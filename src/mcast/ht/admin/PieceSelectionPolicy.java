@@ -0,0 +1,45 @@
+package mcast.ht.admin;
+
+import java.util.Random;
+
+/**
+ * Decides which piece to request next from a peer. The piece interest 
+ * consults its policy once for every piece it removes in removeGold() and 
+ * removeGoldOrSilver(). A striped interest consults the policy from several
+ * threads at once, so implementations must be thread safe.
+ */
+public interface PieceSelectionPolicy {
+
+    /**
+     * Returns whether this policy uses the availability of the candidate 
+     * pieces. Only then the piece interest keeps the candidates ordered by 
+     * availability, which costs extra time when peers announce pieces.
+     * 
+     * @return true if the candidates should be ordered by availability
+     */
+    public boolean needsAvailabilityOrder();
+
+    /**
+     * Returns whether this policy prefers pieces with low indices. A striped
+     * interest then offers the candidates of the lowest stripe first, instead 
+     * of those of a random stripe.
+     * 
+     * @return true if pieces with low indices should be selected first
+     */
+    public boolean prefersLowIndices();
+
+    /**
+     * Chooses one of the given candidate pieces.
+     * 
+     * @param candidates
+     *                the pieces we are interested in that the peer has; 
+     *                there is at least one candidate
+     * @param random
+     *                the random generator to use for random choices
+     * 
+     * @return the index of the chosen piece, which must be one of the 
+     *         candidates
+     */
+    public int select(PieceCandidates candidates, Random random);
+
+}
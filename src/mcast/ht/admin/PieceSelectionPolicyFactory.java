@@ -0,0 +1,68 @@
+package mcast.ht.admin;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+public class PieceSelectionPolicyFactory implements Config {
+
+    private static final Logger logger = 
+        Logger.getLogger(PieceSelectionPolicyFactory.class);
+
+    /**
+     * Creates the piece selection policy of the default property.
+     */
+    public static PieceSelectionPolicy createPolicy() {
+        return create(PIECE_SELECTION, Collections.emptySet());
+    }
+
+    /**
+     * Creates the piece selection policy for a multicast channel. The policy
+     * is read from the property 'mcast.ht.admin.piece_selection.<channel>', 
+     * or the default property if the channel has none. A policy is either 
+     * 'random', 'rarest', 'sequential', 'locality', or the class name of a 
+     * PieceSelectionPolicy with a public no-argument constructor.
+     * 
+     * @param channelName
+     *                the name of the multicast channel
+     * @param localPeers
+     *                the peers in our own cluster, used by the 'locality' 
+     *                policy
+     */
+    public static PieceSelectionPolicy createPolicy(String channelName,
+            Set<?> localPeers) {
+        String policy = config.getStringProperty(
+                s_piece_selection + '.' + channelName, PIECE_SELECTION);
+
+        if (logger.isInfoEnabled()) {
+            logger.info("piece selection of channel " + channelName + ": " + 
+                    policy);
+        }
+
+        return create(policy, localPeers);
+    }
+
+    private static PieceSelectionPolicy create(String policy, 
+            Set<?> localPeers) {
+        if (policy.equalsIgnoreCase("random")) {
+            return new RandomPieceSelection();
+        } else if (policy.equalsIgnoreCase("rarest")) {
+            return new RarestFirstPieceSelection();
+        } else if (policy.equalsIgnoreCase("sequential")) {
+            return new SequentialPieceSelection();
+        } else if (policy.equalsIgnoreCase("locality")) {
+            return new LocalityAwarePieceSelection(localPeers);
+        }
+
+        try {
+            Class<?> c = Class.forName(policy);
+
+            return (PieceSelectionPolicy)c.getConstructor().newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("unknown piece selection " +
+                    "policy: " + policy, e);
+        }
+    }
+
+}
@@ -0,0 +1,22 @@
+package mcast.ht.admin;
+
+import java.util.Random;
+
+/**
+ * Selects pieces uniformly at random.
+ */
+public class RandomPieceSelection implements PieceSelectionPolicy {
+
+    public boolean needsAvailabilityOrder() {
+        return false;
+    }
+
+    public boolean prefersLowIndices() {
+        return false;
+    }
+
+    public int select(PieceCandidates candidates, Random random) {
+        return candidates.getPiece(random.nextInt(candidates.size()));
+    }
+
+}
@@ -0,0 +1,25 @@
+package mcast.ht.admin;
+
+import java.util.Random;
+
+/**
+ * Selects the pieces announced by the fewest peers first, and picks at random
+ * among equally rare pieces.
+ */
+public class RarestFirstPieceSelection implements PieceSelectionPolicy {
+
+    public boolean needsAvailabilityOrder() {
+        return true;
+    }
+
+    public boolean prefersLowIndices() {
+        return false;
+    }
+
+    public int select(PieceCandidates candidates, Random random) {
+        int rarest = candidates.getLeastAvailableCount();
+
+        return candidates.getPiece(random.nextInt(rarest));
+    }
+
+}
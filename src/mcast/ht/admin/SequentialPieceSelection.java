@@ -0,0 +1,24 @@
+package mcast.ht.admin;
+
+import java.util.Random;
+
+/**
+ * Selects the pieces with the lowest index first, so the data arrives roughly 
+ * in order. Useful when the data is consumed while it is being received, as 
+ * in streaming.
+ */
+public class SequentialPieceSelection implements PieceSelectionPolicy {
+
+    public boolean needsAvailabilityOrder() {
+        return false;
+    }
+
+    public boolean prefersLowIndices() {
+        return true;
+    }
+
+    public int select(PieceCandidates candidates, Random random) {
+        return candidates.nextPiece(0);
+    }
+
+}
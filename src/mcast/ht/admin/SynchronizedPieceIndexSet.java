@@ -57,6 +57,10 @@ public class SynchronizedPieceIndexSet implements PieceIndexSet {
         return delegate.isEmpty();
     }
 
+    public synchronized int nextIndex(int fromIndex) {
+        return delegate.nextIndex(fromIndex);
+    }
+
     public synchronized Iterator<Integer> iterator() {
         return delegate.iterator();
     }
@@ -0,0 +1,109 @@
+package mcast.ht.admin;
+
+/**
+ * A piece index set that is changed one index at a time, and read as a whole
+ * by many readers. Readers get an immutable snapshot, which all readers share
+ * until the set changes. A new snapshot is only made when a reader asks for 
+ * one after the set changed, so writers never copy the set, and readers only 
+ * hold the lock of this set (not that of its owner) while copying.
+ */
+public class VersionedPieceIndexSet {
+
+    private final PieceIndexSet current;
+    private volatile long version;
+    private volatile Snapshot snapshot;
+
+    public VersionedPieceIndexSet(PieceIndexSet initial) {
+        current = initial.deepCopy();
+        version = 0;
+        snapshot = null;
+    }
+
+    /**
+     * Adds the given piece index.
+     * 
+     * @return true if the index was added, false if it was already present
+     */
+    public synchronized boolean add(int index) {
+        if (current.contains(index)) {
+            return false;
+        }
+
+        current.add(index);
+        version++;
+
+        return true;
+    }
+
+    public synchronized boolean contains(int index) {
+        return current.contains(index);
+    }
+
+    public synchronized int size() {
+        return current.size();
+    }
+
+    /**
+     * Returns the number of changes made to this set so far.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns an immutable copy of the current contents of this set. Trying 
+     * to change the copy throws an UnsupportedOperationException.
+     */
+    public PieceIndexSet getSnapshot() {
+        Snapshot s = snapshot;
+
+        if (s != null && s.version == version) {
+            return s.pieces;
+        }
+
+        synchronized (this) {
+            s = snapshot;
+
+            if (s == null || s.version != version) {
+                s = new Snapshot(version, freeze(current));
+                snapshot = s;
+            }
+
+            return s.pieces;
+        }
+    }
+
+    private static PieceIndexBitSet freeze(PieceIndexSet set) {
+        PieceIndexBitSet result;
+
+        if (set instanceof PieceIndexBitSet) {
+            result = new PieceIndexBitSet((PieceIndexBitSet)set);
+        } else {
+            result = new PieceIndexBitSet();
+            result.addAll(set);
+        }
+
+        result.freeze();
+
+        return result;
+    }
+
+    public synchronized String toString() {
+        return current.toString();
+    }
+
+    // INNER CLASSES
+
+    private static class Snapshot {
+
+        final long version;
+        final PieceIndexSet pieces;
+
+        Snapshot(long version, PieceIndexSet pieces) {
+            this.version = version;
+            this.pieces = pieces;
+        }
+
+    }
+
+}
@@ -19,6 +19,7 @@ import mcast.ht.admin.PieceIndexSetFactory;
 import mcast.ht.storage.CompositeStorage;
 import mcast.ht.storage.IntegerStorage;
 import mcast.ht.storage.MemoryMappedFileStorage;
+import mcast.ht.storage.PieceSizeCalculator;
 import mcast.ht.storage.RandomAccessFileStorage;
 import mcast.ht.storage.Storage;
 import mcast.ht.util.Convert;
@@ -27,12 +28,36 @@ import org.apache.log4j.Logger;
 
 public abstract class AbstractFileMulticast extends FileMulticast {
 
+    /**
+     * Piece size of the meta data, and of files for which the meta data does 
+     * not contain a piece size
+     */
+    private static final int DEFAULT_PIECE_SIZE = 32 * 1024;  // bytes
+
+    /**
+     * Piece size of the files, or 0 if the piece size of each file should be 
+     * chosen automatically
+     */
     private static final int PIECE_SIZE;
+
+    /**
+     * Bandwidth of the links between nodes, used to choose piece sizes 
+     * automatically
+     */
+    private static final double LINK_BANDWIDTH;  // bytes per second
+
     static {
         ConfigProperties prop = ConfigProperties.getInstance();
         String prop_piece_size = "mcast.ht.apps.filecopy.piece_size";
-        String value = prop.getStringProperty(prop_piece_size, "32KB");
-        PIECE_SIZE = (int)Convert.parseBytes(value);
+        String value = prop.getStringProperty(prop_piece_size, "auto");
+        if (value.equals("auto")) {
+            PIECE_SIZE = 0;
+        } else {
+            PIECE_SIZE = (int)Convert.parseBytes(value);
+        }
+        String prop_link_bandwidth = "mcast.ht.apps.filecopy.link_bandwidth";
+        value = prop.getStringProperty(prop_link_bandwidth, "1gbit/s");
+        LINK_BANDWIDTH = Convert.parseBytesPerSec(value);
     }
 
     /**
@@ -52,6 +77,23 @@ public abstract class AbstractFileMulticast extends FileMulticast {
      */
     private static final long MAX_MMAP_SIZE = (long)(Runtime.getRuntime().maxMemory() * 0.75);
 
+    /**
+     * Number of round trips it takes to multicast a single piece
+     */
+    private static final int ROUND_TRIPS_PER_PIECE = 2;
+
+    /**
+     * Number of single piece multicasts timed to estimate the RTT; the 
+     * fastest one is used
+     */
+    private static final int RTT_PROBES = 3;
+
+    /**
+     * Largest RTT used to choose piece sizes, in seconds; a longer probe was
+     * delayed by something else than the network
+     */
+    private static final double MAX_RTT = 0.5;
+
     
     private static final IbisCapabilities REQ_CAPABILITIES = 
         new IbisCapabilities(IbisCapabilities.CLOSED_WORLD,
@@ -102,16 +144,33 @@ public abstract class AbstractFileMulticast extends FileMulticast {
         // 1. multicast the total size of the meta-data
         // XXX assumption: the meta-data's encoded size is never larger than
         // Integer.MAX_VALUE (2GB - 1 byte)
-        FileSetStorage metaData = new FileSetStorage(source, PIECE_SIZE);
+        FileSetStorage metaData = new FileSetStorage(source, DEFAULT_PIECE_SIZE);
         int metaDataSize = metaData.getByteSize();
 
         logger.info("1. Sending meta data size (" + metaDataSize + ")");
+        PieceIndexSet one = PieceIndexSetFactory.createFullPieceIndexSet(1);
         {
             IntegerStorage metaDataSizeStorage = new IntegerStorage(metaDataSize);
-            PieceIndexSet one = PieceIndexSetFactory.createFullPieceIndexSet(1);
             channel.multicastStorage(metaDataSizeStorage, roots, one);
         }
 
+        // time a few multicasts of a single piece over the connections that
+        // are now established; the first multicast also includes starting 
+        // the connections, so it says little about the RTT
+        logger.info("1b. Probing round trip time");
+        long time = Long.MAX_VALUE;
+        for (int i = 0; i < RTT_PROBES; i++) {
+            long start = System.nanoTime();
+            channel.multicastStorage(new IntegerStorage(0), roots, one);
+            channel.flush();
+            time = Math.min(time, System.nanoTime() - start);
+        }
+
+        // choose the piece size of each file; the encoded size of the 
+        // meta-data does not depend on it
+        FileSet fileSet = choosePieceSizes(source, time);
+        metaData = new FileSetStorage(fileSet, DEFAULT_PIECE_SIZE);
+
         // 2. multicast the meta-data
         logger.info("2. Sending meta data");
         {
@@ -124,7 +183,7 @@ public abstract class AbstractFileMulticast extends FileMulticast {
         // 3. multicast the actual files
         logger.info("3. Sending files");
         {
-            CompositeStorage fileData = createStorage(source, true);
+            CompositeStorage fileData = createStorage(fileSet, true);
             int filePieces = fileData.getPieceCount();
             PieceIndexSet allPieces = 
                 PieceIndexSetFactory.createFullPieceIndexSet(filePieces);
@@ -143,9 +202,16 @@ public abstract class AbstractFileMulticast extends FileMulticast {
 
         int metaDataSize = metaDataSizeStorage.getValue();
 
+        // take part in the RTT probes of the sender; they are always done, 
+        // since we do not know whether the sender chooses piece sizes itself
+        for (int i = 0; i < RTT_PROBES; i++) {
+            channel.multicastStorage(new IntegerStorage(0), null, nothing);
+        }
+
         // 2. receive the meta-data
         logger.info("2. Receiving meta data");
-        FileSetStorage metaData = new FileSetStorage(metaDataSize, PIECE_SIZE);
+        FileSetStorage metaData = 
+            new FileSetStorage(metaDataSize, DEFAULT_PIECE_SIZE);
         channel.multicastStorage(metaData, null, nothing);
 
         FileSet fileSet = metaData.getFileSet(target);
@@ -158,6 +224,53 @@ public abstract class AbstractFileMulticast extends FileMulticast {
         channel.flush();
     }
 
+    /**
+     * Returns a copy of the given file set in which each file has a piece 
+     * size.
+     * 
+     * @param source
+     *                the files to choose a piece size for
+     * @param singlePieceNanos
+     *                the shortest time it took to multicast a storage of one 
+     *                piece, including the flush
+     */
+    private FileSet choosePieceSizes(FileSet source, long singlePieceNanos) {
+        int peers = ibis.registry().joinedIbises().length;
+
+        // multicasting a single piece takes a few round trips (bitfield,
+        // request, piece, done), so this overestimates the RTT of one link 
+        double rttSec = Convert.nanosecToSec(singlePieceNanos) / 
+            ROUND_TRIPS_PER_PIECE;
+
+        if (rttSec > MAX_RTT) {
+            logger.warn("measured RTT of " + rttSec + " s is implausible, " +
+                    "using " + MAX_RTT + " s");
+            rttSec = MAX_RTT;
+        }
+
+        logger.info("RTT estimate: " + rttSec + " s");
+
+        FileSet result = new FileSet();
+
+        for (FileInfo fileInfo : source) {
+            int pieceSize = PIECE_SIZE;
+
+            if (pieceSize == 0) {
+                pieceSize = PieceSizeCalculator.calculatePieceSize(
+                        fileInfo.length, peers, rttSec, LINK_BANDWIDTH, 
+                        mcast.ht.bittorrent.Config.MAX_PENDING_REQUESTS);
+            }
+
+            logger.info(fileInfo.file.getAbsolutePath() + ": pieces of " + 
+                    pieceSize + " bytes");
+
+            result.add(new FileInfo(fileInfo.file, fileInfo.prefix, 
+                    fileInfo.length, pieceSize));
+        }
+
+        return result;
+    }
+
     private CompositeStorage createStorage(FileSet fileSet, boolean readOnly)
     throws IOException
     {
@@ -174,6 +287,12 @@ public abstract class AbstractFileMulticast extends FileMulticast {
     private Storage createStorage(FileInfo fileInfo, boolean readOnly)
     throws IOException
     {
+        int pieceSize = fileInfo.pieceSize;
+
+        if (pieceSize == 0) {
+            pieceSize = DEFAULT_PIECE_SIZE;
+        }
+
         if (!USE_MMAP ||
             fileInfo.length < MIN_MMAP_SIZE || 
             fileInfo.length > MAX_MMAP_SIZE) {
@@ -182,12 +301,12 @@ public abstract class AbstractFileMulticast extends FileMulticast {
             // In those cases, we use a regular random access file
             logger.info(fileInfo.file.getAbsolutePath() + ": random access");
             return new RandomAccessFileStorage(fileInfo.file, fileInfo.length,
-                    PIECE_SIZE, readOnly);
+                    pieceSize, readOnly);
         } else {
             // Use memory-mapped I/O for better write performance
             logger.info(fileInfo.file.getAbsolutePath() + ": mmap");
             return new MemoryMappedFileStorage(fileInfo.file,
-                    (int)fileInfo.length, PIECE_SIZE, readOnly);
+                    (int)fileInfo.length, pieceSize, readOnly);
         }
     }
 
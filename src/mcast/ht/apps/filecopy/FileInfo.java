@@ -7,18 +7,30 @@ public class FileInfo {
     public final File file;
     public final String prefix;
     public final long length;
+    
+    /**
+     * The piece size of the storage of this file, or 0 if it has not been 
+     * chosen yet
+     */
+    public final int pieceSize;
 
     public FileInfo(File file, String prefix) {
         this.file = file;
         this.prefix = prefix;
         
         length = file.length();
+        pieceSize = 0;
     }
     
     public FileInfo(File file, String prefix, long length) {
+        this(file, prefix, length, 0);
+    }
+
+    public FileInfo(File file, String prefix, long length, int pieceSize) {
         this.file = file;
         this.prefix = prefix;
         this.length = length;
+        this.pieceSize = pieceSize;
     }
 
     public int hashCode() { 
@@ -15,8 +15,18 @@ import mcast.ht.storage.ByteArrayStorage;
 import mcast.ht.storage.Piece;
 import mcast.ht.storage.Storage;
 
+/**
+ * The meta data of a file set: the path, length and piece size of each file.
+ * 
+ * The encoding starts with a format version. Version 2 added the piece size
+ * of each file, and is not understood by nodes that still use the unversioned
+ * format without piece sizes (version 1), so all nodes of a file copy must
+ * run the same version. A mismatch is detected by the receiver.
+ */
 public class FileSetStorage implements Storage {
 
+	private static final int FORMAT_VERSION = 2;
+
 	private ByteArrayStorage delegate;
 	
 	public FileSetStorage(FileSet fileSet, int pieceSize) 
@@ -26,9 +36,12 @@ public class FileSetStorage implements Storage {
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		DataOutputStream dos = new DataOutputStream(bos);
 		
+		dos.writeInt(FORMAT_VERSION);
+
 		for (FileInfo fileInfo: fileSet) {
 			dos.writeUTF(fileInfo.getPath());
 			dos.writeLong(fileInfo.file.length());
+			dos.writeInt(fileInfo.pieceSize);
 		}
 		
 		byte[] data = bos.toByteArray();
@@ -54,12 +67,22 @@ public class FileSetStorage implements Storage {
 		ByteArrayInputStream bis = new ByteArrayInputStream(delegate.getData());
 		DataInputStream dis = new DataInputStream(bis);
 		
+		int version = dis.readInt();
+
+		if (version != FORMAT_VERSION) {
+			throw new IOException("unsupported meta data format version " + 
+					version + " (expected " + FORMAT_VERSION + "); all " +
+					"nodes must run the same version of the file copy " +
+					"application");
+		}
+
 		try {
 			while (true) {
 				File file = new File(target, dis.readUTF());
 				long size = dis.readLong();
+				int pieceSize = dis.readInt();
 				
-				FileInfo fileInfo = new FileInfo(file, "", size); 
+				FileInfo fileInfo = new FileInfo(file, "", size, pieceSize); 
 				
 				result.add(fileInfo);
 			}
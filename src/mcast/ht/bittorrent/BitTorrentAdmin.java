@@ -6,6 +6,8 @@ import java.io.IOException;
 
 import mcast.ht.admin.P2PAdmin;
 import mcast.ht.admin.PieceIndexSet;
+import mcast.ht.admin.PiecePriorities;
+import mcast.ht.admin.PieceReceivedLog;
 import mcast.ht.storage.Piece;
 
 public interface BitTorrentAdmin extends P2PAdmin {
@@ -18,14 +20,24 @@ public interface BitTorrentAdmin extends P2PAdmin {
 
     public boolean addExistence(Object peer, PieceIndexSet pieceIndices);
 
+    public void setPiecePriorities(PiecePriorities priorities);
+
     public int[] requestDesiredPieceIndices(Object peer, int amount);
 
     public PieceIndexSet getPiecesReceived();
 
+    public PieceReceivedLog getPieceReceivedLog();
+
     public int getPiecesReceivedCount();
 
     public void setPieceReceived(IbisIdentifier origin, Piece piece);
 
+    /**
+     * Gives up the requests of the given pieces from a peer, and requests the
+     * pieces that are not received yet from other peers that have them.
+     */
+    public void requestsTimedOut(Object peer, int[] pieceIndices);
+
     public boolean areAllPieceReceived();
 
     public void waitUntilAllPiecesReceived();
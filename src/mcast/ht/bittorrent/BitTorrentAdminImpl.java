@@ -3,19 +3,20 @@ package mcast.ht.bittorrent;
 import ibis.ipl.IbisIdentifier;
 
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import mcast.ht.admin.EndGame;
 import mcast.ht.admin.PieceIndexSet;
 import mcast.ht.admin.PieceIndexSetFactory;
 import mcast.ht.admin.PieceInterest;
 import mcast.ht.admin.PieceInterestFactory;
-import mcast.ht.admin.SynchronizedPieceIndexSet;
+import mcast.ht.admin.PiecePriorities;
+import mcast.ht.admin.PieceReceivedLog;
+import mcast.ht.admin.PieceSelectionPolicy;
+import mcast.ht.admin.PieceSelectionPolicyFactory;
+import mcast.ht.admin.VersionedPieceIndexSet;
 import mcast.ht.net.P2PConnection;
 import mcast.ht.storage.Piece;
 
@@ -26,7 +27,7 @@ public class BitTorrentAdminImpl implements Config, BitTorrentAdmin {
     private static final Logger logger = Logger.getLogger(BitTorrentAdminImpl.class);
 
     protected final int totalPieces;
-    private final Set<BitTorrentConnection> connections;
+    private final Map<Object, BitTorrentConnection> connections;
 
     /**
      * Keep track of the pieces in which this host is interested, so we know
@@ -37,64 +38,106 @@ public class BitTorrentAdminImpl implements Config, BitTorrentAdmin {
     /**
      * Keep track of which pieces have been received, so we know which pieces we
      * can send to our peers and when we have received all pieces ourselves.
+     * Peers share immutable snapshots of it.
      */
-    protected final PieceIndexSet piecesReceived;
+    protected final VersionedPieceIndexSet piecesReceived;
 
     /**
-     * Per peer, keep track of which pieces are pending (that is: requested but
-     * not received yet)
+     * The pieces received during this multicast, in order of arrival. Each
+     * connection drains it in its own sender thread to tell its peer about new
+     * pieces, so receiving a piece does not depend on the number of peers.
      */
-    private final Map<Object, PieceIndexSet> pendingPiecesMap;
+    private final PieceReceivedLog receivedLog;
 
     /**
-     * Per peer, keep track of which pieces can be requested again. This only
-     * happens in end game mode.
+     * Keep track of which pieces are requested from which peers, so we can 
+     * request them again in end game mode or when a request times out (null 
+     * if both are disabled)
      */
-    private final Map<Object, PieceIndexSet> endGamePiecesMap;
+    protected final EndGame endGame;
 
     /**
-     * Are we in end game mode yet?
+     * The pieces to request before all others, and our working copy of them,
+     * from which pieces disappear once they are requested or received
      */
-    private volatile boolean endGame;
+    private final Object urgentLock;
+    private PiecePriorities priorities;
+    private int prioritiesVersion;
+    private PieceIndexSet[] urgentPieces;
 
     public BitTorrentAdminImpl(int totalPieces, PieceIndexSet possession) {
+        this(totalPieces, possession, 
+                PieceSelectionPolicyFactory.createPolicy());
+    }
+
+    public BitTorrentAdminImpl(int totalPieces, PieceIndexSet possession,
+            PieceSelectionPolicy policy) {
+        this(totalPieces, possession, policy, null);
+    }
+
+    /**
+     * Creates an admin that reuses the piece administration of the admin of
+     * an earlier multicast on the same channel, as far as it can hold the 
+     * pieces of this one. This saves allocating the administration again for
+     * every multicast.
+     *
+     * @param recycled
+     *                the admin of the previous multicast, which must not be 
+     *                used anymore, or null
+     */
+    public BitTorrentAdminImpl(int totalPieces, PieceIndexSet possession,
+            PieceSelectionPolicy policy, BitTorrentAdminImpl recycled) {
         this(totalPieces, possession, 
                 PieceIndexSetFactory.createEmptyPieceIndexSet(), 
-                possession.not(totalPieces));
+                possession.not(totalPieces), policy, recycled);
+    }
+
+    protected BitTorrentAdminImpl(int totalPieces, PieceIndexSet possession,
+            PieceIndexSet silver, PieceIndexSet gold, 
+            PieceSelectionPolicy policy) {
+        this(totalPieces, possession, silver, gold, policy, null);
     }
 
     protected BitTorrentAdminImpl(int totalPieces, PieceIndexSet possession,
-            PieceIndexSet silver, PieceIndexSet gold) {
+            PieceIndexSet silver, PieceIndexSet gold, 
+            PieceSelectionPolicy policy, BitTorrentAdminImpl recycled) {
         this.totalPieces = totalPieces;
 
-        piecesReceived = possession.deepCopy();
+        piecesReceived = new VersionedPieceIndexSet(possession);
 
-        interest = PieceInterestFactory.createPieceInterest(totalPieces,
-                silver, gold);
+        if (recycled != null && 
+                recycled.receivedLog.getCapacity() >= totalPieces) {
+            receivedLog = recycled.receivedLog;
+            receivedLog.reset();
+        } else {
+            receivedLog = new PieceReceivedLog(totalPieces);
+        }
 
-        connections = new HashSet<BitTorrentConnection>();
+        interest = PieceInterestFactory.reusePieceInterest(
+                recycled == null ? null : recycled.interest, totalPieces,
+                silver, gold, policy);
 
-        if (END_GAME) {
-            pendingPiecesMap = Collections
-            .synchronizedMap(new HashMap<Object, PieceIndexSet>());
-            endGamePiecesMap = new HashMap<Object, PieceIndexSet>();
+        connections = new ConcurrentHashMap<Object, BitTorrentConnection>();
+
+        urgentLock = new Object();
+        priorities = null;
+        prioritiesVersion = 0;
+        urgentPieces = null;
+
+        if (recycled != null && recycled.endGame != null && 
+                recycled.endGame.getCapacity() >= totalPieces) {
+            endGame = recycled.endGame;
+            endGame.reset();
+        } else if (END_GAME) {
+            endGame = new EndGame(totalPieces, END_GAME_MAX_REQUESTS, 
+                    END_GAME_MAX_DUPLICATE_REQUESTS);
         } else {
-            pendingPiecesMap = null;
-            endGamePiecesMap = null;
+            endGame = null;
         }
-
-        endGame = false;
     }
 
     public synchronized void addConnection(P2PConnection c) {
-        connections.add((BitTorrentConnection)c);
-
-        if (END_GAME) {
-            pendingPiecesMap.put(c.getPeer(), new SynchronizedPieceIndexSet(
-                    PieceIndexSetFactory.createEmptyPieceIndexSet()));
-            endGamePiecesMap.put(c.getPeer(), new SynchronizedPieceIndexSet(
-                    PieceIndexSetFactory.createEmptyPieceIndexSet()));
-        }
+        connections.put(c.getPeer(), (BitTorrentConnection)c);
     }
 
     public int getNoTotalPieces() {
@@ -113,157 +156,216 @@ public class BitTorrentAdminImpl implements Config, BitTorrentAdmin {
         return interest.tellHave(peer, pieceIndices, false);
     }
 
-    public int[] requestDesiredPieceIndices(Object peer, int amount) {
-        int[] result = interest.removeGold(peer, amount);
-
-        if (END_GAME) {
-            if (result.length > 0) {
-                PieceIndexSet pending = pendingPiecesMap.get(peer);
+    public void setPiecePriorities(PiecePriorities priorities) {
+        synchronized (urgentLock) {
+            this.priorities = priorities;
+            urgentPieces = null;
+        }
+    }
 
-                synchronized (pending) {
-                    for (int i : result) {
-                        pending.add(i);
-                    }
-                }
+    /**
+     * Removes at most the given amount of urgent pieces the given peer has 
+     * from the interest, the most urgent ones first.
+     */
+    protected int[] removeUrgent(Object peer, int amount, boolean orSilver) {
+        synchronized (urgentLock) {
+            if (priorities == null) {
+                return PieceInterest.NOTHING;
             }
 
-            synchronized (endGamePiecesMap) {
-                if (!endGame && !interest.containsGold()) {
-                    logger.debug("starting end game");
+            int version = priorities.getVersion();
 
-                    endGame = true;
+            if (urgentPieces == null || version != prioritiesVersion) {
+                urgentPieces = priorities.getUrgentPieces();
+                prioritiesVersion = version;
 
-                    for (BitTorrentConnection c : connections) {
-                        Object p = c.getPeer();
-                        PieceIndexSet endGamePieces = getEndGamePieces(p);
-                        logger.debug("end game pieces for " + p + ": "
-                                + endGamePieces);
-                        endGamePiecesMap.put(p, endGamePieces);
-                    }
+                PieceIndexSet received = piecesReceived.getSnapshot();
+
+                for (PieceIndexSet urgent: urgentPieces) {
+                    urgent.removeAll(received);
                 }
             }
 
-            if (endGame) {
-                PieceIndexSet endGamePieces = endGamePiecesMap.get(peer);
+            int[] result = PieceInterest.NOTHING;
 
-                synchronized (endGamePieces) {
-                    if (!endGamePieces.isEmpty() && result.length < amount) {
-                        // add end game pieces
+            for (int u = 0; u < urgentPieces.length && result.length < amount; 
+                    u++) {
+                PieceIndexSet urgent = urgentPieces[u];
 
-                        int piecesAvailable = result.length
-                                + endGamePieces.size();
-                        if (piecesAvailable > amount) {
-                            piecesAvailable = amount;
-                        }
+                if (urgent.isEmpty()) {
+                    continue;
+                }
 
-                        int[] newResult = new int[piecesAvailable];
+                int[] picked = interest.removeFrom(peer, urgent, 
+                        amount - result.length, orSilver);
 
-                        // first, copy the pieces we picked before
-                        System.arraycopy(result, 0, newResult, 0, 
-                                result.length);
+                for (int i: picked) {
+                    urgent.remove(i);
+                }
 
-                        // second, fill up the new pieces array with pending
-                        // pieces
-                        Iterator<Integer> optionsIt = endGamePieces.iterator();
-                        for (int i = result.length; i < piecesAvailable; i++) {
-                            newResult[i] = optionsIt.next();
-                            optionsIt.remove();
-                        }
+                result = concat(result, picked);
+            }
 
-                        logger.debug("[end game] returning " + result.length
-                                + " normal and "
-                                + (piecesAvailable - result.length)
-                                + " duplicate pieces out of " + endGamePieces
-                                + ": " + Arrays.toString(newResult));
+            return result;
+        }
+    }
 
-                        result = newResult;
-                    }
-                }
-            }
+    /**
+     * Returns the given arrays of piece indices one after the other.
+     */
+    protected static int[] concat(int[] first, int[] second) {
+        if (second.length == 0) {
+            return first;
+        } else if (first.length == 0) {
+            return second;
         }
 
+        int[] result = new int[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+
         return result;
     }
 
-    private PieceIndexSet getEndGamePieces(Object peer) {
-        PieceIndexSet result = PieceIndexSetFactory.createEmptyPieceIndexSet();
-
-        for (Map.Entry<Object, PieceIndexSet> entry : pendingPiecesMap.entrySet()) {
-            Object h = entry.getKey();
+    public int[] requestDesiredPieceIndices(Object peer, int amount) {
+        // urgent pieces first, then the ones our policy picks
+        int[] result = removeUrgent(peer, amount, false);
 
-            for (BitTorrentConnection c : connections) {
-                if (!c.getPeer().equals(h)) {
-                    PieceIndexSet pending = entry.getValue();
+        result = concat(result, 
+                interest.removeGold(peer, amount - result.length));
 
-                    result.addAll(pending);
-                }
-            }
+        if (endGame != null) {
+            endGame.requested(peer, result);
         }
 
-        PieceIndexSet alreadyRequested = pendingPiecesMap.get(peer);
+        if (END_GAME) {
+            if (result.length < amount && !interest.containsGold()) {
+                // nothing left to request normally; request pieces that are
+                // still outstanding at other peers
+                endGame.start();
 
-        for (int i : alreadyRequested) {
-            result.remove(i);
+                result = endGame.requestDuplicates(peer, 
+                        interest.getHave(peer), result, amount);
+            }
         }
 
         return result;
     }
 
-    public synchronized PieceIndexSet getPiecesReceived() {
-        return piecesReceived.deepCopy();
+    /**
+     * Returns an immutable snapshot of the pieces received so far. The 
+     * snapshot is shared with other callers until a new piece is received, so
+     * it should not be changed.
+     */
+    public PieceIndexSet getPiecesReceived() {
+        return piecesReceived.getSnapshot();
+    }
+
+    public PieceReceivedLog getPieceReceivedLog() {
+        return receivedLog;
     }
 
     public synchronized int getPiecesReceivedCount() {
         return piecesReceived.size();
     }
 
-    public synchronized void setPieceReceived(IbisIdentifier origin, 
-            Piece piece) {
-        // update the administration
-        piecesReceived.add(piece.getIndex());
+    public void setPieceReceived(IbisIdentifier origin, Piece piece) {
+        int index = piece.getIndex();
 
-        if (END_GAME) {
-            PieceIndexSet pending = pendingPiecesMap.get(origin);
-            pending.remove(piece.getIndex());
-        }
+        synchronized (this) {
+            // update the administration
+            if (!piecesReceived.add(index)) {
+                // a duplicate (requested in end game mode); our peers already 
+                // know we have it
+                return;
+            }
 
-        if (!END_GAME || !endGame) {
-            // end game is not enabled or not currently happening;
-            // we only have to tell our peers we received a new piece
-            for (BitTorrentConnection c : connections) {
-                c.pieceReceived(origin, piece.getIndex());
+            // tell our peers we received a new piece; the connections pick it
+            // up from the log in their own time. Publishing it while holding 
+            // the lock guarantees that a connection that sees all pieces 
+            // received also sees all of them in the log.
+            receivedLog.publish(origin, index);
+
+            if (REQUEST_TIMEOUT > 0) {
+                // a piece whose request timed out is back in our interest, 
+                // but may still arrive from the peer it was first requested 
+                // from
+                interest.remove(index);
             }
-        } else {
-            // end game is enabled and currently happening
-            // we have to update the end game administration, and
-            // either cancel a previously requested piece from a peer
-            // or tell a peer we received a new piece
-            for (BitTorrentConnection c : connections) {
-                Object peer = c.getPeer();
-
-                PieceIndexSet pendingPieces = pendingPiecesMap.get(peer);
-
-                boolean wasPending = pendingPieces.remove(piece.getIndex());
-
-                if (wasPending && !peer.equals(origin)) {
-                    // cancel a previously requested piece
-                    c.cancelPiece(piece.getIndex());
-                } else {
-                    // tell this peer we received a new piece
-                    c.pieceReceived(origin, piece.getIndex());
+
+            // notify threads that are waiting until all pieces have been 
+            // received
+            if (piecesReceived.size() >= totalPieces) {
+                notifyAll();
+            }
+        }
+
+        // urgent pieces are forgotten when they are requested, but an urgent
+        // piece can also arrive after being requested by the normal policy
+        synchronized (urgentLock) {
+            if (urgentPieces != null) {
+                for (PieceIndexSet urgent: urgentPieces) {
+                    urgent.remove(index);
                 }
+            }
+        }
+
+        if (endGame != null) {
+            // cancel the requests we made to peers other than the origin
+            for (Object peer: endGame.received(index)) {
+                if (!peer.equals(origin)) {
+                    BitTorrentConnection c = connections.get(peer);
 
-                PieceIndexSet endGamePieces = endGamePiecesMap.get(peer);
-                endGamePieces.remove(piece.getIndex());
+                    if (c != null) {
+                        c.cancelPiece(index);
+                    }
+                }
             }
         }
+    }
+
+    public void requestsTimedOut(Object peer, int[] pieceIndices) {
+        for (int i: pieceIndices) {
+            List<Object> peers = null;
+
+            synchronized (this) {
+                // put the piece back in our interest if it is not received 
+                // yet and no other peer is still working on it (only possible
+                // in end game mode)
+                if (!piecesReceived.contains(i) && 
+                        (endGame == null || endGame.timedOut(peer, i))) {
+                    peers = interest.restore(i, peer);
+                }
+            }
+
+            if (peers != null) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("request of piece " + i + " from " + peer + 
+                            " timed out, requesting it from " + peers);
+                }
 
-        // notify threads that are waiting until all pieces have been received
-        if (piecesReceived.size() >= totalPieces) {
-            notifyAll();
+                pieceRestored(i);
+
+                // let the peers that have the piece request it
+                for (Object p: peers) {
+                    BitTorrentConnection c = connections.get(p);
+
+                    if (c != null) {
+                        c.pieceAvailableAgain(i);
+                    }
+                }
+            }
         }
     }
 
+    /**
+     * Called when a piece whose request timed out is put back in our 
+     * interest, before it is requested from other peers.
+     */
+    protected void pieceRestored(int pieceIndex) {
+        // do nothing
+    }
+
     public synchronized boolean areAllPieceReceived() {
         return piecesReceived.size() == totalPieces;
     }
@@ -1,7 +1,11 @@
 package mcast.ht.bittorrent;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import mcast.ht.admin.PieceIndexSet;
 import mcast.ht.admin.PieceIndexSetFactory;
@@ -15,6 +19,9 @@ public class BitTorrentAsyncSender implements Runnable, Config {
     private static Logger logger = 
         Logger.getLogger(BitTorrentAsyncSender.class);
 
+    // wakes up senders at a given time; shared by all senders
+    private static final Timer wakeUpTimer = new Timer("WakeUpTimer", true);
+
     private final BitTorrentCommunicator communicator;
     protected final LinkedBlockingQueue<Command> queue;
     private final SendInterested sendInterested;
@@ -28,6 +35,21 @@ public class BitTorrentAsyncSender implements Runnable, Config {
     private volatile int flushId, callbackId;
     private final PieceIndexSet cancelledPieces;
     private volatile int cancelledCount;
+    private volatile Command wakeUpCommand;
+
+    // whether a wake-up is queued and has not started yet, so at most one is
+    // queued at any time
+    private final AtomicBoolean wakeUpQueued;
+    private final WakeUp wakeUp;
+
+    // the pending timed wake-up, and when it goes off (in System.nanoTime())
+    private TimerTask timedWakeUp;
+    private long timedWakeUpTime;
+
+    // new pieces not announced to our peer yet, and since when the oldest of 
+    // them waits (in System.nanoTime())
+    private PieceIndexSet pendingHaves;
+    private long pendingHavesSince;
 
     public BitTorrentAsyncSender(BitTorrentCommunicator communicator) {
         this.communicator = communicator;
@@ -49,6 +71,64 @@ public class BitTorrentAsyncSender implements Runnable, Config {
 
         cancelledPieces = PieceIndexSetFactory.createEmptyPieceIndexSet();
         cancelledCount = 0;
+
+        wakeUpCommand = null;
+
+        wakeUpQueued = new AtomicBoolean(false);
+        wakeUp = new WakeUp();
+
+        timedWakeUp = null;
+        timedWakeUpTime = 0;
+
+        pendingHaves = PieceIndexSetFactory.createEmptyPieceIndexSet();
+        pendingHavesSince = 0;
+    }
+
+    /**
+     * Sets a command that is executed every time this sender is woken up.
+     */
+    public void setWakeUpCommand(Command c) {
+        wakeUpCommand = c;
+    }
+
+    /**
+     * Makes the sender thread execute the wake-up command after the commands 
+     * queued so far. Does not block, and does not queue another wake-up if 
+     * one is queued already, so it can be called for every received piece.
+     */
+    public void wakeUp() {
+        if (wakeUpQueued.compareAndSet(false, true)) {
+            enqueue(wakeUp);
+        }
+    }
+
+    /**
+     * Wakes up the sender thread at the given time, in System.nanoTime(). Only
+     * the earliest requested time is remembered; a caller that needs a later
+     * wake-up as well has to ask again when it is woken up.
+     */
+    public synchronized void wakeUpAt(long nanoTime) {
+        if (timedWakeUp != null) {
+            if (timedWakeUpTime <= nanoTime) {
+                return;
+            }
+            timedWakeUp.cancel();
+        }
+
+        // round up, so we do not wake up too early
+        long delay = (nanoTime - System.nanoTime() + 999999) / 1000000;
+
+        timedWakeUp = new TimedWakeUp();
+        timedWakeUpTime = nanoTime;
+
+        wakeUpTimer.schedule(timedWakeUp, Math.max(0, delay));
+    }
+
+    private synchronized void cancelTimedWakeUp() {
+        if (timedWakeUp != null) {
+            timedWakeUp.cancel();
+            timedWakeUp = null;
+        }
     }
 
     public synchronized void enqueueBitfield(PieceIndexSet pieceIndices) {
@@ -63,6 +143,12 @@ public class BitTorrentAsyncSender implements Runnable, Config {
         enqueue(new SendPiece(piece));
     }
 
+    public synchronized void enqueuePieces(List<Piece> pieces) {
+        for (Piece piece: pieces) {
+            enqueue(new SendPiece(piece));
+        }
+    }
+
     public void cancel(int pieceIndex) {
         synchronized (cancelledPieces) {
             cancelledPieces.add(pieceIndex);
@@ -70,7 +156,63 @@ public class BitTorrentAsyncSender implements Runnable, Config {
     }
 
     public synchronized void enqueueHave(int pieceIndex) {
-        enqueue(new SendHave(pieceIndex));
+        if (HAVE_BATCH_SIZE <= 1) {
+            enqueue(new SendHave(pieceIndex));
+            return;
+        }
+
+        if (pendingHaves.isEmpty()) {
+            pendingHavesSince = System.nanoTime();
+
+            if (HAVE_BATCH_DELAY > 0) {
+                wakeUpAt(pendingHavesSince + HAVE_BATCH_DELAY * 1000000L);
+            }
+        }
+
+        pendingHaves.add(pieceIndex);
+
+        if (pendingHaves.size() >= HAVE_BATCH_SIZE) {
+            enqueuePendingHaves();
+        }
+    }
+
+    /**
+     * Enqueues the pending new pieces when the oldest of them waited long 
+     * enough, or makes sure we wake up when it has.
+     */
+    private synchronized void checkPendingHaves() {
+        if (pendingHaves.isEmpty()) {
+            return;
+        }
+
+        long due = pendingHavesSince + HAVE_BATCH_DELAY * 1000000L;
+
+        if (System.nanoTime() - due >= 0) {
+            enqueuePendingHaves();
+        } else {
+            // we woke up for another reason, or the timer went off a bit 
+            // early
+            wakeUpAt(due);
+        }
+    }
+
+    /**
+     * Enqueues the pending new pieces in one message. Messages that our peer 
+     * may only receive after all our HAVEs (done, stop) call this first.
+     */
+    private synchronized void enqueuePendingHaves() {
+        if (pendingHaves.isEmpty()) {
+            return;
+        }
+
+        if (pendingHaves.size() == 1) {
+            // a single piece is cheaper to announce in a plain HAVE
+            enqueue(new SendHave(pendingHaves.nextIndex(0)));
+            pendingHaves.clear();
+        } else {
+            enqueue(new SendHaveBatch(pendingHaves));
+            pendingHaves = PieceIndexSetFactory.createEmptyPieceIndexSet();
+        }
     }
 
     public synchronized void enqueueCancel(int pieceIndex) {
@@ -93,15 +235,18 @@ public class BitTorrentAsyncSender implements Runnable, Config {
         enqueue(sendUnchoke);
     }
 
-    public void enqueueDone() {
+    public synchronized void enqueueDone() {
+        enqueuePendingHaves();
         enqueue(sendDone);
     }
 
-    public void enqueueStop() {
+    public synchronized void enqueueStop() {
+        enqueuePendingHaves();
         enqueue(sendStop);
     }
 
     public synchronized void enqueueClose() {
+        enqueuePendingHaves();
         enqueue(close);
     }
 
@@ -114,6 +259,8 @@ public class BitTorrentAsyncSender implements Runnable, Config {
     }
 
     public synchronized void flush() {
+        enqueuePendingHaves();
+
         if (queue.isEmpty()) {
             return;
         } else {
@@ -141,7 +288,7 @@ public class BitTorrentAsyncSender implements Runnable, Config {
     }
 
     public synchronized void printStats(String prefix) {
-        if (END_GAME) {
+        if (END_GAME || REQUEST_TIMEOUT > 0) {
             Config.statsLogger.info(prefix + "#cancelled pieces: " + 
                     cancelledCount);
         }
@@ -231,8 +378,13 @@ public class BitTorrentAsyncSender implements Runnable, Config {
         }
 
         public void execute() throws IOException {
-            for (int i = 0; i < pieceIndices.length; i++) {
-                communicator.sendRequest(pieceIndices[i]);
+            if (REQUEST_BATCH && pieceIndices.length > 1) {
+                // all requests of one pipeline refill in a single message
+                communicator.sendRequests(pieceIndices);
+            } else {
+                for (int pieceIndex: pieceIndices) {
+                    communicator.sendRequest(pieceIndex);
+                }
             }
         }
 
@@ -272,6 +424,20 @@ public class BitTorrentAsyncSender implements Runnable, Config {
 
     }
 
+    private class SendHaveBatch implements Command {
+
+        private PieceIndexSet pieceIndices;
+
+        SendHaveBatch(PieceIndexSet pieceIndices) {
+            this.pieceIndices = pieceIndices;
+        }
+
+        public void execute() throws IOException {
+            communicator.sendHaveBatch(pieceIndices);
+        }
+
+    }
+
     private class SendCancel implements Command {
 
         private int pieceIndex;
@@ -317,6 +483,7 @@ public class BitTorrentAsyncSender implements Runnable, Config {
         }
 
         public void execute() throws IOException {
+            cancelTimedWakeUp();
             communicator.close();
             done = true;
         }
@@ -334,4 +501,38 @@ public class BitTorrentAsyncSender implements Runnable, Config {
         }
     }
 
+    private class WakeUp implements Command {
+
+        WakeUp() {
+            // do nothing
+        }
+
+        public void execute() throws IOException {
+            // clear the flag first, so whatever happens from now on queues a
+            // new wake-up
+            wakeUpQueued.set(false);
+
+            Command c = wakeUpCommand;
+
+            if (c != null) {
+                c.execute();
+            }
+
+            checkPendingHaves();
+        }
+    }
+
+    private class TimedWakeUp extends TimerTask {
+
+        public void run() {
+            synchronized (BitTorrentAsyncSender.this) {
+                if (timedWakeUp == this) {
+                    timedWakeUp = null;
+                }
+            }
+
+            wakeUp();
+        }
+    }
+
 }
@@ -9,6 +9,7 @@ import ibis.ipl.SendPort;
 import ibis.ipl.WriteMessage;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import mcast.ht.admin.PieceIndexSet;
 import mcast.ht.admin.PieceIndexSetFactory;
@@ -35,6 +36,9 @@ public class BitTorrentCommunicator implements Config, MessageUpcall {
     private static final byte OPCODE_CANCEL = 8;
     private static final byte OPCODE_DONE = 9;
     private static final byte OPCODE_STOP = 10;
+    // opcodes 11 to 14 are used by the Robber communicator
+    private static final byte OPCODE_HAVE_BATCH = 15;
+    private static final byte OPCODE_REQUEST_BATCH = 16;
 
     public static final String MGMT_PROP_BYTES_SENT = "BytesSent";
     public static final String MGMT_PROP_BYTES_RCVD = "BytesReceived";
@@ -191,10 +195,41 @@ public class BitTorrentCommunicator implements Config, MessageUpcall {
         sendMessage(OPCODE_HAVE, pieceIndex);
     }
 
+    void sendHaveBatch(PieceIndexSet pieceIndices) throws IOException {
+        sendPieceIndexSetMessage(OPCODE_HAVE_BATCH, pieceIndices);
+    }
+
     void sendRequest(int pieceIndex) throws IOException {
         sendMessage(OPCODE_REQUEST, pieceIndex);
     }
 
+    void sendRequests(int[] pieceIndices) throws IOException {
+        if (sendingStopped) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("not sending " + 
+                        messageName(OPCODE_REQUEST_BATCH) + 
+                        " because we stopped");
+            }
+            return;
+        }
+
+        if (logger.isTraceEnabled()) {
+            logger.trace("S " + messageName(OPCODE_REQUEST_BATCH) + ' ' + 
+                    Arrays.toString(pieceIndices));
+        }
+
+        WriteMessage msg = sport.newMessage();
+
+        msg.writeByte(OPCODE_REQUEST_BATCH);
+        msg.writeInt(pieceIndices.length);
+        msg.writeArray(pieceIndices);
+        long bytesSent = msg.finish();
+
+        if (uploadRateEstimate != null) {
+            uploadRateEstimate.updateRate(bytesSent);
+        }
+    }
+
     protected String messageName(int opcode) {
         switch (opcode) {
         case OPCODE_CHOKE:
@@ -219,6 +254,10 @@ public class BitTorrentCommunicator implements Config, MessageUpcall {
             return "done";
         case OPCODE_STOP:
             return "stop";
+        case OPCODE_HAVE_BATCH:
+            return "have batch";
+        case OPCODE_REQUEST_BATCH:
+            return "request batch";
         default:
             return "unknown (" + opcode + ")";
         }
@@ -362,6 +401,15 @@ public class BitTorrentCommunicator implements Config, MessageUpcall {
             upcall.receiveHave(pieceIndex);
             break;
         }
+        case OPCODE_HAVE_BATCH: {
+            PieceIndexSet pieceIndices = 
+                PieceIndexSetFactory.readPieceIndexSet(m);
+            if (logger.isTraceEnabled()) {
+                logger.trace("R have batch " + pieceIndices);
+            }
+            upcall.receiveHaves(pieceIndices);
+            break;
+        }
         case OPCODE_BITFIELD: {
             PieceIndexSet pieceIndices = 
                 PieceIndexSetFactory.readPieceIndexSet(m);
@@ -379,6 +427,16 @@ public class BitTorrentCommunicator implements Config, MessageUpcall {
             upcall.receiveRequest(pieceIndex);
             break;
         }
+        case OPCODE_REQUEST_BATCH: {
+            int[] pieceIndices = new int[m.readInt()];
+            m.readArray(pieceIndices);
+            if (logger.isTraceEnabled()) {
+                logger.trace("R request batch " + 
+                        Arrays.toString(pieceIndices));
+            }
+            upcall.receiveRequests(pieceIndices);
+            break;
+        }
         case OPCODE_PIECE: {
             Piece piece = storage.readPiece(m);
             if (logger.isTraceEnabled()) {
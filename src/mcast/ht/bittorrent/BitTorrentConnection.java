@@ -9,15 +9,19 @@ import ibis.util.ThreadPool;
 import ibis.util.Timer;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
 import mcast.ht.admin.P2PAdmin;
 import mcast.ht.admin.PieceIndexSet;
+import mcast.ht.admin.PieceIndexSetFactory;
+import mcast.ht.admin.PieceReceivedLog;
 import mcast.ht.net.P2PConnection;
 import mcast.ht.storage.Piece;
 import mcast.ht.storage.Storage;
+import mcast.ht.util.Command;
 import mcast.ht.util.Convert;
 
 import org.apache.log4j.Logger;
@@ -60,10 +64,18 @@ implements Config, BitTorrentUpcall, P2PConnection {
     private volatile boolean peerStopped;
     private final Object peerStopLock = new Object();
 
+    // the log of received pieces, and how far we told our peer about them;
+    // only used by the sender thread, apart from (re)initialization
+    private final Object receivedLogLock = new Object();
+    private final ReceivedLogReader receivedLogReader = new ReceivedLogReader();
+    private PieceReceivedLog receivedLog;
+    private int receivedLogPosition;
+
     private volatile int piecesSent;
     private volatile int piecesReceived;
     private volatile int pendingRequests;
     private volatile int maxPendingRequests;
+    private volatile RequestPipeline pipeline;
 
     public BitTorrentConnection(String poolName, IbisIdentifier me, 
             IbisIdentifier peer, boolean choking, boolean estimateDownloadRate, 
@@ -93,6 +105,7 @@ implements Config, BitTorrentUpcall, P2PConnection {
                 estimateUploadRate);
 
         asyncSender = createAsyncSender();
+        asyncSender.setWakeUpCommand(new WakeUpCheck());
 
         ThreadPool.createNew(asyncSender, "S " + me + " > " + peer);
     }
@@ -177,6 +190,7 @@ implements Config, BitTorrentUpcall, P2PConnection {
 
         piecesSent = 0;
         piecesReceived = 0;
+        pendingRequests = 0;
 
         resetChoking();
 
@@ -186,6 +200,36 @@ implements Config, BitTorrentUpcall, P2PConnection {
         peerStopped = false;
 
         piecePickTimer.reset();
+
+        if (pipeline == null) {
+            // created here, since subclasses can only tell whether the 
+            // link is global once they are constructed
+            if (isGlobalLink()) {
+                pipeline = new RequestPipeline(GLOBAL_MIN_PENDING_REQUESTS, 
+                        GLOBAL_MAX_PENDING_REQUESTS, MAX_PENDING_REQUESTS);
+            } else {
+                pipeline = new RequestPipeline(LOCAL_MIN_PENDING_REQUESTS, 
+                        LOCAL_MAX_PENDING_REQUESTS, MAX_PENDING_REQUESTS);
+            }
+        }
+
+        // keep what we learned about the link in earlier multicasts
+        pipeline.reset();
+
+        if (ADAPTIVE_PIPELINE) {
+            maxPendingRequests = pipeline.getDepth();
+        }
+
+        synchronized (receivedLogLock) {
+            if (receivedLog != null) {
+                receivedLog.removeReader(receivedLogReader);
+            }
+
+            receivedLog = this.admin.getPieceReceivedLog();
+            receivedLogPosition = 0;
+
+            receivedLog.addReader(receivedLogReader);
+        }
         
         communicator.init(storage);
     }
@@ -205,6 +249,9 @@ implements Config, BitTorrentUpcall, P2PConnection {
 
         startCommunication();
 
+        // tell our peer about the pieces received since we were initialized
+        asyncSender.wakeUp();
+
         // check if we are already done (as is the case with seed nodes)
         checkMeDone();
     }
@@ -224,10 +271,68 @@ implements Config, BitTorrentUpcall, P2PConnection {
         return admin.getPiecesReceived();
     }
 
+    /**
+     * Returns whether our peer is in another cluster, which determines the 
+     * limits of the adaptive request pipeline. BitTorrent does not know about
+     * clusters, so all its links are local.
+     */
+    protected boolean isGlobalLink() {
+        return false;
+    }
+
     public void cancelPiece(int pieceIndex) {
+        synchronized (this) {
+            if (pipeline.forget(pieceIndex)) {
+                pendingRequests--;
+            }
+        }
+
         asyncSender.enqueueCancel(pieceIndex);
     } 
 
+    /**
+     * Gives up the requests our peer did not answer in time, and lets the 
+     * admin request those pieces from other peers. Called by the sender thread
+     * whenever it wakes up.
+     */
+    protected void checkOverdueRequests() {
+        if (meDone || meStopped) {
+            return;
+        }
+
+        int[] overdue;
+        long nextDeadline;
+
+        synchronized (this) {
+            overdue = pipeline.removeOverdue();
+            pendingRequests -= overdue.length;
+            nextDeadline = pipeline.getEarliestDeadline();
+        }
+
+        if (nextDeadline != Long.MAX_VALUE) {
+            // check again when the next request becomes overdue
+            asyncSender.wakeUpAt(nextDeadline);
+        }
+
+        if (overdue.length == 0) {
+            return;
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("requests to " + peer + " timed out: " + 
+                    Arrays.toString(overdue));
+        }
+
+        // our peer may still answer later, but we do not count on it
+        for (int pieceIndex: overdue) {
+            asyncSender.enqueueCancel(pieceIndex);
+        }
+
+        admin.requestsTimedOut(peer, overdue);
+
+        requestMorePieces();
+    }
+
     public void stop() {
         // first, wait until we stopped
         if (logger.isDebugEnabled()) {
@@ -330,6 +435,7 @@ implements Config, BitTorrentUpcall, P2PConnection {
         if (!choking || !amChoked) {
             int[] pieceIndices = null;
             int backlog;
+            long deadline = Long.MAX_VALUE;
 
             synchronized (this) {
                 backlog = maxPendingRequests - pendingRequests;
@@ -339,10 +445,19 @@ implements Config, BitTorrentUpcall, P2PConnection {
                     pieceIndices = admin.requestDesiredPieceIndices(peer, backlog);
                     piecePickTimer.stop();
 
+                    pipeline.requested(pieceIndices, pendingRequests);
+
                     pendingRequests += pieceIndices.length;
+
+                    deadline = pipeline.getEarliestDeadline();
                 }
             }
 
+            if (deadline != Long.MAX_VALUE) {
+                // make sure the sender thread checks for overdue requests
+                asyncSender.wakeUpAt(deadline);
+            }
+
             if (backlog > 0) {
                 if (pieceIndices.length > 0) {
                     if (logger.isDebugEnabled()) {
@@ -422,6 +537,22 @@ implements Config, BitTorrentUpcall, P2PConnection {
         }
     }
 
+    /**
+     * Called by the admin when a piece our peer has can be requested again,
+     * because its request timed out. The admin already put the piece back in
+     * the interest.
+     */
+    public void pieceAvailableAgain(int pieceIndex) {
+        interested();
+        requestMorePieces();
+    }
+
+    public void receiveHaves(PieceIndexSet pieceIndices) {
+        // a batch of new pieces is handled just like the bitfield we got 
+        // initially: the pieces are added to what our peer has
+        receiveBitfield(pieceIndices);
+    }
+
     public void receiveBitfield(PieceIndexSet pieceIndices) {
         if (logger.isDebugEnabled()) {
             logger.debug(peer + " has pieces " + pieceIndices);
@@ -440,33 +571,51 @@ implements Config, BitTorrentUpcall, P2PConnection {
     }
 
     public void receiveRequest(int pieceIndex) {
+        receiveRequests(new int[] { pieceIndex });
+    }
+
+    public void receiveRequests(int[] pieceIndices) {
         if (logger.isDebugEnabled()) {
-            logger.debug(peer + " requested " + pieceIndex);
+            logger.debug(peer + " requested " + Arrays.toString(pieceIndices));
         }
 
-        if (admin.isPieceReceived(pieceIndex)) {
-            try {
-                Piece piece = storage.createPiece(pieceIndex);
-                sendPieceToPeer(piece);
-            } catch (IOException e) {
-                logger.fatal("Could not create piece " + pieceIndex);
-                logger.fatal(e);
+        List<Piece> pieces = new ArrayList<Piece>(pieceIndices.length);
+
+        for (int pieceIndex: pieceIndices) {
+            if (admin.isPieceReceived(pieceIndex)) {
+                try {
+                    pieces.add(storage.createPiece(pieceIndex));
+                } catch (IOException e) {
+                    logger.fatal("Could not create piece " + pieceIndex);
+                    logger.fatal(e);
+                }
+            } else {
+                logger.error("we do not have piece " + pieceIndex + " for " + 
+                        peer);
             }
-        } else {
-            logger.error("we do not have piece " + pieceIndex + " for " + peer);
+        }
+
+        if (!pieces.isEmpty()) {
+            sendPiecesToPeer(pieces);
         }
     }
 
-    protected void sendPieceToPeer(Piece piece) {
-        // send the piece
-        asyncSender.enqueuePiece(piece);
+    protected void sendPiecesToPeer(List<Piece> pieces) {
+        // send the pieces
+        asyncSender.enqueuePieces(pieces);
 
-        piecesSent++;
+        piecesSent += pieces.size();
 
         // keep track of the fact that peer will now (in the nearby future) 
-        // have this piece, since it will not inform us of the existence 
-        // with a have messsage
-        admin.addExistence(peer, piece.getIndex());
+        // have these pieces, since it will not inform us of their existence 
+        // with have messsages
+        PieceIndexSet indices = PieceIndexSetFactory.createEmptyPieceIndexSet();
+
+        for (Piece piece: pieces) {
+            indices.add(piece.getIndex());
+        }
+
+        admin.addExistence(peer, indices);
     }
 
     public void receivePiece(Piece piece) {
@@ -477,7 +626,17 @@ implements Config, BitTorrentUpcall, P2PConnection {
         admin.setPieceReceived(peer, piece);
 
         piecesReceived++;
-        pendingRequests--;
+
+        synchronized (this) {
+            // the request may have been cancelled or timed out already
+            if (pipeline.received(piece.getIndex())) {
+                pendingRequests--;
+            }
+        }
+
+        if (ADAPTIVE_PIPELINE) {
+            maxPendingRequests = pipeline.getDepth();
+        }
 
         if (!meDone) {
             requestMorePieces();
@@ -556,19 +715,47 @@ implements Config, BitTorrentUpcall, P2PConnection {
     public void setMeDone() {
         // not used by BitTorrent: each connection can check for itself whether
         // it's done, since this only depends on whether the last piece has 
-        // been received (for which each connection is notified through the 
-        // pieceReceived() call)
+        // been received (which each connection notices in 
+        // notifyPiecesReceived())
         throw new RuntimeException("not used by BitTorrent");
     }
 
-    public void pieceReceived(Object origin, int pieceIndex) {
-        // we received a new piece; notify our peer about it, unless our peer
-        // sent it to us (in that case it already knows that we have this 
-        // piece now)
+    /**
+     * Tells our peer about all pieces received since the last call, and checks
+     * whether we are done. Called by the sender thread when it is woken up
+     * after a piece was published in the log, so the connection that received
+     * a piece does not have to notify all other connections itself.
+     */
+    protected void notifyPiecesReceived() {
+        boolean allReceived;
+
+        synchronized (receivedLogLock) {
+            if (receivedLog == null || meStopped) {
+                return;
+            }
+
+            // check this first: when all pieces have been received, they 
+            // have all been published in the log as well
+            allReceived = !meDone && admin.areAllPieceReceived();
 
-        checkSendHave(origin, pieceIndex);
-        checkMeDone();
-        checkMeStop();
+            int end = receivedLog.getEnd(receivedLogPosition);
+
+            for (int i = receivedLogPosition; i < end; i++) {
+                // notify our peer, unless our peer sent the piece to us (in 
+                // that case it already knows that we have this piece now)
+                checkSendHave(receivedLog.getOrigin(i), 
+                        receivedLog.getPieceIndex(i));
+            }
+
+            receivedLogPosition = end;
+        }
+
+        // outside the log lock, since init() holds the connection lock while
+        // taking the log lock
+        if (allReceived) {
+            sendMeDone();
+            checkMeStop();
+        }
     }
 
     protected void checkSendHave(Object origin, int pieceIndex) {
@@ -636,15 +823,47 @@ implements Config, BitTorrentUpcall, P2PConnection {
         Config.statsLogger.info(prefix + "stats_peer " + peer + ": sent " + 
             piecesSent + " = " + percSent + "% rcvd " + piecesReceived + 
             " = " + percReceived + "% picking " + piecePickTimer.totalTime() +
-            " = " + percPickTime + "% " + getRateStats());
+            " = " + percPickTime + "% pipeline " + maxPendingRequests + " " +
+            getRateStats());
         
         asyncSender.printStats(prefix);
     }
 
     public void close() throws IOException {
+        synchronized (receivedLogLock) {
+            if (receivedLog != null) {
+                receivedLog.removeReader(receivedLogReader);
+            }
+        }
+
         asyncSender.enqueueClose();
     }
 
+    private class ReceivedLogReader implements PieceReceivedLog.Reader {
+
+        ReceivedLogReader() {
+            // do nothing
+        }
+
+        public void piecesPublished() {
+            asyncSender.wakeUp();
+        }
+
+    }
+
+    private class WakeUpCheck implements Command {
+
+        WakeUpCheck() {
+            // do nothing
+        }
+
+        public void execute() {
+            notifyPiecesReceived();
+            checkOverdueRequests();
+        }
+
+    }
+
     public boolean equals(Object o) {
         if (o == null) {
             return false;
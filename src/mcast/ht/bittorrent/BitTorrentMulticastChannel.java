@@ -42,7 +42,7 @@ public class BitTorrentMulticastChannel extends AbstractMulticastChannel
     }
     
     public BitTorrentMulticastChannel(Ibis ibis, Pool pool) throws IOException {
-        super(ibis.identifier());
+        super(ibis, pool);
         
         logger.info("creating BitTorrent multicast channel");
         
@@ -75,6 +75,7 @@ public class BitTorrentMulticastChannel extends AbstractMulticastChannel
         logger.info("- min. peers:            " + MIN_PEERS);
         logger.info("- max. pending requests: " + MAX_PENDING_REQUESTS);
         logger.info("- end game:              " + END_GAME);
+        logger.info("- request timeout:       " + REQUEST_TIMEOUT + " ms");
     }
     
     public static List<PortType> getPortTypes() {
@@ -89,7 +90,10 @@ public class BitTorrentMulticastChannel extends AbstractMulticastChannel
     protected void doMulticastStorage(Storage storage, 
             Set<IbisIdentifier> roots, PieceIndexSet possession) 
             throws IOException {
-        admin = new BitTorrentAdminImpl(storage.getPieceCount(), possession);
+        // reuse the administration of the previous multicast on this channel
+        admin = new BitTorrentAdminImpl(storage.getPieceCount(), possession,
+                createPieceSelectionPolicy(), (BitTorrentAdminImpl)admin);
+        admin.setPiecePriorities(getPiecePriorities());
 
         connectionPool.init(storage, admin);
         connectionPool.start();
@@ -18,10 +18,14 @@ public interface BitTorrentUpcall {
 
     void receiveHave(int pieceIndex);
 
+    void receiveHaves(PieceIndexSet pieceIndices);
+
     void receiveBitfield(PieceIndexSet pieceIndices);
 
     void receiveRequest(int pieceIndex);
 
+    void receiveRequests(int[] pieceIndices);
+
     void receivePiece(Piece piece);
 
     void receiveCancel(int pieceIndex);
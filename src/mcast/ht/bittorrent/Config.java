@@ -30,6 +30,30 @@ public interface Config {
         PROPERTY_PREFIX + "optimistic_unchoke_peers";
     static final String s_end_game = 
         PROPERTY_PREFIX + "end_game";
+    static final String s_end_game_max_requests = 
+        PROPERTY_PREFIX + "end_game_max_requests";
+    static final String s_end_game_max_duplicate_requests = 
+        PROPERTY_PREFIX + "end_game_max_duplicate_requests";
+    static final String s_have_batch_size = 
+        PROPERTY_PREFIX + "have_batch_size";
+    static final String s_have_batch_delay = 
+        PROPERTY_PREFIX + "have_batch_delay";
+    static final String s_request_batch = 
+        PROPERTY_PREFIX + "request_batch";
+    static final String s_adaptive_pipeline = 
+        PROPERTY_PREFIX + "adaptive_pipeline";
+    static final String s_local_min_pending_requests = 
+        PROPERTY_PREFIX + "local_min_pending_requests";
+    static final String s_local_max_pending_requests = 
+        PROPERTY_PREFIX + "local_max_pending_requests";
+    static final String s_global_min_pending_requests = 
+        PROPERTY_PREFIX + "global_min_pending_requests";
+    static final String s_global_max_pending_requests = 
+        PROPERTY_PREFIX + "global_max_pending_requests";
+    static final String s_request_timeout = 
+        PROPERTY_PREFIX + "request_timeout";
+    static final String s_request_timeout_min = 
+        PROPERTY_PREFIX + "request_timeout_min";
 
     static final ConfigProperties config = ConfigProperties.getInstance();
 
@@ -62,6 +86,57 @@ public interface Config {
     static final int MAX_PENDING_REQUESTS = 
         config.getIntProperty(s_max_pending_requests, 5);
 
+    /**
+     * Whether to size the pipeline of pending requests of each connection to 
+     * its measured bandwidth-delay product; MAX_PENDING_REQUESTS is then the 
+     * initial size
+     */
+    static final boolean ADAPTIVE_PIPELINE = 
+        config.getBooleanProperty(s_adaptive_pipeline, false);
+
+    /**
+     * Minimum number of pending requests on a connection to a peer in the 
+     * same cluster, with an adaptive pipeline
+     */
+    static final int LOCAL_MIN_PENDING_REQUESTS = 
+        config.getIntProperty(s_local_min_pending_requests, 2);
+
+    /**
+     * Maximum number of pending requests on a connection to a peer in the 
+     * same cluster, with an adaptive pipeline
+     */
+    static final int LOCAL_MAX_PENDING_REQUESTS = 
+        config.getIntProperty(s_local_max_pending_requests, 32);
+
+    /**
+     * Minimum number of pending requests on a connection to a peer in 
+     * another cluster, with an adaptive pipeline
+     */
+    static final int GLOBAL_MIN_PENDING_REQUESTS = 
+        config.getIntProperty(s_global_min_pending_requests, 4);
+
+    /**
+     * Maximum number of pending requests on a connection to a peer in 
+     * another cluster, with an adaptive pipeline
+     */
+    static final int GLOBAL_MAX_PENDING_REQUESTS = 
+        config.getIntProperty(s_global_max_pending_requests, 256);
+
+    /**
+     * Time, in milliseconds, after which a request that has not been answered
+     * is given up and the piece is requested from another peer; once the 
+     * round trip time and rate of a connection are known, its timeouts are 
+     * derived from those instead. 0 disables request timeouts
+     */
+    static final long REQUEST_TIMEOUT = 
+        config.getLongProperty(s_request_timeout, 0);
+
+    /**
+     * Minimum time, in milliseconds, before a request times out
+     */
+    static final long REQUEST_TIMEOUT_MIN = 
+        config.getLongProperty(s_request_timeout_min, 1000);
+
     /**
      * The lenght of the rolling time frame over which to estimate the 
      * downloading rate, in milliseconds
@@ -80,5 +155,46 @@ public interface Config {
      */
     static final boolean END_GAME = config.getBooleanProperty(s_end_game, false);
 
+    /**
+     * In end game mode, the maximum number of peers a piece is requested from
+     * at the same time
+     */
+    static final int END_GAME_MAX_REQUESTS = 
+        config.getIntProperty(s_end_game_max_requests, 2);
+
+    /**
+     * In end game mode, the maximum number of duplicate piece requests 
+     * outstanding at the same time, over all peers. Each one can bring in at 
+     * most one piece we already received from another peer.
+     */
+    static final int END_GAME_MAX_DUPLICATE_REQUESTS = 
+        config.getIntProperty(s_end_game_max_duplicate_requests, 32);
+
+    /**
+     * Maximum number of new pieces to announce in one message; 1 announces 
+     * every piece in a separate HAVE message. Larger values send HAVE_BATCH 
+     * messages, which nodes of older versions cannot parse, so all nodes 
+     * must support them.
+     */
+    static final int HAVE_BATCH_SIZE = 
+        config.getIntProperty(s_have_batch_size, 1);
+
+    /**
+     * Maximum time, in milliseconds, a new piece waits to be announced in a
+     * batch with other new pieces; with 0, only pieces received since the 
+     * previous announcement are batched
+     */
+    static final long HAVE_BATCH_DELAY = 
+        config.getLongProperty(s_have_batch_delay, 0);
+
+    /**
+     * Whether to send all requests of one pipeline refill in a single 
+     * REQUEST_BATCH message instead of a REQUEST message per piece. Nodes of 
+     * older versions cannot parse REQUEST_BATCH messages, so all nodes must 
+     * support them.
+     */
+    static final boolean REQUEST_BATCH = 
+        config.getBooleanProperty(s_request_batch, false);
+
 }
 
@@ -0,0 +1,335 @@
+package mcast.ht.bittorrent;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Determines how many requests a connection keeps pending at its peer. To
+ * keep the link busy, the pipeline must hold at least the bandwidth-delay
+ * product of the connection: the rate at which pieces arrive times the round
+ * trip time of a request. The depth is set to a multiple of that product, so
+ * it keeps growing as long as a deeper pipeline results in a higher rate,
+ * bounded by a floor and a ceiling.
+ *
+ * The round trip time is measured on the first request of every refill of
+ * the pipeline, as long as no earlier measurement is in progress. A request 
+ * that waits behind earlier requests at the peer measures too long a time,
+ * so the smallest measurement is used: it comes from the refills that found
+ * the pipeline (nearly) empty, such as the first one.
+ *
+ * The pipeline also keeps a deadline for every pending request. A request
+ * should be answered within one round trip plus the time it takes to receive
+ * the pieces requested before it; a request that takes a multiple of that
+ * has probably been lost or is stuck at a slow peer, and is overdue.
+ *
+ * Our peer answers requests in the order in which they were sent, so the
+ * pending requests are kept in that order in a ring, and a request is never
+ * due before one sent earlier. Only the oldest request has to be checked for
+ * its deadline, and an answered request is usually found at the head.
+ */
+class RequestPipeline implements Config {
+
+    private static final Logger logger = Logger.getLogger(RequestPipeline.class);
+
+    // the depth relative to the bandwidth-delay product; larger than 1, so a
+    // pipeline that limits the rate gets deeper
+    private static final double GAIN = 2.0;
+
+    // the time a request may take relative to the time it should take
+    private static final int TIMEOUT_FACTOR = 4;
+
+    private static final int NO_PROBE = -1;
+
+    private static final int[] NONE = new int[0];
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // marks a request in the ring that was answered or forgotten
+    private static final int HOLE = -1;
+
+    private final int minDepth;
+    private final int maxDepth;
+
+    // the rate at which pieces arrive, in pieces per nanosecond
+    private final RateEstimate pieceRate;
+
+    private long minRoundTripNanos;
+    private int probeIndex;
+    private long probeSent;
+    private int depth;
+
+    // the pending requests and their deadlines, in System.nanoTime(), from 
+    // the oldest one at head; the capacity is a power of two
+    private int[] pieces;
+    private long[] deadlines;
+    private int head;
+    private int size;
+
+    /**
+     * @param minDepth
+     *                the minimum number of pending requests
+     * @param maxDepth
+     *                the maximum number of pending requests
+     * @param initialDepth
+     *                the number of pending requests until the first round trip
+     *                time has been measured
+     */
+    RequestPipeline(int minDepth, int maxDepth, int initialDepth) {
+        if (minDepth < 1 || maxDepth < minDepth) {
+            throw new IllegalArgumentException("illegal pipeline depth " +
+                    "limits: " + minDepth + " to " + maxDepth);
+        }
+
+        this.minDepth = minDepth;
+        this.maxDepth = maxDepth;
+
+        pieceRate = new RateEstimate(RATE_ESTIMATE_PERIOD);
+
+        minRoundTripNanos = Long.MAX_VALUE;
+        probeIndex = NO_PROBE;
+        probeSent = 0;
+        depth = clamp(initialDepth);
+
+        pieces = new int[INITIAL_CAPACITY];
+        deadlines = new long[INITIAL_CAPACITY];
+        head = 0;
+        size = 0;
+    }
+
+    private int clamp(int d) {
+        return Math.max(minDepth, Math.min(maxDepth, d));
+    }
+
+    /**
+     * Forgets the pending requests, e.g. because a new multicast starts.
+     */
+    synchronized void reset() {
+        probeIndex = NO_PROBE;
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Registers that the given pieces were requested.
+     *
+     * @param pending
+     *                the number of requests pending before these ones
+     */
+    synchronized void requested(int[] pieceIndices, int pending) {
+        if (pieceIndices.length > 0 && probeIndex == NO_PROBE) {
+            // measure the round trip time of the first of these requests; it
+            // waits behind the pending ones, if any
+            probeIndex = pieceIndices[0];
+            probeSent = System.nanoTime();
+        }
+
+        long now = System.nanoTime();
+        long last = size == 0 ? Long.MIN_VALUE : deadlines[slot(size - 1)];
+
+        for (int i = 0; i < pieceIndices.length; i++) {
+            // not due before the requests sent earlier
+            last = Math.max(last, now + getTimeoutNanos(pending + i));
+
+            append(pieceIndices[i], last);
+        }
+    }
+
+    private int slot(int i) {
+        return (head + i) & (pieces.length - 1);
+    }
+
+    private void append(int pieceIndex, long deadline) {
+        if (size == pieces.length) {
+            int[] newPieces = new int[pieces.length << 1];
+            long[] newDeadlines = new long[deadlines.length << 1];
+
+            for (int i = 0; i < size; i++) {
+                newPieces[i] = pieces[slot(i)];
+                newDeadlines[i] = deadlines[slot(i)];
+            }
+
+            pieces = newPieces;
+            deadlines = newDeadlines;
+            head = 0;
+        }
+
+        pieces[slot(size)] = pieceIndex;
+        deadlines[slot(size)] = deadline;
+        size++;
+    }
+
+    /**
+     * Turns the given pending request into a hole, searching from the oldest
+     * request.
+     *
+     * @return true if the request was pending
+     */
+    private boolean removePending(int pieceIndex) {
+        boolean result = false;
+
+        for (int i = 0; i < size; i++) {
+            if (pieces[slot(i)] == pieceIndex) {
+                pieces[slot(i)] = HOLE;
+                result = true;
+                break;
+            }
+        }
+
+        dropHoles();
+
+        return result;
+    }
+
+    /**
+     * Drops the holes at the head, so the head is always a pending request.
+     */
+    private void dropHoles() {
+        while (size > 0 && pieces[head] == HOLE) {
+            head = slot(1);
+            size--;
+        }
+    }
+
+    /**
+     * Returns the time a request may take when the given number of requests
+     * is pending before it.
+     */
+    private long getTimeoutNanos(int ahead) {
+        if (REQUEST_TIMEOUT <= 0) {
+            return Long.MAX_VALUE / 2;
+        }
+
+        double rate = pieceRate.getRatePerNanosec();
+
+        if (minRoundTripNanos == Long.MAX_VALUE || rate <= 0) {
+            // nothing measured yet
+            return REQUEST_TIMEOUT * 1000000L;
+        }
+
+        double expected = minRoundTripNanos + (ahead + 1) / rate;
+
+        return Math.max(REQUEST_TIMEOUT_MIN * 1000000L,
+                (long)(TIMEOUT_FACTOR * expected));
+    }
+
+    /**
+     * Forgets a pending request, e.g. because it was cancelled.
+     *
+     * @return true if the request was pending
+     */
+    synchronized boolean forget(int pieceIndex) {
+        if (pieceIndex == probeIndex) {
+            probeIndex = NO_PROBE;
+        }
+
+        return removePending(pieceIndex);
+    }
+
+    /**
+     * Removes the requests whose deadline has passed.
+     *
+     * @return the pieces of the overdue requests
+     */
+    synchronized int[] removeOverdue() {
+        if (REQUEST_TIMEOUT <= 0) {
+            return NONE;
+        }
+
+        long now = System.nanoTime();
+
+        // the deadlines increase from the head, so only the requests up to 
+        // the first one that is not due yet have to be looked at
+        int due = 0;
+        int count = 0;
+
+        while (due < size && deadlines[slot(due)] <= now) {
+            if (pieces[slot(due)] != HOLE) {
+                count++;
+            }
+            due++;
+        }
+
+        if (due == 0) {
+            return NONE;
+        }
+
+        int[] result = new int[count];
+        count = 0;
+
+        for (int i = 0; i < due; i++) {
+            int pieceIndex = pieces[slot(i)];
+
+            if (pieceIndex != HOLE) {
+                result[count++] = pieceIndex;
+
+                if (pieceIndex == probeIndex) {
+                    // a lost request does not tell the round trip time
+                    probeIndex = NO_PROBE;
+                }
+            }
+        }
+
+        head = slot(due);
+        size -= due;
+
+        dropHoles();
+
+        return result;
+    }
+
+    /**
+     * Returns the deadline of the pending request that is due first, in 
+     * System.nanoTime(), or Long.MAX_VALUE if no request is pending.
+     */
+    synchronized long getEarliestDeadline() {
+        if (REQUEST_TIMEOUT <= 0 || size == 0) {
+            return Long.MAX_VALUE;
+        }
+
+        // holes never stay at the head
+        return deadlines[head];
+    }
+
+    /**
+     * Registers that a piece was received, and adjusts the depth.
+     *
+     * @return true if the piece was requested and its request was still
+     *         pending
+     */
+    synchronized boolean received(int pieceIndex) {
+        boolean pending = removePending(pieceIndex);
+
+        pieceRate.updateRate(1);
+
+        if (pieceIndex == probeIndex) {
+            long roundTrip = System.nanoTime() - probeSent;
+
+            probeIndex = NO_PROBE;
+
+            if (roundTrip < minRoundTripNanos) {
+                minRoundTripNanos = roundTrip;
+            }
+        }
+
+        if (minRoundTripNanos == Long.MAX_VALUE) {
+            // no round trip time measured yet
+            return pending;
+        }
+
+        double product = pieceRate.getRatePerNanosec() * minRoundTripNanos;
+        int newDepth = clamp((int)Math.ceil(GAIN * product));
+
+        if (newDepth != depth && logger.isDebugEnabled()) {
+            logger.debug("pipeline depth " + depth + " -> " + newDepth +
+                    " (round trip " + minRoundTripNanos / 1000 + " usec)");
+        }
+
+        depth = newDepth;
+
+        return pending;
+    }
+
+    synchronized int getDepth() {
+        return depth;
+    }
+
+}
@@ -64,6 +64,11 @@ public class MobConnection extends BitTorrentConnection implements Config {
         }
     }
 
+    @Override
+    protected boolean isGlobalLink() {
+        return !peerCollective.equals(myCollective);
+    }
+
     @Override
     protected void checkSendHave(Object origin, int pieceIndex) {
         // we received a new piece; notify our peer about it,
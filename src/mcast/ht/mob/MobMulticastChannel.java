@@ -43,7 +43,7 @@ implements Config
     }
     
     public MobMulticastChannel(Ibis ibis, Pool pool) throws IOException { 
-		super(ibis.identifier());
+		super(ibis, pool);
 
         this.pool = pool;
 		
@@ -110,6 +110,7 @@ implements Config
 		logger.info("- global min. peers:     " + GLOBAL_MIN_PEERS);
 		logger.info("- max. pending requests: " + mcast.ht.bittorrent.Config.MAX_PENDING_REQUESTS);
 		logger.info("- end game:              "	+ mcast.ht.bittorrent.Config.END_GAME);
+		logger.info("- request timeout:       "	+ mcast.ht.bittorrent.Config.REQUEST_TIMEOUT + " ms");
 	}
 
     public static List<PortType> getPortTypes() {
@@ -139,6 +140,7 @@ implements Config
 	throws IOException
 	{
 		admin = createAdmin(storage, possession);
+		admin.setPiecePriorities(getPiecePriorities());
 
 		if (localConnectionPool != null) {
 			localConnectionPool.init(storage, admin);
@@ -160,7 +162,15 @@ implements Config
 	protected BitTorrentAdmin createAdmin(Storage storage,
 			PieceIndexSet possession)
 	{
-		return new BitTorrentAdminImpl(storage.getPieceCount(), possession);
+		// reuse the administration of the previous multicast on this channel
+		BitTorrentAdminImpl recycled = null;
+
+		if (admin instanceof BitTorrentAdminImpl) {
+			recycled = (BitTorrentAdminImpl)admin;
+		}
+
+		return new BitTorrentAdminImpl(storage.getPieceCount(), possession,
+		        createPieceSelectionPolicy(), recycled);
 	}
 
 	@Override
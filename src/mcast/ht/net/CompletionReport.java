@@ -0,0 +1,65 @@
+package mcast.ht.net;
+
+import ibis.ipl.Ibis;
+import ibis.ipl.IbisIdentifier;
+import ibis.ipl.Registry;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Lets nodes report that they completed something (e.g. made their data 
+ * durable), and lets other nodes wait until a set of nodes has reported. 
+ * Reports are ballots in the Ibis registry, like in a Barrier, but a node 
+ * that reports does not have to wait for the others.
+ */
+public class CompletionReport {
+
+    private static Logger logger = Logger.getLogger(CompletionReport.class);
+
+    private String name;
+    private int count;
+
+    public CompletionReport(String name) {
+        this.name = name;
+        count = 0;
+    }
+
+    private String createBallot(IbisIdentifier id) {
+        return name + "-" + id.name() + "-" + count;
+    }
+
+    /**
+     * Reports completion of this node and, if 'wait' is true, waits until all 
+     * given ibises reported completion too. All nodes must call this method 
+     * the same number of times.
+     */
+    public synchronized void report(Collection<IbisIdentifier> ibises, 
+            Ibis ibis, boolean wait) throws IOException {
+
+        IbisIdentifier me = ibis.identifier();
+        Registry r = ibis.registry();
+
+        logger.debug("reporting completion");
+        r.elect(createBallot(me));
+
+        if (wait) {
+            for (IbisIdentifier id: ibises) {
+                if (!id.equals(me)) {
+                    String idBallot = createBallot(id);
+
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("waiting for " + idBallot);
+                    }
+
+                    r.getElectionResult(idBallot);
+                }
+            }
+        }
+
+        count++;
+    }
+
+}
@@ -6,6 +6,8 @@ import mcast.ht.bittorrent.BitTorrentAdmin;
 
 public interface RobberAdmin extends BitTorrentAdmin {
 
+    public boolean isLocalPeer(IbisIdentifier peer);
+
     public PieceIndexSet getDesire(IbisIdentifier peer);
 
     public boolean haveWorkForLocalPeer(IbisIdentifier peer);
@@ -14,6 +14,7 @@ import java.util.Set;
 
 import mcast.ht.admin.PieceIndexSet;
 import mcast.ht.admin.PieceIndexSetFactory;
+import mcast.ht.admin.PieceSelectionPolicy;
 import mcast.ht.admin.SynchronizedPieceIndexSet;
 import mcast.ht.bittorrent.BitTorrentAdminImpl;
 import mcast.ht.net.P2PConnection;
@@ -37,6 +38,14 @@ implements RobberAdmin, Config
     private final List<IbisIdentifier> localLabourForce;
     private final PieceIndexSet pendingPieces;
 
+    // the pending pieces requested from global peers; in end game mode, only
+    // these may be requested again from other global peers
+    private final PieceIndexSet globalPendingPieces;
+
+    // excludes stealing work, giving work and being robbed; the interest 
+    // itself can no longer be used for this, since it need not lock itself
+    private final Object stealLock;
+
     private int stolenFromMe;
     private int stolenByMe;
     private int stealRequestedCount;
@@ -46,8 +55,26 @@ implements RobberAdmin, Config
 
     public RobberAdminImpl(int totalPieces, PieceIndexSet possession,
             Set<IbisIdentifier> localPeers, PieceIndexSet work, 
-            boolean doStealing) {
-        super(totalPieces, possession, possession.not(totalPieces), work);
+            boolean doStealing, PieceSelectionPolicy policy) {
+        this(totalPieces, possession, localPeers, work, doStealing, policy, 
+                null);
+    }
+
+    /**
+     * Creates an admin that reuses the piece administration of the admin of
+     * an earlier multicast on the same channel, as far as it can hold the 
+     * pieces of this one.
+     *
+     * @param recycled
+     *                the admin of the previous multicast, which must not be 
+     *                used anymore, or null
+     */
+    public RobberAdminImpl(int totalPieces, PieceIndexSet possession,
+            Set<IbisIdentifier> localPeers, PieceIndexSet work, 
+            boolean doStealing, PieceSelectionPolicy policy, 
+            RobberAdminImpl recycled) {
+        super(totalPieces, possession, possession.not(totalPieces), work, 
+                policy, recycled);
 
         this.localPeers = localPeers;
         this.doStealing = doStealing;
@@ -63,8 +90,19 @@ implements RobberAdmin, Config
         localLabourForce = Collections.synchronizedList(
                 new LinkedList<IbisIdentifier>());
 
-        pendingPieces = new SynchronizedPieceIndexSet(
-                PieceIndexSetFactory.createEmptyPieceIndexSet());
+        if (recycled == null) {
+            pendingPieces = new SynchronizedPieceIndexSet(
+                    PieceIndexSetFactory.createEmptyPieceIndexSet());
+            globalPendingPieces = new SynchronizedPieceIndexSet(
+                    PieceIndexSetFactory.createEmptyPieceIndexSet());
+        } else {
+            pendingPieces = recycled.pendingPieces;
+            pendingPieces.clear();
+            globalPendingPieces = recycled.globalPendingPieces;
+            globalPendingPieces.clear();
+        }
+
+        stealLock = new Object();
 
         stolenFromMe = 0;
         stolenByMe = 0;
@@ -85,15 +123,14 @@ implements RobberAdmin, Config
         }
     }
 
+    public boolean isLocalPeer(IbisIdentifier peer) {
+        return localPeers.contains(peer);
+    }
+
     public PieceIndexSet getDesire(IbisIdentifier peer) {
         if (localPeers.contains(peer)) {
             // from local peers we desire both gold and silver pieces
-            synchronized(interest) {
-                PieceIndexSet gold = interest.getGold();
-                PieceIndexSet silver = interest.getSilver();
-
-                return gold.or(silver);
-            }
+            return interest.getGoldOrSilver();
         } else {
             // from global peers, we desire only gold pieces
             return interest.getGold();
@@ -140,8 +177,7 @@ implements RobberAdmin, Config
                 return;
             }
 
-            // hmm, I'm not sure why we lock the interest here...
-            synchronized (interest) {
+            synchronized (stealLock) {
                 // time to steal new work from our local peers
                 stealingWork = true;
 
@@ -172,7 +208,7 @@ implements RobberAdmin, Config
         // revaluate all pieces in the booty in which we are still interested
         PieceIndexSet newGold = null;
         
-        synchronized(interest) {
+        synchronized(stealLock) {
             allowStealing = false;
 
             interest.revaluate(booty);
@@ -213,7 +249,7 @@ implements RobberAdmin, Config
     }
 
     public PieceIndexSet stealWork(double fraction) {
-        synchronized(interest) {
+        synchronized(stealLock) {
             if (!allowStealing) {
                 // we are executing the new work sequence, and do not allow
                 // local peers stealing our work in the meantime
@@ -277,21 +313,54 @@ implements RobberAdmin, Config
 
     @Override
     public int[] requestDesiredPieceIndices(Object peer, int amount) {
-        // XXX since we do not use the BitTorrent code for the piece picking,
-        // we cannot use end game mode in Robber. To do that, the end game
-        // code should be separated from the BitTorrentAdminImpl
-        int[] result = null;
+        boolean isLocalPeer = localPeers.contains(peer);
 
-        if (localPeers.contains(peer)) {
+        // urgent pieces first, under the same rules as all others
+        int[] result = removeUrgent(peer, amount, isLocalPeer);
+
+        if (isLocalPeer) {
             // we desire both gold and silver pieces from our local peers
-            result = interest.removeGoldOrSilver(peer, amount);
+            result = concat(result, 
+                    interest.removeGoldOrSilver(peer, amount - result.length));
         } else {
             // we desire only gold pieces from our global peers
-            result = interest.removeGold(peer, amount);
+            result = concat(result, 
+                    interest.removeGold(peer, amount - result.length));
         }
 
         for (int i: result) {
             pendingPieces.add(i);
+
+            if (!isLocalPeer) {
+                globalPendingPieces.add(i);
+            }
+        }
+
+        if (endGame != null) {
+            endGame.requested(peer, result);
+        }
+
+        if (END_GAME) {
+            if (result.length < amount && 
+                    pendingPieces.size() + piecesReceived.size() >= totalPieces) {
+                // all pieces are either pending or received, so there is 
+                // nothing left to request or steal; request pending pieces 
+                // again. Local peers may get any pending piece, global peers 
+                // only the ones that are already fetched from another cluster, 
+                // so end game mode never adds wide-area traffic for pieces 
+                // our own cluster will deliver.
+                endGame.start();
+
+                PieceIndexSet has = interest.getHave(peer);
+
+                if (isLocalPeer) {
+                    result = endGame.requestDuplicates(peer, has, result, 
+                            amount);
+                } else {
+                    result = endGame.requestDuplicates(peer, has, result, 
+                            amount, globalPendingPieces.deepCopy());
+                }
+            }
         }
 
         checkWorkAvailable();
@@ -302,10 +371,19 @@ implements RobberAdmin, Config
     @Override
     public void setPieceReceived(IbisIdentifier origin, Piece piece) {
         pendingPieces.remove(piece.getIndex());
+        globalPendingPieces.remove(piece.getIndex());
 
         super.setPieceReceived(origin, piece);
     }
 
+    @Override
+    protected void pieceRestored(int pieceIndex) {
+        // the piece is no longer pending; it is requested again like any 
+        // other piece we are interested in
+        pendingPieces.remove(pieceIndex);
+        globalPendingPieces.remove(pieceIndex);
+    }
+
     @Override
     public void printStats(String prefix)
     throws IOException
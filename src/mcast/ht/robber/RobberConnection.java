@@ -1,6 +1,9 @@
 package mcast.ht.robber;
 
 import ibis.ipl.IbisIdentifier;
+
+import java.util.List;
+
 import mcast.ht.admin.P2PAdmin;
 import mcast.ht.admin.PieceIndexSet;
 import mcast.ht.admin.PieceIndexSetFactory;
@@ -54,6 +57,11 @@ implements RobberUpcall, Config {
         peerDesire.clear();
     }
 
+    @Override
+    protected boolean isGlobalLink() {
+        return !robberAdmin.isLocalPeer(peer);
+    }
+
     @Override
     public void startCommunication() {
         PieceIndexSet desire = robberAdmin.getDesire(peer);
@@ -138,10 +146,12 @@ implements RobberUpcall, Config {
     }
 
     @Override
-    protected void sendPieceToPeer(Piece piece) {
-        super.sendPieceToPeer(piece);
+    protected void sendPiecesToPeer(List<Piece> pieces) {
+        super.sendPiecesToPeer(pieces);
 
-        peerDesire.remove(piece.getIndex());
+        for (Piece piece: pieces) {
+            peerDesire.remove(piece.getIndex());
+        }
     }
 
     public void receiveSteal() {
@@ -50,7 +50,7 @@ public class RobberMulticastChannel extends AbstractMulticastChannel
     }
     
     public RobberMulticastChannel(Ibis ibis, Pool pool) throws IOException { 
-        super(ibis.identifier());
+        super(ibis, pool);
 
         logger.info("creating Robber multicast channel " + pool.getName());
 
@@ -151,6 +151,10 @@ public class RobberMulticastChannel extends AbstractMulticastChannel
         logger.info("- global min. peers:     " + GLOBAL_MIN_PEERS);
         logger.info("- max. pending requests: " + 
                 mcast.ht.bittorrent.Config.MAX_PENDING_REQUESTS);
+        logger.info("- end game:              " + 
+                mcast.ht.bittorrent.Config.END_GAME);
+        logger.info("- request timeout:       " + 
+                mcast.ht.bittorrent.Config.REQUEST_TIMEOUT + " ms");
     }
 
     private DirectedGraph<Collective> createCollectiveGraph(
@@ -218,8 +222,11 @@ public class RobberMulticastChannel extends AbstractMulticastChannel
         // use a set of members instead of a list, since set.contains() is
         // faster than list.contains()
         Set<IbisIdentifier> myMemberSet = new HashSet<IbisIdentifier>(myMembers);
+        // reuse the administration of the previous multicast on this channel
         admin = new RobberAdminImpl(storage.getPieceCount(), possession,
-                myMemberSet, work, doStealing);
+                myMemberSet, work, doStealing, createPieceSelectionPolicy(),
+                (RobberAdminImpl)admin);
+        admin.setPiecePriorities(getPiecePriorities());
 
         logger.debug("initializing connections");
         if (localConnectionPool != null) {
@@ -0,0 +1,233 @@
+package mcast.ht.storage;
+
+import ibis.ipl.ReadMessage;
+import ibis.ipl.WriteMessage;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Base class of storages that hold primitive arrays. The data consists of one
+ * or more stripes (arrays) of arbitrary length, so both a single array, an 
+ * array of arrays (e.g. the rows of a matrix) and data that is too large for 
+ * one Java array can be multicast. Pieces never cross stripe boundaries; the 
+ * last piece of each stripe can be shorter than the others. Subclasses read 
+ * and write the elements of a piece with the primitive array methods of the 
+ * Ibis messages, so no conversion to bytes takes place. Only the digest 
+ * converts the elements, one piece at a time.
+ */
+public abstract class AbstractArrayStorage implements VerifiableStorage {
+
+    private final int[] stripeLengths;
+    private final int[] firstPieces;
+    protected final int pieceLength;
+    protected final int elementSize;
+
+    /**
+     * @param stripeLengths
+     *                the number of elements in each stripe
+     * @param pieceSize
+     *                the preferred piece size in bytes
+     * @param elementSize
+     *                the size of one element in bytes
+     */
+    protected AbstractArrayStorage(int[] stripeLengths, int pieceSize, 
+            int elementSize) {
+        if (pieceSize <= 0) {
+            throw new IllegalArgumentException("piece size must be positive (" 
+                    + pieceSize + ")");
+        }
+
+        this.stripeLengths = stripeLengths;
+        this.elementSize = elementSize;
+
+        pieceLength = Math.max(1, pieceSize / elementSize);
+
+        // firstPieces[i] is the index of the first piece in stripe i; the 
+        // extra last element is the total number of pieces
+        firstPieces = new int[stripeLengths.length + 1];
+
+        long pieces = 0;
+        for (int i = 0; i < stripeLengths.length; i++) {
+            firstPieces[i] = (int)pieces;
+            pieces += (stripeLengths[i] + pieceLength - 1) / pieceLength;
+        }
+
+        if (pieces > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many pieces (" + pieces + 
+                    "); use a larger piece size");
+        }
+
+        firstPieces[stripeLengths.length] = (int)pieces;
+    }
+
+    protected static int[] getLengths(Object[] stripes) {
+        if (stripes == null) {
+            throw new NullPointerException("data cannot be null");
+        }
+
+        int[] result = new int[stripes.length];
+
+        for (int i = 0; i < stripes.length; i++) {
+            result[i] = Array.getLength(stripes[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates the stripes (arrays of the given primitive type) needed to hold
+     * the given number of elements in stripes of at most maxStripeLength 
+     * elements.
+     */
+    protected static Object[] createStripes(Class<?> elementType, long length,
+            int maxStripeLength) {
+        int[] lengths = getStripeLengths(length, maxStripeLength);
+
+        Object[] result = (Object[])Array.newInstance(elementType, 
+                lengths.length, 0);
+
+        for (int i = 0; i < lengths.length; i++) {
+            result[i] = Array.newInstance(elementType, lengths[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the lengths of the stripes needed to hold the given number of 
+     * elements in stripes of at most maxStripeLength elements.
+     */
+    protected static int[] getStripeLengths(long length, int maxStripeLength) {
+        if (maxStripeLength <= 0) {
+            throw new IllegalArgumentException("max. stripe length must be " +
+                    "positive (" + maxStripeLength + ")");
+        }
+
+        int stripes = (int)((length + maxStripeLength - 1) / maxStripeLength);
+        int[] result = new int[stripes];
+
+        for (int i = 0; i < stripes; i++) {
+            result[i] = (int)Math.min(maxStripeLength, 
+                    length - ((long)i * maxStripeLength));
+        }
+
+        return result;
+    }
+
+    public void close() {
+        // do nothing
+    }
+
+    public int getPieceCount() {
+        return firstPieces[stripeLengths.length];
+    }
+
+    public Piece createPiece(int index) {
+        return PieceFactory.createPiece(index);
+    }
+
+    /**
+     * Returns the stripe that contains the given piece
+     */
+    private int getStripe(int index) throws IOException {
+        if (index < 0 || index >= getPieceCount()) {
+            throw new IOException("piece " + index + " is not part of this " +
+                    "storage (which contains " + getPieceCount() + " pieces)");
+        }
+
+        // find the last stripe that starts at or before the piece; empty
+        // stripes start at the same piece as their successor
+        int low = 0;
+        int high = stripeLengths.length - 1;
+
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+
+            if (firstPieces[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return low;
+    }
+
+    public Piece readPiece(ReadMessage m) throws IOException {
+        int index = m.readInt();
+
+        int stripe = getStripe(index);
+        int offset = (index - firstPieces[stripe]) * pieceLength;
+        int length = Math.min(pieceLength, stripeLengths[stripe] - offset);
+
+        readElements(m, stripe, offset, length);
+
+        return PieceFactory.createPiece(index);
+    }
+
+    public void writePiece(Piece piece, WriteMessage m) throws IOException {
+        int index = piece.getIndex();
+
+        int stripe = getStripe(index);
+        int offset = (index - firstPieces[stripe]) * pieceLength;
+        int length = Math.min(pieceLength, stripeLengths[stripe] - offset);
+
+        m.writeInt(index);
+        writeElements(m, stripe, offset, length);
+    }
+
+    public byte[] getDigest() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+
+            for (int i = 0; i < stripeLengths.length; i++) {
+                updateDigest(digest, i);
+            }
+
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("no such digest algorithm: MD5", e);
+        }
+    }
+
+    private void updateDigest(MessageDigest digest, int stripe) {
+        ByteBuffer buf = ByteBuffer.allocate(pieceLength * elementSize);
+
+        int stripeLength = stripeLengths[stripe];
+
+        for (int offset = 0; offset < stripeLength; offset += pieceLength) {
+            int length = Math.min(pieceLength, stripeLength - offset);
+
+            buf.clear();
+            putElements(buf, stripe, offset, length);
+
+            digest.update(buf.array(), 0, length * elementSize);
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < stripeLengths.length; i++) {
+            clearStripe(i);
+        }
+    }
+
+    protected abstract void readElements(ReadMessage m, int stripe, 
+            int offset, int length) throws IOException;
+
+    protected abstract void writeElements(WriteMessage m, int stripe, 
+            int offset, int length) throws IOException;
+
+    /**
+     * Puts elements of a stripe into a buffer (in big-endian byte order), 
+     * starting at the beginning of the buffer.
+     */
+    protected abstract void putElements(ByteBuffer buf, int stripe, 
+            int offset, int length);
+
+    protected abstract void clearStripe(int stripe);
+
+}
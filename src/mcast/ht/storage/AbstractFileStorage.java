@@ -7,8 +7,13 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
@@ -16,7 +21,7 @@ import org.apache.log4j.Logger;
  * @author mathijs
  */
 public abstract class AbstractFileStorage 
-implements VerifiableStorage, ConsecutivePiecesWriter {
+implements VerifiableStorage, DurableStorage, ConsecutivePiecesWriter {
 
     protected static Logger logger = Logger.getLogger(RandomAccessFileStorage.class);
 
@@ -27,6 +32,10 @@ implements VerifiableStorage, ConsecutivePiecesWriter {
     protected final WriteCache writeCache;
     protected volatile int piecesReceived;
 
+    // directories whose entries changed because the file or one of its
+    // parents was created; they are forced on the next sync
+    private final List<File> dirtyDirs;
+
     public AbstractFileStorage(File file, int pieceSize, boolean readOnly) 
     throws FileNotFoundException, IOException 
     {
@@ -34,16 +43,37 @@ implements VerifiableStorage, ConsecutivePiecesWriter {
         this.pieceSize = pieceSize;
         this.readOnly = readOnly;
 
+        dirtyDirs = new ArrayList<File>();
+
         if (!file.exists()) {
             // assumption: we are not a seed node
             // create the empty file and its parent directories
 
-            File parentDir = file.getParentFile();
+            File absolute = file.getAbsoluteFile();
+            File created = absolute;
+
+            while (created.getParentFile() != null && 
+                    !created.getParentFile().exists()) {
+                created = created.getParentFile();
+            }
+
+            File parentDir = absolute.getParentFile();
             if (parentDir != null) {
                 parentDir.mkdirs();
             }
 
             file.createNewFile();
+
+            // the directory holding the topmost new entry, and every newly
+            // created directory below it
+            for (File dir = absolute.getParentFile(); dir != null; 
+                    dir = dir.getParentFile()) {
+                dirtyDirs.add(dir);
+
+                if (dir.equals(created.getParentFile())) {
+                    break;
+                }
+            }
         }
 
         writeCache = new WriteCache(this);
@@ -63,6 +93,100 @@ implements VerifiableStorage, ConsecutivePiecesWriter {
         writeCache.clear();
     }
 
+    public void sync() throws IOException {
+        if (readOnly) {
+            return;
+        }
+
+        writeCache.flush();
+
+        OpenRandomAccessFile f = OpenRandomAccessFileCache.getInstance()
+            .acquireRandomAccessFile(file, readOnly);
+
+        try {
+            RandomAccessFile raf = f.getRandomAccessFile();
+
+            synchronized(raf) {
+                raf.getFD().sync();
+            }
+        } finally {
+            f.release();
+        }
+
+        syncDirectories();
+    }
+
+    /**
+     * Forces the directories in which the file or its parents were created,
+     * so the new entries survive a crash. Directories can only be forced
+     * through FileChannel.open(), which does not exist before Java 7 and
+     * cannot open directories on every platform (e.g. Windows); there the
+     * entries are left to the file system.
+     */
+    private void syncDirectories() throws IOException {
+        synchronized (dirtyDirs) {
+            while (!dirtyDirs.isEmpty()) {
+                File dir = dirtyDirs.get(0);
+
+                if (!forceDirectory(dir)) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("cannot force directory " + dir + 
+                                " on this platform");
+                    }
+                    dirtyDirs.clear();
+                    return;
+                }
+
+                dirtyDirs.remove(0);
+            }
+        }
+    }
+
+    /**
+     * Forces a directory via FileChannel.open(dir.toPath(), READ). Reflection
+     * is used since the code is compiled for Java 5.
+     * 
+     * @return false if directories cannot be forced on this platform
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static boolean forceDirectory(File dir) throws IOException {
+        FileChannel channel;
+
+        try {
+            Class pathClass = Class.forName("java.nio.file.Path");
+            Class optionClass = Class.forName("java.nio.file.OpenOption");
+            Class standardOptionClass = 
+                Class.forName("java.nio.file.StandardOpenOption");
+
+            Object path = File.class.getMethod("toPath").invoke(dir);
+            Object options = Array.newInstance(optionClass, 1);
+            Array.set(options, 0, Enum.valueOf(standardOptionClass, "READ"));
+
+            channel = (FileChannel)FileChannel.class.getMethod("open", 
+                    pathClass, options.getClass()).invoke(null, path, options);
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (NoSuchMethodException e) {
+            return false;
+        } catch (IllegalAccessException e) {
+            return false;
+        } catch (InvocationTargetException e) {
+            // the platform refuses to open directories
+            return false;
+        }
+
+        try {
+            channel.force(true);
+        } catch (IOException e) {
+            // some file systems refuse to force a directory
+            return false;
+        } finally {
+            channel.close();
+        }
+
+        return true;
+    }
+
     public Piece createPiece(int index) {
         return PieceFactory.createPiece(index);
     }
@@ -73,7 +197,7 @@ implements VerifiableStorage, ConsecutivePiecesWriter {
 
     public abstract long getByteSize();
 
-    private int getByteSize(int index) {
+    protected int getByteSize(int index) {
         int pieceOffset = index * pieceSize;
         return Math.min(pieceSize, (int)(getByteSize() - pieceOffset));
     }
@@ -84,14 +208,21 @@ implements VerifiableStorage, ConsecutivePiecesWriter {
 
             byte[] buf = new byte[pieceSize];
 
-            RandomAccessFile raf = OpenRandomAccessFileCache.getInstance().getRandomAccessFile(file, readOnly); 
+            OpenRandomAccessFile f = OpenRandomAccessFileCache.getInstance()
+                .acquireRandomAccessFile(file, readOnly);
 
-            synchronized(raf) {
-                raf.seek(0);
+            try {
+                RandomAccessFile raf = f.getRandomAccessFile();
+
+                synchronized(raf) {
+                    raf.seek(0);
 
-                while (raf.read(buf) >= 0) {
-                    digest.update(buf);
+                    while (raf.read(buf) >= 0) {
+                        digest.update(buf);
+                    }
                 }
+            } finally {
+                f.release();
             }
 
             return digest.digest();
@@ -141,11 +272,18 @@ implements VerifiableStorage, ConsecutivePiecesWriter {
 
             buf = new byte[length];
 
-            RandomAccessFile raf = OpenRandomAccessFileCache.getInstance().getRandomAccessFile(file, readOnly);
+            OpenRandomAccessFile f = OpenRandomAccessFileCache.getInstance()
+                .acquireRandomAccessFile(file, readOnly);
 
-            synchronized(raf) {
-                raf.seek(index * pieceSize);
-                raf.readFully(buf);
+            try {
+                RandomAccessFile raf = f.getRandomAccessFile();
+
+                synchronized(raf) {
+                    raf.seek(index * pieceSize);
+                    raf.readFully(buf);
+                }
+            } finally {
+                f.release();
             }
         }
 
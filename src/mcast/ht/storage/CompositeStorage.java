@@ -4,9 +4,11 @@ import ibis.ipl.ReadMessage;
 import ibis.ipl.WriteMessage;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 
-public class CompositeStorage implements Storage {
+public class CompositeStorage implements DurableStorage {
 
     private final LinkedList<Storage> storages;
 
@@ -18,11 +20,48 @@ public class CompositeStorage implements Storage {
         storages.add(s);
     }
 
+    /**
+     * Closes all storages in this composite storage in parallel.
+     */
     public void close() 
     throws IOException
     {
+        List<Storage> leaves = new ArrayList<Storage>();
+        addLeaves(leaves);
+
+        StorageExecutor.getInstance().closeAll(leaves);
+    }
+
+    /**
+     * Syncs all durable storages in this composite storage in parallel.
+     */
+    public void sync() throws IOException {
+        List<Storage> leaves = new ArrayList<Storage>();
+        addLeaves(leaves);
+
+        List<DurableStorage> durable = new ArrayList<DurableStorage>();
+
+        for (Storage s: leaves) {
+            if (s instanceof DurableStorage) {
+                durable.add((DurableStorage)s);
+            }
+        }
+
+        StorageExecutor.getInstance().syncAll(durable);
+    }
+
+    /**
+     * Adds all storages in this composite storage to the given list, 
+     * replacing nested composite storages by their contents, so they are not
+     * waited for inside the executor.
+     */
+    private void addLeaves(List<Storage> leaves) {
         for (Storage s: storages) {
-            s.close();
+            if (s instanceof CompositeStorage) {
+                ((CompositeStorage)s).addLeaves(leaves);
+            } else {
+                leaves.add(s);
+            }
         }
     }
 
@@ -7,6 +7,18 @@ interface Config {
     static final String PROPERTY_PREFIX = 
         mcast.ht.Config.PROPERTY_PREFIX + "storage.";
     static final String s_max_open_files = PROPERTY_PREFIX + "max_open_files";
+    static final String s_open_file_eviction = 
+        PROPERTY_PREFIX + "open_file_eviction";
+    static final String s_min_piece_size = PROPERTY_PREFIX + "min_piece_size";
+    static final String s_max_piece_size = PROPERTY_PREFIX + "max_piece_size";
+    static final String s_min_pieces_per_peer = 
+        PROPERTY_PREFIX + "min_pieces_per_peer";
+    static final String s_message_overhead = 
+        PROPERTY_PREFIX + "message_overhead";
+    static final String s_write_strategy = PROPERTY_PREFIX + "write_strategy";
+    static final String s_write_cache_window = 
+        PROPERTY_PREFIX + "write_cache_window";
+    static final String s_sync_threads = PROPERTY_PREFIX + "sync_threads";
     
     static ConfigProperties config = ConfigProperties.getInstance(); 
     
@@ -14,4 +26,40 @@ interface Config {
 	static final long MAX_OPEN_FILES = 
 	    config.getIntProperty(s_max_open_files, 1000);
 	
+	// which open file to close when there are too many open files:
+	// 'lru' (least recently used) or 'fifo' (first opened); other values
+	// fall back to 'lru'
+	static final String OPEN_FILE_EVICTION = 
+	    config.getStringProperty(s_open_file_eviction, "lru");
+	
+	// smallest piece size (in bytes) an adaptive piece size can have
+	static final int MIN_PIECE_SIZE = 
+	    config.getIntProperty(s_min_piece_size, 4 * 1024);
+
+	// largest piece size (in bytes) an adaptive piece size can have
+	static final int MAX_PIECE_SIZE = 
+	    config.getIntProperty(s_max_piece_size, 4 * 1024 * 1024);
+
+	// minimum number of pieces per peer an adaptive piece size should create
+	static final int MIN_PIECES_PER_PEER = 
+	    config.getIntProperty(s_min_pieces_per_peer, 16);
+
+	// estimated fixed cost of sending one message, in microseconds
+	static final int MESSAGE_OVERHEAD = 
+	    config.getIntProperty(s_message_overhead, 20);
+
+	// how file storages write received pieces: 'ordered' (hold out-of-order
+	// pieces and write the file sequentially) or 'direct' (write each piece
+	// at its offset right away, for SSDs)
+	static final String WRITE_STRATEGY = 
+	    config.getStringProperty(s_write_strategy, "ordered");
+
+	// initial number of pieces the write cache window can hold
+	static final int WRITE_CACHE_WINDOW = 
+	    config.getIntProperty(s_write_cache_window, 1024);
+
+	// number of threads that sync and close files in parallel
+	static final int SYNC_THREADS = 
+	    config.getIntProperty(s_sync_threads, 16);
+	
 }
@@ -0,0 +1,74 @@
+package mcast.ht.storage;
+
+import ibis.ipl.ReadMessage;
+import ibis.ipl.WriteMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Storage for a double array, an array of double arrays, or a striped double 
+ * array that is too large for one Java array.
+ */
+public class DoubleArrayStorage extends AbstractArrayStorage {
+
+    private static final int ELEMENT_SIZE = 8;
+
+    private final double[][] data;
+
+    /**
+     * @param data
+     *                the array to multicast
+     * @param pieceSize
+     *                the preferred piece size in bytes
+     */
+    public DoubleArrayStorage(double[] data, int pieceSize) {
+        this(new double[][] { data }, pieceSize);
+    }
+
+    /**
+     * @param data
+     *                the arrays to multicast
+     * @param pieceSize
+     *                the preferred piece size in bytes
+     */
+    public DoubleArrayStorage(double[][] data, int pieceSize) {
+        super(getLengths(data), pieceSize, ELEMENT_SIZE);
+
+        this.data = data;
+    }
+
+    /**
+     * Creates a storage for the given number of elements, divided over 
+     * stripes of at most maxStripeLength elements.
+     */
+    public DoubleArrayStorage(long length, int maxStripeLength, int pieceSize) {
+        this((double[][])createStripes(double.class, length, maxStripeLength), 
+                pieceSize);
+    }
+
+    public double[][] getData() {
+        return data;
+    }
+
+    protected void readElements(ReadMessage m, int stripe, int offset, 
+            int length) throws IOException {
+        m.readArray(data[stripe], offset, length);
+    }
+
+    protected void writeElements(WriteMessage m, int stripe, int offset, 
+            int length) throws IOException {
+        m.writeArray(data[stripe], offset, length);
+    }
+
+    protected void putElements(ByteBuffer buf, int stripe, int offset, 
+            int length) {
+        buf.asDoubleBuffer().put(data[stripe], offset, length);
+    }
+
+    protected void clearStripe(int stripe) {
+        Arrays.fill(data[stripe], 0.0);
+    }
+
+}
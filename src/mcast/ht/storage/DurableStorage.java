@@ -0,0 +1,14 @@
+package mcast.ht.storage;
+
+import java.io.IOException;
+
+public interface DurableStorage extends Storage {
+
+    /**
+     * Forces all pieces that were written into this storage to stable 
+     * storage. After this method returns, the data survives a crash of this
+     * node.
+     */
+    public void sync() throws IOException;
+
+}
@@ -0,0 +1,74 @@
+package mcast.ht.storage;
+
+import ibis.ipl.ReadMessage;
+import ibis.ipl.WriteMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Storage for an int array, an array of int arrays, or a striped int 
+ * array that is too large for one Java array.
+ */
+public class IntArrayStorage extends AbstractArrayStorage {
+
+    private static final int ELEMENT_SIZE = 4;
+
+    private final int[][] data;
+
+    /**
+     * @param data
+     *                the array to multicast
+     * @param pieceSize
+     *                the preferred piece size in bytes
+     */
+    public IntArrayStorage(int[] data, int pieceSize) {
+        this(new int[][] { data }, pieceSize);
+    }
+
+    /**
+     * @param data
+     *                the arrays to multicast
+     * @param pieceSize
+     *                the preferred piece size in bytes
+     */
+    public IntArrayStorage(int[][] data, int pieceSize) {
+        super(getLengths(data), pieceSize, ELEMENT_SIZE);
+
+        this.data = data;
+    }
+
+    /**
+     * Creates a storage for the given number of elements, divided over 
+     * stripes of at most maxStripeLength elements.
+     */
+    public IntArrayStorage(long length, int maxStripeLength, int pieceSize) {
+        this((int[][])createStripes(int.class, length, maxStripeLength), 
+                pieceSize);
+    }
+
+    public int[][] getData() {
+        return data;
+    }
+
+    protected void readElements(ReadMessage m, int stripe, int offset, 
+            int length) throws IOException {
+        m.readArray(data[stripe], offset, length);
+    }
+
+    protected void writeElements(WriteMessage m, int stripe, int offset, 
+            int length) throws IOException {
+        m.writeArray(data[stripe], offset, length);
+    }
+
+    protected void putElements(ByteBuffer buf, int stripe, int offset, 
+            int length) {
+        buf.asIntBuffer().put(data[stripe], offset, length);
+    }
+
+    protected void clearStripe(int stripe) {
+        Arrays.fill(data[stripe], 0);
+    }
+
+}
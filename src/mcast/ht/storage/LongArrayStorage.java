@@ -0,0 +1,74 @@
+package mcast.ht.storage;
+
+import ibis.ipl.ReadMessage;
+import ibis.ipl.WriteMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Storage for a long array, an array of long arrays, or a striped long 
+ * array that is too large for one Java array.
+ */
+public class LongArrayStorage extends AbstractArrayStorage {
+
+    private static final int ELEMENT_SIZE = 8;
+
+    private final long[][] data;
+
+    /**
+     * @param data
+     *                the array to multicast
+     * @param pieceSize
+     *                the preferred piece size in bytes
+     */
+    public LongArrayStorage(long[] data, int pieceSize) {
+        this(new long[][] { data }, pieceSize);
+    }
+
+    /**
+     * @param data
+     *                the arrays to multicast
+     * @param pieceSize
+     *                the preferred piece size in bytes
+     */
+    public LongArrayStorage(long[][] data, int pieceSize) {
+        super(getLengths(data), pieceSize, ELEMENT_SIZE);
+
+        this.data = data;
+    }
+
+    /**
+     * Creates a storage for the given number of elements, divided over 
+     * stripes of at most maxStripeLength elements.
+     */
+    public LongArrayStorage(long length, int maxStripeLength, int pieceSize) {
+        this((long[][])createStripes(long.class, length, maxStripeLength), 
+                pieceSize);
+    }
+
+    public long[][] getData() {
+        return data;
+    }
+
+    protected void readElements(ReadMessage m, int stripe, int offset, 
+            int length) throws IOException {
+        m.readArray(data[stripe], offset, length);
+    }
+
+    protected void writeElements(WriteMessage m, int stripe, int offset, 
+            int length) throws IOException {
+        m.writeArray(data[stripe], offset, length);
+    }
+
+    protected void putElements(ByteBuffer buf, int stripe, int offset, 
+            int length) {
+        buf.asLongBuffer().put(data[stripe], offset, length);
+    }
+
+    protected void clearStripe(int stripe) {
+        Arrays.fill(data[stripe], 0L);
+    }
+
+}
@@ -1,11 +1,14 @@
 package mcast.ht.storage;
 
+import ibis.ipl.ReadMessage;
+
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.BitSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -19,9 +22,17 @@ public class MemoryMappedFileStorage extends AbstractFileStorage {
 
     private static MappedFileCache mappedFileCache = new MappedFileCache();
 
+    // per-thread buffer to deserialize received pieces into, before they are
+    // copied into the mapping
+    private static ThreadLocal<byte[]> receiveBuffer = new ThreadLocal<byte[]>();
+
     private final int byteSize;
 
-    private volatile int piecesWritten;
+    // pieces that were written, so duplicates are only counted once;
+    // guarded by its own monitor
+    private final BitSet written;
+
+    private int piecesWritten;
 
     public MemoryMappedFileStorage(File file, int byteSize, int pieceSize, 
             boolean readOnly) throws FileNotFoundException, IOException {
@@ -30,24 +41,128 @@ public class MemoryMappedFileStorage extends AbstractFileStorage {
         this.byteSize = byteSize;
 
         mappedFileCache = new MappedFileCache();
+        written = new BitSet(getPieceCount());
         piecesWritten = 0;
     }
 
     public void clear() throws IOException {
-        piecesWritten = 0;
+        synchronized (written) {
+            written.clear();
+            piecesWritten = 0;
+        }
         mappedFileCache.removeMappedByteBuffer(file);
         super.clear();
     }
 
     public void close() throws IOException {
-        mappedFileCache.removeMappedByteBuffer(file);
+        MappedByteBuffer mapping = mappedFileCache.removeMappedByteBuffer(file);
+
+        if (mapping != null) {
+            // write out pieces that were received straight into the mapping
+            mapping.force();
+        }
+
         super.close();
     }
 
+    public void sync() throws IOException {
+        MappedByteBuffer mapping = mappedFileCache.getCachedMappedByteBuffer(file);
+
+        if (mapping != null) {
+            synchronized (mapping) {
+                mapping.force();
+            }
+        }
+
+        super.sync();
+    }
+
     public long getByteSize() {
         return byteSize;
     }
 
+    /**
+     * Reads a piece straight into its region of the mapped file. Since every
+     * piece has its own region, the arrival order does not matter and the
+     * write cache is bypassed. The Ibis message API cannot deserialize into a
+     * ByteBuffer, so the payload passes through a reused per-thread array.
+     */
+    @Override
+    public Piece readPiece(ReadMessage m) throws IOException {
+        int index = m.readInt();
+
+        if (index < 0 || index >= getPieceCount()) {
+            throw new IOException("read illegal piece index: " + index);
+        }
+
+        int length = getByteSize(index);
+
+        byte[] buf = getReceiveBuffer(length);
+        m.readArray(buf, 0, length);
+
+        MappedByteBuffer mapping = mappedFileCache.getMappedByteBuffer(file, 
+                0L, byteSize);
+
+        // a duplicate has its own position, so pieces can be copied into
+        // the mapping concurrently
+        ByteBuffer region = mapping.duplicate();
+        region.position(index * pieceSize);
+        region.put(buf, 0, length);
+
+        Piece piece = createPiece(index);
+
+        if (logger.isTraceEnabled()) {
+            logger.trace("received piece " + piece);
+        }
+
+        piecesReceived++;
+
+        boolean done = markWritten(index, 1);
+
+        if (done) {
+            synchronized (mapping) {
+                mapping.force();
+            }
+
+            mappedFileCache.removeMappedByteBuffer(file);
+        }
+
+        return piece;
+    }
+
+    /**
+     * Marks a range of pieces as written and returns whether this completed
+     * the file. Pieces that were written before are not counted again.
+     */
+    private boolean markWritten(int firstPieceIndex, int count) {
+        synchronized (written) {
+            if (piecesWritten >= getPieceCount()) {
+                // already completed by an earlier write
+                return false;
+            }
+
+            for (int i = firstPieceIndex; i < firstPieceIndex + count; i++) {
+                if (!written.get(i)) {
+                    written.set(i);
+                    piecesWritten++;
+                }
+            }
+
+            return piecesWritten >= getPieceCount();
+        }
+    }
+
+    private byte[] getReceiveBuffer(int length) {
+        byte[] result = receiveBuffer.get();
+
+        if (result == null || result.length < length) {
+            result = new byte[Math.max(length, pieceSize)];
+            receiveBuffer.set(result);
+        }
+
+        return result;
+    }
+
     public void writeConsecutivePieces(int firstPieceIndex, List<byte[]> bytes)
             throws IOException {
         if (logger.isDebugEnabled()) {
@@ -58,17 +173,20 @@ public class MemoryMappedFileStorage extends AbstractFileStorage {
         MappedByteBuffer buffer = mappedFileCache.getMappedByteBuffer(file, 0L, 
                 byteSize);
 
-        buffer.position(firstPieceIndex * pieceSize);
+        // pieces may be written concurrently with the 'direct' write strategy
+        synchronized (buffer) {
+            buffer.position(firstPieceIndex * pieceSize);
 
-        for (byte[] piece: bytes) {
-            buffer.put(piece);
-        }
+            for (byte[] piece: bytes) {
+                buffer.put(piece);
+            }
 
-        buffer.force();
+            buffer.force();
+        }
 
-        piecesWritten += bytes.size();
+        boolean done = markWritten(firstPieceIndex, bytes.size());
 
-        if (piecesWritten >= getPieceCount()) {
+        if (done) {
             mappedFileCache.removeMappedByteBuffer(file);
         }
     }
@@ -89,10 +207,16 @@ public class MemoryMappedFileStorage extends AbstractFileStorage {
 
             if (result == null) {
                 OpenRandomAccessFileCache fc = OpenRandomAccessFileCache.getInstance();
-                RandomAccessFile raf = fc.getRandomAccessFile(file, false);
-                FileChannel channel = raf.getChannel();
+                OpenRandomAccessFile f = fc.acquireRandomAccessFile(file, false);
 
-                result = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+                try {
+                    FileChannel channel = f.getRandomAccessFile().getChannel();
+
+                    result = channel.map(FileChannel.MapMode.READ_WRITE, 
+                            position, size);
+                } finally {
+                    f.release();
+                }
 
                 mappedFiles.put(file, result);
             }
@@ -100,8 +224,13 @@ public class MemoryMappedFileStorage extends AbstractFileStorage {
             return result;
         }
 
-        public synchronized void removeMappedByteBuffer(File file) {
-            mappedFiles.remove(file);
+        public synchronized MappedByteBuffer getCachedMappedByteBuffer(
+                File file) {
+            return mappedFiles.get(file);
+        }
+
+        public synchronized MappedByteBuffer removeMappedByteBuffer(File file) {
+            return mappedFiles.remove(file);
         }
 
     }
@@ -0,0 +1,152 @@
+package mcast.ht.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A reference-counted handle to a random access file in the
+ * OpenRandomAccessFileCache. As long as a handle has not been released, the
+ * cache will not close the underlying file. Users of the random access file
+ * should synchronize on it while seeking and reading or writing.
+ */
+public class OpenRandomAccessFile {
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private volatile boolean referenced;
+    private int refCount;
+    private boolean closed;
+    private boolean closeWhenReleased;
+
+    // the place of this file in the eviction order of the cache; guarded by
+    // the eviction lock of the cache
+    OpenRandomAccessFile previous;
+    OpenRandomAccessFile next;
+    boolean linked;
+
+    OpenRandomAccessFile(File file, RandomAccessFile raf) {
+        this.file = file;
+        this.raf = raf;
+
+        referenced = false;
+
+        // the thread that opened the file holds the first reference
+        refCount = 1;
+        closed = false;
+        closeWhenReleased = false;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public RandomAccessFile getRandomAccessFile() {
+        return raf;
+    }
+
+    /**
+     * Releases this handle. After the last reference has been released, the
+     * cache is allowed to close the underlying file.
+     */
+    public void release() throws IOException {
+        boolean doClose = false;
+
+        synchronized (this) {
+            if (refCount <= 0) {
+                throw new IllegalStateException("handle to " +
+                        file.getAbsolutePath() + " was already released");
+            }
+
+            refCount--;
+
+            if (refCount == 0 && closeWhenReleased && !closed) {
+                closed = true;
+                doClose = true;
+            }
+        }
+
+        if (doClose) {
+            OpenRandomAccessFileCache.getInstance().closed(this);
+            closeFile();
+        }
+    }
+
+    /**
+     * Returns whether this handle was retained since the last call to this
+     * method, and forgets it.
+     */
+    boolean clearReferenced() {
+        if (!referenced) {
+            return false;
+        }
+
+        referenced = false;
+
+        return true;
+    }
+
+    synchronized boolean retain() {
+        if (closed) {
+            return false;
+        }
+
+        refCount++;
+
+        if (!referenced) {
+            // only write when it changes, so a file that is used all the 
+            // time does not keep invalidating the cache line of other readers
+            referenced = true;
+        }
+
+        return true;
+    }
+
+    synchronized boolean isIdle() {
+        return !closed && refCount == 0;
+    }
+
+    /**
+     * Marks this handle closed if nobody uses it.
+     *
+     * @return true if the caller should close the file, false if the file is
+     *         still in use or was already closed.
+     */
+    synchronized boolean closeIfIdle() {
+        if (closed || refCount > 0) {
+            return false;
+        }
+
+        closed = true;
+
+        return true;
+    }
+
+    /**
+     * Marks this handle closed if nobody uses it, or makes sure it will be
+     * closed when the last reference to it is released.
+     *
+     * @return true if the caller should close the file now, false otherwise.
+     */
+    synchronized boolean closeOrDefer() {
+        if (closed) {
+            return false;
+        }
+
+        if (refCount > 0) {
+            closeWhenReleased = true;
+            return false;
+        }
+
+        closed = true;
+
+        return true;
+    }
+
+    void closeFile() throws IOException {
+        synchronized (raf) {
+            raf.close();
+        }
+    }
+
+}
@@ -3,86 +3,269 @@ package mcast.ht.storage;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
+/**
+ * Keeps at most MAX_OPEN_FILES random access files open. Lookups of files that
+ * are already open do not take a global lock; only opening a file locks one of
+ * a fixed set of stripes (selected by the file), and only closing files to
+ * make room for a new one locks the whole cache. Files are handed out as
+ * reference-counted handles, so an open file is never closed while it is
+ * being read or written.
+ *
+ * The open files are kept in a list in the order of eviction. Using a file 
+ * does not move it in the list, since that would need the lock of the whole
+ * cache; instead, a file that was used since it was last put at the end of 
+ * the list gets a second chance and is moved to the end when it comes up for
+ * eviction (the CLOCK algorithm). Using a file only sets its referenced bit, 
+ * which eviction clears. Closing a file to make room therefore costs constant
+ * time on average.
+ */
 public class OpenRandomAccessFileCache implements Config {
 
-    private static Logger logger = 
+    private static Logger logger =
         Logger.getLogger(OpenRandomAccessFileCache.class);
 
-    private final LRURandomAccessFileHashMap openFiles;
+    private static final int STRIPES = 32;
+
+    private final ConcurrentHashMap<File, OpenRandomAccessFile> openFiles;
+    private final Object[] stripes;
+    private final Object evictionLock;
+
+    // the open files in the order of eviction; guarded by evictionLock
+    private OpenRandomAccessFile first;
+    private OpenRandomAccessFile last;
+
+    private final AtomicInteger openCount;
+    private final EvictionPolicy evictionPolicy;
 
     protected OpenRandomAccessFileCache() {
-        openFiles = new LRURandomAccessFileHashMap();
-        logger.info("max. open files: " + MAX_OPEN_FILES);
+        openFiles = new ConcurrentHashMap<File, OpenRandomAccessFile>(
+                (int)(4 / 3 * MAX_OPEN_FILES), 0.75f, STRIPES);
+
+        stripes = new Object[STRIPES];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Object();
+        }
+
+        evictionLock = new Object();
+        openCount = new AtomicInteger(0);
+        evictionPolicy = getEvictionPolicy(OPEN_FILE_EVICTION);
+
+        logger.info("max. open files: " + MAX_OPEN_FILES + " (" +
+                evictionPolicy + " eviction)");
+    }
+
+    private static EvictionPolicy getEvictionPolicy(String name) {
+        try {
+            return EvictionPolicy.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn("unknown open file eviction policy '" + name + 
+                    "' in property " + s_open_file_eviction + ", using " + 
+                    EvictionPolicy.LRU);
+            return EvictionPolicy.LRU;
+        }
     }
 
     public static OpenRandomAccessFileCache getInstance() {
         return SingletonHolder.instance;
     }
 
-    public synchronized RandomAccessFile getRandomAccessFile(File file, 
+    /**
+     * Returns a handle to an open random access file. The handle must be
+     * released after use, otherwise the file will never be closed by this
+     * cache.
+     */
+    public OpenRandomAccessFile acquireRandomAccessFile(File file,
             boolean readOnly) throws IOException {
-        RandomAccessFile result = openFiles.get(file);
+        while (true) {
+            OpenRandomAccessFile result = openFiles.get(file);
+
+            if (result == null) {
+                result = open(file, readOnly);
+
+                if (result != null) {
+                    return result;
+                }
+            } else if (result.retain()) {
+                return result;
+            }
+
+            // the file was closed in the meantime; try again
+        }
+    }
+
+    private OpenRandomAccessFile open(File file, boolean readOnly)
+    throws IOException {
+        OpenRandomAccessFile result = null;
+
+        synchronized (getStripe(file)) {
+            if (openFiles.get(file) != null) {
+                // somebody else opened the file first
+                return null;
+            }
+
+            RandomAccessFile raf = new RandomAccessFile(file,
+                    readOnly ? "r" : "rw");
+
+            result = new OpenRandomAccessFile(file, raf);
 
-        if (result == null) {
-            result = new RandomAccessFile(file, readOnly ? "r" : "rw");
             openFiles.put(file, result);
         }
 
+        synchronized (evictionLock) {
+            link(result);
+        }
+
+        if (openCount.incrementAndGet() > MAX_OPEN_FILES) {
+            evict();
+        }
+
         return result;
     }
 
-    public synchronized void closeRandomAccessFile(File file) throws IOException {
-        RandomAccessFile raf = openFiles.get(file);
+    private Object getStripe(File file) {
+        int hash = file.hashCode();
+        hash ^= (hash >>> 16);
+
+        return stripes[(hash & 0x7fffffff) % stripes.length];
+    }
+
+    private void evict() {
+        synchronized (evictionLock) {
+            // every file that is skipped is moved to the end of the list, so
+            // after skipping all of them, all open files are in use
+            int skipped = 0;
+
+            while (openCount.get() > MAX_OPEN_FILES && first != null) {
+                OpenRandomAccessFile f = first;
 
-        if (raf != null) {
-            synchronized(raf) {
-                try {
-                    raf.close();
-                    openFiles.remove(file);
-                } catch (IOException e) {
-                    logger.error("error while closing random access to " + file.getAbsolutePath(), e);
+                if (skipped > openCount.get()) {
+                    // all open files are in use; we temporarily keep more
+                    // files open than allowed
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("all " + openCount.get() +
+                                " open files are in use");
+                    }
+                    return;
+                }
+
+                if (!f.isIdle() || evictionPolicy.secondChance(f)) {
+                    unlink(f);
+                    link(f);
+                    skipped++;
+                } else if (f.closeIfIdle()) {
+                    closed(f);
+                    close(f);
                 }
             }
         }
     }
 
-    private static class SingletonHolder {
-        static OpenRandomAccessFileCache instance = new OpenRandomAccessFileCache();    
+    /**
+     * Appends a file to the end of the eviction order.
+     */
+    private void link(OpenRandomAccessFile f) {
+        f.previous = last;
+        f.next = null;
+
+        if (last == null) {
+            first = f;
+        } else {
+            last.next = f;
+        }
+
+        last = f;
+        f.linked = true;
     }
 
-    private static class LRURandomAccessFileHashMap extends LinkedHashMap<File, RandomAccessFile> {
+    private void unlink(OpenRandomAccessFile f) {
+        if (!f.linked) {
+            return;
+        }
 
-        private static final long serialVersionUID = 1138463725330253310L;
+        if (f.previous == null) {
+            first = f.next;
+        } else {
+            f.previous.next = f.next;
+        }
 
-        LRURandomAccessFileHashMap() {
-            super((int)(4 / 3 * MAX_OPEN_FILES), 0.75f, true);
+        if (f.next == null) {
+            last = f.previous;
+        } else {
+            f.next.previous = f.previous;
         }
 
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<File, RandomAccessFile> eldest) {
-            if (size() > MAX_OPEN_FILES) {
-                RandomAccessFile raf = eldest.getValue();
-                File file = eldest.getKey(); 
-
-                synchronized(raf) {
-                    try {
-                        raf.close();
-                    } catch (IOException e) {
-                        logger.error("error while closing random access to " + 
-                                file.getAbsolutePath(), e);
-                    }
-                }
+        f.previous = f.next = null;
+        f.linked = false;
+    }
+
+    /**
+     * Closes the random access file to the given file. If it is still in use,
+     * it will be closed as soon as it is released.
+     */
+    public void closeRandomAccessFile(File file) {
+        OpenRandomAccessFile f = openFiles.get(file);
+
+        if (f != null && f.closeOrDefer()) {
+            closed(f);
+            close(f);
+        }
+    }
+
+    void closed(OpenRandomAccessFile f) {
+        if (openFiles.remove(f.getFile(), f)) {
+            openCount.decrementAndGet();
+        }
 
-                return  true;
-            } else {
+        synchronized (evictionLock) {
+            unlink(f);
+        }
+    }
+
+    private void close(OpenRandomAccessFile f) {
+        try {
+            f.closeFile();
+        } catch (IOException e) {
+            logger.error("error while closing random access to " +
+                    f.getFile().getAbsolutePath(), e);
+        }
+    }
+
+    // INNER CLASSES
+
+    private static class SingletonHolder {
+        static OpenRandomAccessFileCache instance = new OpenRandomAccessFileCache();
+    }
+
+    private static enum EvictionPolicy {
+
+        /**
+         * Close the least recently used file first
+         */
+        LRU {
+            boolean secondChance(OpenRandomAccessFile f) {
+                return f.clearReferenced();
+            }
+        },
+
+        /**
+         * Close the file that was opened first
+         */
+        FIFO {
+            boolean secondChance(OpenRandomAccessFile f) {
                 return false;
             }
-        }
+        };
+
+        /**
+         * Returns whether an idle file at the front of the eviction order 
+         * should be moved to the end instead of being closed.
+         */
+        abstract boolean secondChance(OpenRandomAccessFile f);
 
     }
 
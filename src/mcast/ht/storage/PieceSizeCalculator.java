@@ -0,0 +1,90 @@
+package mcast.ht.storage;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Chooses the piece size of a storage from the size of its data, the number
+ * of peers that will exchange it, and the round-trip time and bandwidth of 
+ * the links between them. The result is always a power of two between 
+ * MIN_PIECE_SIZE and MAX_PIECE_SIZE.
+ */
+public class PieceSizeCalculator implements Config {
+
+    private static final Logger logger = 
+        Logger.getLogger(PieceSizeCalculator.class);
+
+    /**
+     * Sending one piece should take at least this many times the fixed cost
+     * of a message
+     */
+    private static final int OVERHEAD_FACTOR = 10;
+
+    /**
+     * Calculates the piece size for a storage.
+     * 
+     * @param byteSize
+     *                the number of bytes in the storage
+     * @param peers
+     *                the number of peers that will exchange the storage
+     * @param rttSec
+     *                the round-trip time of a link between peers, in seconds
+     * @param bytesPerSec
+     *                the bandwidth of a link between peers, in bytes per second
+     * @param pipelineDepth
+     *                the number of pieces a peer requests ahead on each link
+     * 
+     * @return the piece size, in bytes
+     */
+    public static int calculatePieceSize(long byteSize, int peers, 
+            double rttSec, double bytesPerSec, int pipelineDepth) {
+        // large pieces: sending a piece should take much longer than the fixed
+        // cost of sending a message (which dominates on fast local links)
+        double minForOverhead = 
+            bytesPerSec * MESSAGE_OVERHEAD / 1000000.0 * OVERHEAD_FACTOR;
+
+        // large pieces: the pieces requested ahead on a link should fill the 
+        // bandwidth-delay product of that link (which dominates on wide-area 
+        // links)
+        double minForPipeline = 
+            bytesPerSec * rttSec / Math.max(1, pipelineDepth);
+
+        // small pieces: each peer should have enough pieces to work on, 
+        // otherwise the last pieces of the data will keep peers waiting
+        double maxForParallelism = 
+            byteSize / (double)(Math.max(1, peers) * MIN_PIECES_PER_PEER);
+
+        double size = Math.max(minForOverhead, minForPipeline);
+
+        if (size > maxForParallelism) {
+            // there is too little data to keep all links busy anyway
+            size = maxForParallelism;
+        }
+
+        int result = roundToPowerOfTwo(size);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("piece size for " + byteSize + " bytes, " + peers + 
+                    " peers, RTT " + rttSec + " sec., " + bytesPerSec + 
+                    " bytes/sec.: " + result);
+        }
+
+        return result;
+    }
+
+    private static int roundToPowerOfTwo(double size) {
+        if (size <= MIN_PIECE_SIZE) {
+            return MIN_PIECE_SIZE;
+        }
+        if (size >= MAX_PIECE_SIZE) {
+            return MAX_PIECE_SIZE;
+        }
+
+        int lower = Integer.highestOneBit((int)size);
+        int upper = lower << 1;
+
+        int result = (size - lower < upper - size) ? lower : upper;
+
+        return Math.max(MIN_PIECE_SIZE, Math.min(MAX_PIECE_SIZE, result));
+    }
+
+}
@@ -29,19 +29,25 @@ public class RandomAccessFileStorage extends AbstractFileStorage {
     public void writeConsecutivePieces(int firstPieceIndex, List<byte[]> bytes)
             throws IOException {
         OpenRandomAccessFileCache fc = OpenRandomAccessFileCache.getInstance();
-        RandomAccessFile raf = fc.getRandomAccessFile(file, readOnly);
+        OpenRandomAccessFile f = fc.acquireRandomAccessFile(file, readOnly);
 
         if (logger.isDebugEnabled()) {
             logger.debug("writing " + bytes.size() + " pieces starting at #" + 
                     firstPieceIndex);
         }
 
-        synchronized(raf) {
-            raf.seek(firstPieceIndex * pieceSize);
+        try {
+            RandomAccessFile raf = f.getRandomAccessFile();
 
-            for (byte[] buf: bytes) {
-                raf.write(buf);
+            synchronized(raf) {
+                raf.seek(firstPieceIndex * pieceSize);
+
+                for (byte[] buf: bytes) {
+                    raf.write(buf);
+                }
             }
+        } finally {
+            f.release();
         }
     }
 
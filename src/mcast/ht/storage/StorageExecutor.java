@@ -0,0 +1,137 @@
+package mcast.ht.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs slow storage operations (forcing data to disk, closing files) on many
+ * storages in parallel, using a shared pool of SYNC_THREADS daemon threads.
+ */
+class StorageExecutor implements Config {
+
+    private final ExecutorService executor;
+
+    private StorageExecutor() {
+        executor = Executors.newFixedThreadPool(SYNC_THREADS, 
+                new ThreadFactory() {
+            private int count = 0;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "StorageExecutor-" + count++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    static StorageExecutor getInstance() {
+        return SingletonHolder.instance;
+    }
+
+    /**
+     * Syncs all given storages in parallel and waits until they are done.
+     */
+    void syncAll(List<DurableStorage> storages) throws IOException {
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+
+        for (final DurableStorage s: storages) {
+            tasks.add(new Callable<Object>() {
+                public Object call() throws IOException {
+                    s.sync();
+                    return null;
+                }
+            });
+        }
+
+        runAll(tasks);
+    }
+
+    /**
+     * Closes all given storages in parallel and waits until they are done.
+     */
+    void closeAll(List<Storage> storages) throws IOException {
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+
+        for (final Storage s: storages) {
+            tasks.add(new Callable<Object>() {
+                public Object call() throws IOException {
+                    s.close();
+                    return null;
+                }
+            });
+        }
+
+        runAll(tasks);
+    }
+
+    private void runAll(List<Callable<Object>> tasks) throws IOException {
+        if (tasks.size() == 1) {
+            // not worth a thread switch
+            call(tasks.get(0));
+            return;
+        }
+
+        List<Future<Object>> futures;
+
+        try {
+            futures = executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted while waiting for storages");
+        }
+
+        IOException exception = null;
+
+        for (Future<Object> f: futures) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted while waiting for storages");
+            } catch (ExecutionException e) {
+                // remember the first error, but let all tasks finish
+                if (exception == null) {
+                    exception = toIOException(e.getCause());
+                }
+            }
+        }
+
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private void call(Callable<Object> task) throws IOException {
+        try {
+            task.call();
+        } catch (Exception e) {
+            throw toIOException(e);
+        }
+    }
+
+    private IOException toIOException(Throwable t) {
+        if (t instanceof IOException) {
+            return (IOException)t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException)t;
+        } else if (t instanceof Error) {
+            throw (Error)t;
+        } else {
+            IOException result = new IOException(t.getMessage());
+            result.initCause(t);
+            return result;
+        }
+    }
+
+    // INNER CLASSES
+
+    private static class SingletonHolder {
+        static StorageExecutor instance = new StorageExecutor();
+    }
+
+}
@@ -1,136 +1,363 @@
 package mcast.ht.storage;
 
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
 
-public class WriteCache {
+/**
+ * Collects received pieces and writes them to a ConsecutivePiecesWriter.
+ * Pieces are kept in a window that starts at the first piece that has not
+ * been written yet (nextPiece). The window is a ring of slots indexed by
+ * (pieceIndex - nextPiece), plus two bitmaps that tell which pieces in the
+ * window were already written out of order and which ones are cached. The 
+ * ring doubles in size when a piece arrives beyond its end.
+ *
+ * With the 'ordered' write strategy, out-of-order pieces are held in the
+ * window until the gap before them is filled, so the file is written
+ * sequentially. With the 'direct' strategy (meant for SSDs), every piece is
+ * written at its offset right away and the window only keeps track of which
+ * pieces have been written.
+ */
+public class WriteCache implements Config {
 
     private static final Logger logger = Logger.getLogger(WriteCache.class);
 
+    private static final WriteStrategy strategy = 
+        getWriteStrategy(WRITE_STRATEGY);
+
     private final ConsecutivePiecesWriter writer;
-    private final TreeMap<Piece, byte[]> cache;
-    private final TreeSet<Piece> alreadyWritten;
+
+    private byte[][] slots;
+    private long[] written;
+    private long[] cached;
+    private int head;
+    private int limit;
+    private int cachedPieces;
     private volatile int nextPiece;
 
     public WriteCache(ConsecutivePiecesWriter writer) {
         this.writer = writer;
 
-        cache = new TreeMap<Piece, byte[]>(PieceComparator.getInstance());
-        alreadyWritten = new TreeSet<Piece>(PieceComparator.getInstance());
+        init();
+    }
+
+    private static WriteStrategy getWriteStrategy(String name) {
+        try {
+            return WriteStrategy.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn("unknown write strategy '" + name + "' in property " +
+                    s_write_strategy + ", using " + WriteStrategy.ORDERED);
+            return WriteStrategy.ORDERED;
+        }
+    }
+
+    private void init() {
+        int capacity = Integer.highestOneBit(Math.max(64, WRITE_CACHE_WINDOW));
+        if (capacity < WRITE_CACHE_WINDOW) {
+            capacity <<= 1;
+        }
+
+        slots = new byte[capacity][];
+        written = new long[capacity >> 6];
+        cached = new long[capacity >> 6];
+        head = 0;
+        limit = 0;
+        cachedPieces = 0;
         nextPiece = 0;
     }
 
     public synchronized void clear() {
-        cache.clear();
-        alreadyWritten.clear();
-        nextPiece = 0;
+        for (byte[] buf: slots) {
+            if (buf != null) {
+                MemoryUsage.used -= buf.length;
+            }
+        }
+
+        init();
+    }
+
+    public void addPiece(Piece piece, byte[] buf)
+    throws IOException
+    {
+        if (strategy == WriteStrategy.DIRECT) {
+            addPieceDirect(piece.getIndex(), buf);
+        } else {
+            addPieceOrdered(piece.getIndex(), buf);
+        }
+    }
+
+    private void addPieceDirect(int index, byte[] buf)
+    throws IOException
+    {
+        synchronized (this) {
+            // claim the piece before writing it, so two threads that receive
+            // the same piece never both write it
+            if (isDuplicate(index)) {
+                return;
+            }
+
+            int offset = index - nextPiece;
+
+            ensureCapacity(offset + 1);
+            setWritten(slot(offset));
+            limit = Math.max(limit, offset + 1);
+
+            if (offset == 0) {
+                advance(1);
+            }
+        }
+
+        // write the piece without holding the lock, so other pieces can be
+        // written concurrently
+        writer.writeConsecutivePieces(index, Collections.singletonList(buf));
     }
 
-    public synchronized void addPiece(Piece piece, byte[] buf) 
+    private synchronized void addPieceOrdered(int index, byte[] buf)
     throws IOException
     {
-        cache.put(piece, buf);
+        if (isDuplicate(index)) {
+            return;
+        }
+
+        int offset = index - nextPiece;
+
+        ensureCapacity(offset + 1);
+        slots[slot(offset)] = buf;
+        setCached(slot(offset));
+        limit = Math.max(limit, offset + 1);
+        cachedPieces++;
 
         MemoryUsage.used += buf.length;
 
         if (logger.isDebugEnabled()) {
-            logger.debug("cache size: " + cache.size() + " pieces, mem. used: " + MemoryUsage.used + " bytes");
+            logger.debug("cache size: " + cachedPieces + " pieces, mem. used: " + MemoryUsage.used + " bytes");
         }
 
-        if (piece.getIndex() == nextPiece) {
+        if (offset == 0) {
             // we received The Next Piece!
-            // write all consecutive pieces in cache to disk 
-            writeCachedPiecesToFile(nextPiece);
+            // write all consecutive pieces in cache to disk
+            writeCachedPiecesToFile(0);
         } else if (MemoryUsage.used > MemoryUsage.MAX){
             // we are running low on memory; flush the first piece and all successive ones
             logger.debug("low memory detected, flushing write cache");
-            writeCachedPiecesToFile(-1);
+            writeCachedPiecesToFile(firstCachedOffset());
+        }
+    }
+
+    /**
+     * Writes all cached pieces, also those that do not follow the pieces 
+     * written so far.
+     */
+    public synchronized void flush() throws IOException {
+        for (int offset = firstCachedOffset(); offset >= 0; 
+                offset = firstCachedOffset()) {
+            writeCachedPiecesToFile(offset);
         }
     }
 
     public synchronized byte[] getCachedPiece(Piece piece) {
-        return cache.get(piece);
+        int offset = piece.getIndex() - nextPiece;
+
+        if (offset < 0 || offset >= limit) {
+            return null;
+        }
+
+        return slots[slot(offset)];
     }
 
-    private void writeCachedPiecesToFile(int startIndex)
-    throws IOException
-    {
-        if (cache.isEmpty()) {
-            return;
+    private boolean isDuplicate(int index) {
+        int offset = index - nextPiece;
+
+        if (offset < 0) {
+            return true;
         }
 
-        Piece first = cache.firstKey();
+        if (offset >= limit) {
+            return false;
+        }
 
-        if (startIndex < 0) {
-            // start index unspecified; take the first consecutive set of pieces
-            startIndex = first.getIndex();
-        } else if (first.getIndex() != startIndex) {
-            // start index specified; if the first piece does not match the requested one, we quit
-            return;
+        int slot = slot(offset);
+
+        return slots[slot] != null || isWritten(slot);
+    }
+
+    private int slot(int offset) {
+        return (head + offset) & (slots.length - 1);
+    }
+
+    private boolean isWritten(int slot) {
+        return (written[slot >> 6] & (1L << slot)) != 0;
+    }
+
+    private void setWritten(int slot) {
+        written[slot >> 6] |= (1L << slot);
+    }
+
+    private void clearWritten(int slot) {
+        written[slot >> 6] &= ~(1L << slot);
+    }
+
+    private void setCached(int slot) {
+        cached[slot >> 6] |= (1L << slot);
+    }
+
+    private void clearCached(int slot) {
+        cached[slot >> 6] &= ~(1L << slot);
+    }
+
+    /**
+     * Returns the offset of the first cached piece in the window, or -1 if no
+     * piece is cached. Scans the cached bitmap a word at a time, starting at
+     * the head of the ring.
+     */
+    private int firstCachedOffset() {
+        if (cachedPieces == 0) {
+            return -1;
         }
 
-        // check if we should remember the written pieces.
-        // this is the case when we write a set of pieces that does not start at the 'nextPieceInFile' offset
-        boolean rememberWrites = (startIndex != nextPiece);
+        int mask = slots.length - 1;
+        int slot = head;
 
-        List<byte[]> bytes = new LinkedList<byte[]>();
+        // one more word than the ring has, for the bits before the head in 
+        // its own word
+        for (int i = 0; i <= cached.length; i++) {
+            int word = slot >> 6;
+            long bits = cached[word] & (-1L << slot);
 
-        int index = startIndex;
+            if (bits != 0) {
+                int found = (word << 6) + Long.numberOfTrailingZeros(bits);
 
-        for (Iterator<Map.Entry<Piece, byte[]>> it = cache.entrySet().iterator(); it.hasNext(); ) {
-            Map.Entry<Piece, byte[]> entry = it.next();
+                return (found - head) & mask;
+            }
 
-            Piece piece = entry.getKey();
+            slot = ((word + 1) << 6) & mask;
+        }
 
-            if (piece.getIndex() == index) {
-                byte[] buf = entry.getValue();
+        return -1;
+    }
 
-                bytes.add(buf);
+    /**
+     * Makes sure the window can hold the given number of pieces, by doubling
+     * the ring until it is large enough.
+     */
+    private void ensureCapacity(int size) {
+        if (size <= slots.length) {
+            return;
+        }
 
-                it.remove();
+        int capacity = slots.length;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
 
-                MemoryUsage.used -= buf.length;
+        byte[][] newSlots = new byte[capacity][];
+        long[] newWritten = new long[capacity >> 6];
+        long[] newCached = new long[capacity >> 6];
 
-                if (rememberWrites) {
-                    alreadyWritten.add(piece);
-                }
+        for (int offset = 0; offset < limit; offset++) {
+            int slot = slot(offset);
 
-                index++;
-            } else {
-                break;
+            newSlots[offset] = slots[slot];
+
+            if (isWritten(slot)) {
+                newWritten[offset >> 6] |= (1L << offset);
+            }
+
+            if (slots[slot] != null) {
+                newCached[offset >> 6] |= (1L << offset);
             }
         }
 
-        writer.writeConsecutivePieces(startIndex, bytes);
+        slots = newSlots;
+        written = newWritten;
+        cached = newCached;
+        head = 0;
+    }
 
-        if (!rememberWrites) {
-            // we just wrote a serie of piece starting at the file pointer 'nextPiece'
-            // first, move the pointer to the gap at the end of the series of pieces we just wrote
-            nextPiece = index;
+    /**
+     * Moves the start of the window the given number of pieces forward, and
+     * beyond all pieces after that which were written before.
+     */
+    private void advance(int pieces) {
+        int offset = 0;
+
+        while (offset < limit && (offset < pieces || isWritten(slot(offset)))) {
+            int slot = slot(offset);
+            slots[slot] = null;
+            clearWritten(slot);
+            clearCached(slot);
+            offset++;
+        }
 
-            // next, check if the next gap consists of pieces that were
-            // written before in an attempt to free more memory. In that case, we have to
-            // move the file pointer beyond the first consequtive serie of already written pieces
-            if (!alreadyWritten.isEmpty()) {
-                for (Iterator<Piece> it = alreadyWritten.iterator(); it.hasNext(); ) {
-                    Piece written = it.next();
+        // pieces beyond the window may have been written too
+        offset = Math.max(offset, pieces);
 
-                    if (written.getIndex() == nextPiece) {
-                        it.remove();
-                        nextPiece++;
-                    } else {
-                        return;
-                    }
-                }
+        head = slot(offset);
+        limit = Math.max(0, limit - offset);
+        nextPiece += offset;
+    }
+
+    private void writeCachedPiecesToFile(int startOffset)
+    throws IOException
+    {
+        if (startOffset < 0 || cachedPieces == 0) {
+            return;
+        }
+
+        List<byte[]> bytes = new ArrayList<byte[]>();
+
+        int offset = startOffset;
+
+        while (offset < limit) {
+            int slot = slot(offset);
+            byte[] buf = slots[slot];
+
+            if (buf == null) {
+                break;
             }
+
+            bytes.add(buf);
+
+            slots[slot] = null;
+            clearCached(slot);
+            cachedPieces--;
+
+            MemoryUsage.used -= buf.length;
+
+            // remember the written pieces; this matters when we write a
+            // set of pieces that does not start at the 'nextPiece' offset
+            setWritten(slot);
+
+            offset++;
+        }
+
+        writer.writeConsecutivePieces(nextPiece + startOffset, bytes);
+
+        if (startOffset == 0) {
+            // we just wrote a series of pieces starting at the file pointer
+            // 'nextPiece'; move the pointer to the next gap, skipping any
+            // pieces that were written before to free memory
+            advance(offset);
         }
     }
 
+    // INNER CLASSES
+
+    private static enum WriteStrategy {
+
+        /**
+         * Hold out-of-order pieces until they can be written sequentially
+         */
+        ORDERED,
+
+        /**
+         * Write every piece at its offset right away
+         */
+        DIRECT;
+
+    }
+
 }
@@ -0,0 +1,277 @@
+package mcast.ht.admin;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+/**
+ * Tests shared by all piece index set implementations. The indices used lie
+ * around the boundaries of 64-bit words, where the bit set implementation 
+ * switches from one long to the next.
+ */
+public abstract class AbstractPieceIndexSetTest {
+
+    protected abstract PieceIndexSet createSet(int capacity);
+
+    private PieceIndexSet createSet(int capacity, int... indices) {
+        PieceIndexSet result = createSet(capacity);
+
+        for (int i: indices) {
+            result.add(i);
+        }
+
+        return result;
+    }
+
+    private static void assertIndices(PieceIndexSet set, int... expected) {
+        assertEquals(expected.length, set.size());
+        assertEquals(expected.length == 0, set.isEmpty());
+
+        int i = 0;
+
+        for (int index = set.nextIndex(0); index >= 0; 
+                index = set.nextIndex(index + 1)) {
+            assertTrue("unexpected index " + index, i < expected.length);
+            assertEquals(expected[i++], index);
+        }
+
+        assertEquals(expected.length, i);
+    }
+
+    @Test
+    public void testAddAcrossWordBoundaries() {
+        PieceIndexSet set = createSet(1, 0, 63, 64, 127, 128, 200);
+
+        assertIndices(set, 0, 63, 64, 127, 128, 200);
+        assertTrue(set.contains(63));
+        assertTrue(set.contains(64));
+        assertFalse(set.contains(62));
+        assertFalse(set.contains(65));
+        assertFalse(set.contains(1000));
+
+        // adding an existing index does not change the size
+        set.add(64);
+        assertEquals(6, set.size());
+    }
+
+    @Test
+    public void testAddRange() {
+        PieceIndexSet set = createSet(0);
+
+        set.add(60, 130);
+        assertEquals(70, set.size());
+        assertFalse(set.contains(59));
+        assertTrue(set.contains(60));
+        assertTrue(set.contains(129));
+        assertFalse(set.contains(130));
+
+        // overlapping range only counts the new indices
+        set.add(120, 140);
+        assertEquals(80, set.size());
+
+        // empty range
+        set.add(10, 10);
+        assertEquals(80, set.size());
+    }
+
+    @Test
+    public void testAddRangeWithinOneWord() {
+        PieceIndexSet set = createSet(0);
+
+        set.add(65, 70);
+        assertIndices(set, 65, 66, 67, 68, 69);
+    }
+
+    @Test
+    public void testAddRangeOfWholeWords() {
+        PieceIndexSet set = createSet(0);
+
+        set.add(64, 192);
+        assertEquals(128, set.size());
+        assertEquals(64, set.nextIndex(0));
+        assertEquals(191, set.nextIndex(191));
+        assertEquals(-1, set.nextIndex(192));
+    }
+
+    @Test
+    public void testInit() {
+        PieceIndexSet set = createSet(0, 5, 300);
+
+        set.init(62, 4);
+        assertIndices(set, 62, 63, 64, 65);
+    }
+
+    @Test
+    public void testRemove() {
+        PieceIndexSet set = createSet(0, 63, 64, 65);
+
+        assertTrue(set.remove(64));
+        assertFalse(set.remove(64));
+        assertFalse(set.remove(1000));
+        assertIndices(set, 63, 65);
+    }
+
+    @Test
+    public void testRemoveAll() {
+        PieceIndexSet set = createSet(0);
+        set.add(0, 200);
+
+        PieceIndexSet removed = createSet(0);
+        removed.add(50, 150);
+        removed.add(300);
+
+        assertTrue(set.removeAll(removed));
+        assertEquals(100, set.size());
+        assertTrue(set.contains(49));
+        assertFalse(set.contains(50));
+        assertFalse(set.contains(149));
+        assertTrue(set.contains(150));
+
+        assertFalse(set.removeAll(removed));
+    }
+
+    @Test
+    public void testRemoveFirst() {
+        PieceIndexSet set = createSet(0);
+        set.add(60, 140);
+
+        PieceIndexSet first = set.removeFirst(0.5);
+
+        assertEquals(40, first.size());
+        assertEquals(60, first.nextIndex(0));
+        assertTrue(first.contains(99));
+        assertFalse(first.contains(100));
+
+        assertEquals(40, set.size());
+        assertEquals(100, set.nextIndex(0));
+    }
+
+    @Test
+    public void testAnd() {
+        PieceIndexSet a = createSet(0, 1, 63, 64, 130);
+        PieceIndexSet b = createSet(0, 63, 64, 65, 500);
+
+        assertIndices(a.and(b), 63, 64);
+        assertIndices(b.and(a), 63, 64);
+
+        // the operands are not changed
+        assertIndices(a, 1, 63, 64, 130);
+    }
+
+    @Test
+    public void testOr() {
+        PieceIndexSet a = createSet(0, 1, 64);
+        PieceIndexSet b = createSet(0, 63, 200);
+
+        assertIndices(a.or(b), 1, 63, 64, 200);
+        assertIndices(a, 1, 64);
+    }
+
+    @Test
+    public void testNot() {
+        PieceIndexSet set = createSet(0);
+        set.add(0, 63);
+        set.add(65);
+
+        // lastIndex beyond the capacity of the set
+        assertIndices(set.not(130).and(createFullSet(68)), 63, 64, 66, 67);
+        assertEquals(130 - 64, set.not(130).size());
+
+        // lastIndex on a word boundary
+        assertEquals(128 - 64, set.not(128).size());
+        assertFalse(set.not(128).contains(128));
+        assertTrue(set.not(128).contains(127));
+    }
+
+    private PieceIndexSet createFullSet(int size) {
+        PieceIndexSet result = createSet(size);
+        result.add(0, size);
+        return result;
+    }
+
+    @Test
+    public void testContainsAny() {
+        PieceIndexSet a = createSet(0, 0, 64);
+
+        assertTrue(a.containsAny(createSet(0, 64)));
+        assertFalse(a.containsAny(createSet(0, 63, 65)));
+        assertFalse(a.containsAny(createSet(0)));
+    }
+
+    @Test
+    public void testNextIndex() {
+        PieceIndexSet set = createSet(0, 63, 128);
+
+        assertEquals(63, set.nextIndex(-5));
+        assertEquals(63, set.nextIndex(0));
+        assertEquals(63, set.nextIndex(63));
+        assertEquals(128, set.nextIndex(64));
+        assertEquals(128, set.nextIndex(128));
+        assertEquals(-1, set.nextIndex(129));
+        assertEquals(-1, set.nextIndex(10000));
+    }
+
+    @Test
+    public void testIterator() {
+        PieceIndexSet set = createSet(0, 3, 64, 100);
+
+        Iterator<Integer> it = set.iterator();
+
+        assertEquals(Integer.valueOf(3), it.next());
+        assertEquals(Integer.valueOf(64), it.next());
+        it.remove();
+        assertEquals(Integer.valueOf(100), it.next());
+        assertFalse(it.hasNext());
+
+        assertIndices(set, 3, 100);
+    }
+
+    @Test
+    public void testDeepCopy() {
+        PieceIndexSet set = createSet(0, 5, 70);
+        PieceIndexSet copy = set.deepCopy();
+
+        assertEquals(set, copy);
+
+        copy.add(71);
+        assertFalse(set.contains(71));
+    }
+
+    @Test
+    public void testClear() {
+        PieceIndexSet set = createSet(0);
+        set.add(0, 200);
+
+        set.clear();
+
+        assertIndices(set);
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(199));
+        assertEquals(-1, set.nextIndex(0));
+        assertFalse(set.iterator().hasNext());
+        assertEquals(200, set.not(200).size());
+
+        // the set can be filled again after clearing it
+        set.add(64);
+        set.add(150, 152);
+        assertIndices(set, 64, 150, 151);
+    }
+
+    @Test
+    public void testClearEqualsNewSet() {
+        PieceIndexSet set = createSet(0, 1, 100);
+        set.clear();
+
+        assertEquals(createSet(0), set);
+    }
+
+    @Test
+    public void testToString() {
+        PieceIndexSet set = createSet(0, 1, 2, 3, 63, 64, 100);
+
+        assertEquals("[1-3,63-64,100]", set.toString());
+    }
+
+}
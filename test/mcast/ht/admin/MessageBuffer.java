@@ -0,0 +1,104 @@
+package mcast.ht.admin;
+
+import ibis.ipl.ReadMessage;
+import ibis.ipl.WriteMessage;
+
+import java.io.EOFException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * An in-memory message to test what is written to and read from Ibis 
+ * messages. Like the Ibis data serialization, every primitive type is kept
+ * in its own queue, so reading a byte where an int was written does not
+ * read part of the int.
+ */
+class MessageBuffer implements InvocationHandler {
+
+    private final Map<Class<?>, LinkedList<Object>> queues = 
+        new HashMap<Class<?>, LinkedList<Object>>();
+
+    WriteMessage getWriteMessage() {
+        return (WriteMessage)Proxy.newProxyInstance(
+                getClass().getClassLoader(), 
+                new Class<?>[] { WriteMessage.class }, this);
+    }
+
+    ReadMessage getReadMessage() {
+        return (ReadMessage)Proxy.newProxyInstance(
+                getClass().getClassLoader(), 
+                new Class<?>[] { ReadMessage.class }, this);
+    }
+
+    /**
+     * Returns whether everything that was written has been read.
+     */
+    boolean isEmpty() {
+        for (LinkedList<Object> queue: queues.values()) {
+            if (!queue.isEmpty()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) 
+    throws Throwable {
+        String name = method.getName();
+
+        if (name.equals("writeArray") || name.equals("readArray")) {
+            Object array = args[0];
+            Class<?> type = array.getClass().getComponentType();
+
+            int offset = args.length > 1 ? (Integer)args[1] : 0;
+            int length = args.length > 1 ? (Integer)args[2] : 
+                Array.getLength(array);
+
+            for (int i = offset; i < offset + length; i++) {
+                if (name.equals("writeArray")) {
+                    queue(type).add(Array.get(array, i));
+                } else {
+                    Array.set(array, i, poll(type));
+                }
+            }
+
+            return null;
+        } else if (name.startsWith("write") && args != null && 
+                args.length == 1) {
+            queue(method.getParameterTypes()[0]).add(args[0]);
+            return null;
+        } else if (name.startsWith("read") && args == null) {
+            return poll(method.getReturnType());
+        } else {
+            throw new UnsupportedOperationException(name);
+        }
+    }
+
+    private LinkedList<Object> queue(Class<?> type) {
+        LinkedList<Object> result = queues.get(type);
+
+        if (result == null) {
+            result = new LinkedList<Object>();
+            queues.put(type, result);
+        }
+
+        return result;
+    }
+
+    private Object poll(Class<?> type) throws EOFException {
+        LinkedList<Object> queue = queue(type);
+
+        if (queue.isEmpty()) {
+            throw new EOFException("no more " + type + " values in message");
+        }
+
+        return queue.removeFirst();
+    }
+
+}
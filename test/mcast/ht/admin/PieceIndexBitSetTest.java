@@ -0,0 +1,126 @@
+package mcast.ht.admin;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PieceIndexBitSetTest extends AbstractPieceIndexSetTest {
+
+    protected PieceIndexSet createSet(int capacity) {
+        return new PieceIndexBitSet(capacity);
+    }
+
+    @Test
+    public void testNextClearBit() {
+        PieceIndexBitSet set = new PieceIndexBitSet(0);
+        set.add(0, 64);
+        set.add(65, 128);
+
+        assertEquals(64, set.nextClearBit(0));
+        assertEquals(128, set.nextClearBit(65));
+        assertEquals(500, set.nextClearBit(500));
+    }
+
+    @Test
+    public void testClearKeepsCapacity() {
+        PieceIndexBitSet set = new PieceIndexBitSet(0);
+        set.add(0, 1000);
+
+        long[] words = set.getWords();
+        set.clear();
+
+        assertSame(words, set.getWords());
+        for (long word: words) {
+            assertEquals(0L, word);
+        }
+    }
+
+    @Test
+    public void testClearedHashCode() {
+        PieceIndexBitSet set = new PieceIndexBitSet(0);
+        set.add(1);
+        set.add(100);
+        set.clear();
+
+        assertEquals(new PieceIndexBitSet(0).hashCode(), set.hashCode());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testClearFrozen() {
+        PieceIndexBitSet set = new PieceIndexBitSet(10);
+        set.freeze();
+        set.clear();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAddFrozen() {
+        PieceIndexBitSet set = new PieceIndexBitSet(10);
+        set.freeze();
+        set.add(3);
+    }
+
+    @Test
+    public void testEqualsWithDifferentCapacity() {
+        PieceIndexBitSet small = new PieceIndexBitSet(64);
+        PieceIndexBitSet large = new PieceIndexBitSet(1024);
+
+        small.add(10);
+        large.add(10);
+
+        assertEquals(small, large);
+    }
+
+    private static PieceIndexBitSet createBitSet(int... indices) {
+        PieceIndexBitSet result = new PieceIndexBitSet(0);
+
+        for (int i: indices) {
+            result.add(i);
+        }
+
+        return result;
+    }
+
+    @Test
+    public void testWindow() {
+        PieceIndexBitSet set = createBitSet(3, 63, 64, 100, 127, 128, 200);
+
+        // a word-aligned window, cut off within a word, and the same window 
+        // of a set that is not a bit set
+        assertEquals("[0,36,63-64]", 
+                PieceIndexBitSet.window(set, 64, 100).toString());
+        assertEquals("[0,36,63-64]", PieceIndexBitSet.window(
+                new PieceIndexBooleanSet(set.toString()), 64, 100).toString());
+
+        // an offset within a word
+        assertEquals("[0-1,37]", 
+                PieceIndexBitSet.window(set, 63, 40).toString());
+
+        // beyond the end of the set
+        assertTrue(PieceIndexBitSet.window(set, 256, 64).isEmpty());
+        assertEquals(1, PieceIndexBitSet.window(set, 192, 64).size());
+    }
+
+    @Test
+    public void testAndWithOffset() {
+        PieceIndexBitSet set = createBitSet(0, 5, 63);
+        PieceIndexBitSet other = createBitSet(5, 64, 127, 300);
+
+        assertEquals("[0,63]", set.and(other, 64).toString());
+        assertEquals("[5]", set.and(other, 0).toString());
+        assertEquals("[5]", set.and(other, 59).toString());
+        assertTrue(set.and(other, 1024).isEmpty());
+    }
+
+    @Test
+    public void testShift() {
+        PieceIndexBitSet set = createBitSet(0, 5, 63);
+
+        PieceIndexBitSet shifted = set.shift(128);
+        assertEquals("[128,133,191]", shifted.toString());
+        assertEquals(3, shifted.size());
+
+        assertEquals("[1,6,64]", set.shift(1).toString());
+        assertEquals(set, set.shift(0));
+    }
+
+}
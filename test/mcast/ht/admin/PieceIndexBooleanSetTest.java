@@ -0,0 +1,34 @@
+package mcast.ht.admin;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PieceIndexBooleanSetTest extends AbstractPieceIndexSetTest {
+
+    protected PieceIndexSet createSet(int capacity) {
+        return new PieceIndexBooleanSet(capacity);
+    }
+
+    @Test
+    public void testParse() {
+        PieceIndexBooleanSet set = new PieceIndexBooleanSet("[1-3,63-64,100]");
+
+        assertEquals(6, set.size());
+        assertEquals("[1-3,63-64,100]", set.toString());
+    }
+
+    @Test
+    public void testEqualsBitSet() {
+        PieceIndexSet booleans = new PieceIndexBooleanSet(0);
+        booleans.add(63, 66);
+
+        PieceIndexSet bits = new PieceIndexBitSet(0);
+        bits.addAll(booleans);
+
+        assertEquals("[63-65]", bits.toString());
+        assertTrue(bits.containsAny(booleans));
+        assertEquals(3, bits.and(booleans).size());
+    }
+
+}
@@ -0,0 +1,305 @@
+package mcast.ht.admin;
+
+import static org.junit.Assert.*;
+
+import ibis.ipl.ReadMessage;
+import ibis.ipl.WriteMessage;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PieceIndexSetCodecTest {
+
+    private MessageBuffer buffer;
+    private WriteMessage out;
+    private ReadMessage in;
+
+    @Before
+    public void setUp() {
+        buffer = new MessageBuffer();
+        out = buffer.getWriteMessage();
+        in = buffer.getReadMessage();
+    }
+
+    private static PieceIndexBitSet createSet(int... indices) {
+        PieceIndexBitSet result = new PieceIndexBitSet(0);
+
+        for (int i: indices) {
+            result.add(i);
+        }
+
+        return result;
+    }
+
+    private static PieceIndexBitSet createFullSet(int size) {
+        PieceIndexBitSet result = new PieceIndexBitSet(0);
+        result.add(0, size);
+        return result;
+    }
+
+    private static PieceIndexBitSet createFragmentedSet(int size) {
+        PieceIndexBitSet result = new PieceIndexBitSet(0);
+
+        for (int i = 0; i < size; i += 2) {
+            result.add(i);
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes and reads back the given set in the current version, and 
+     * returns the encoding that was used.
+     */
+    private byte roundTrip(PieceIndexBitSet set) throws IOException {
+        PieceIndexSetCodec.write(set, out, PieceIndexSetCodec.VERSION);
+
+        PieceIndexBitSet result = PieceIndexSetCodec.read(in);
+
+        assertEquals(set, result);
+        assertEquals(set.size(), result.size());
+        assertTrue(buffer.isEmpty());
+
+        // write it again to look at the header
+        PieceIndexSetCodec.write(set, out, PieceIndexSetCodec.VERSION);
+
+        assertEquals(-PieceIndexSetCodec.VERSION, in.readInt());
+
+        return in.readByte();
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        assertEquals(PieceIndexSetCodec.ENCODING_BITS, 
+                roundTrip(createSet()));
+    }
+
+    @Test
+    public void testRanges() throws IOException {
+        int[] sizes = { 1, 63, 64, 65, 128, 1000, 100000 };
+
+        for (int size: sizes) {
+            setUp();
+            PieceIndexBitSet set = createFullSet(size);
+
+            if (size > 64) {
+                assertEquals("size " + size, PieceIndexSetCodec.ENCODING_RANGES,
+                        roundTrip(set));
+            } else {
+                roundTrip(set);
+            }
+        }
+    }
+
+    @Test
+    public void testRangesWithGaps() throws IOException {
+        PieceIndexBitSet set = createFullSet(100000);
+        set.remove(0);
+        set.remove(63);
+        set.remove(64);
+        set.remove(99999);
+
+        assertEquals(PieceIndexSetCodec.ENCODING_RANGES, roundTrip(set));
+    }
+
+    @Test
+    public void testIndices() throws IOException {
+        int[][] sets = { { 5, 100000 }, { 63, 64, 50000 }, 
+                { 0, 1 << 24 } };
+
+        for (int[] indices: sets) {
+            setUp();
+            assertEquals(PieceIndexSetCodec.ENCODING_INDICES, 
+                    roundTrip(createSet(indices)));
+        }
+    }
+
+    @Test
+    public void testBits() throws IOException {
+        int[] sizes = { 63, 64, 65, 1000 };
+
+        for (int size: sizes) {
+            setUp();
+            assertEquals("size " + size, PieceIndexSetCodec.ENCODING_BITS, 
+                    roundTrip(createFragmentedSet(size)));
+        }
+    }
+
+    @Test
+    public void testReadLegacy() throws IOException {
+        // what an older node sends: the size, the capacity of its boolean 
+        // set (which may be beyond the largest index) and the booleans
+        boolean[] list = new boolean[20];
+        list[0] = true;
+        list[3] = true;
+        list[4] = true;
+        list[17] = true;
+
+        out.writeInt(4);
+        out.writeInt(list.length);
+        out.writeArray(list);
+
+        assertEquals(createSet(0, 3, 4, 17), PieceIndexSetCodec.read(in));
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testReadLegacyFromBooleanSet() throws IOException {
+        PieceIndexBooleanSet set = new PieceIndexBooleanSet(200);
+        set.add(5);
+        set.add(64, 130);
+
+        set.writeBooleansTo(out);
+
+        assertEquals(set.toString(), PieceIndexSetCodec.read(in).toString());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testReadLegacyEmpty() throws IOException {
+        out.writeInt(0);
+        out.writeInt(0);
+
+        assertTrue(PieceIndexSetCodec.read(in).isEmpty());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testWriteLegacy() throws IOException {
+        int[] sizes = { 0, 1, 63, 64, 65, 1000 };
+
+        for (int size: sizes) {
+            setUp();
+            PieceIndexBitSet set = createFragmentedSet(size);
+
+            PieceIndexSetCodec.write(set, out, PieceIndexSetCodec.LEGACY_VERSION);
+
+            // an older node reads it as a boolean set
+            PieceIndexBooleanSet result = new PieceIndexBooleanSet(in);
+
+            assertEquals("size " + size, set.toString(), result.toString());
+            assertEquals("size " + size, set.size(), result.size());
+            assertTrue(buffer.isEmpty());
+        }
+    }
+
+    @Test
+    public void testWriteLegacyByDefault() throws IOException {
+        PieceIndexSetCodec.write(createSet(1, 2), out);
+
+        assertEquals(2, in.readInt());
+        assertEquals(3, in.readInt());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadLegacyNegativeCapacity() throws IOException {
+        out.writeInt(0);
+        out.writeInt(-1);
+
+        PieceIndexSetCodec.read(in);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadLegacyWrongSize() throws IOException {
+        out.writeInt(2);
+        out.writeInt(1);
+        out.writeArray(new boolean[] { true });
+
+        PieceIndexSetCodec.read(in);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadUnknownVersion() throws IOException {
+        out.writeInt(-PieceIndexSetCodec.VERSION - 1);
+        out.writeByte(PieceIndexSetCodec.ENCODING_BITS);
+        out.writeInt(0);
+        out.writeInt(0);
+
+        PieceIndexSetCodec.read(in);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadUnknownEncoding() throws IOException {
+        out.writeInt(-PieceIndexSetCodec.VERSION);
+        out.writeByte((byte)3);
+        out.writeInt(0);
+        out.writeInt(0);
+
+        PieceIndexSetCodec.read(in);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadNegativeSize() throws IOException {
+        out.writeInt(-PieceIndexSetCodec.VERSION);
+        out.writeByte(PieceIndexSetCodec.ENCODING_BITS);
+        out.writeInt(-1);
+        out.writeInt(0);
+
+        PieceIndexSetCodec.read(in);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadNegativeLength() throws IOException {
+        out.writeInt(-PieceIndexSetCodec.VERSION);
+        out.writeByte(PieceIndexSetCodec.ENCODING_RANGES);
+        out.writeInt(0);
+        out.writeInt(-1);
+
+        PieceIndexSetCodec.read(in);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadTruncatedVarInt() throws IOException {
+        out.writeInt(-PieceIndexSetCodec.VERSION);
+        out.writeByte(PieceIndexSetCodec.ENCODING_INDICES);
+        out.writeInt(1);
+        out.writeInt(1);
+        out.writeByte((byte)0x80);
+
+        PieceIndexSetCodec.read(in);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadMalformedVarInt() throws IOException {
+        byte[] buf = { (byte)0x80, (byte)0x80, (byte)0x80, (byte)0x80, 
+                (byte)0x80, 0 };
+
+        out.writeInt(-PieceIndexSetCodec.VERSION);
+        out.writeByte(PieceIndexSetCodec.ENCODING_INDICES);
+        out.writeInt(1);
+        out.writeInt(buf.length);
+        out.writeArray(buf, 0, buf.length);
+
+        PieceIndexSetCodec.read(in);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadWrongSize() throws IOException {
+        // the ranges [0, 10) and [20, 25) contain 15 indices, not 16
+        byte[] buf = { 0, 10, 10, 5 };
+
+        out.writeInt(-PieceIndexSetCodec.VERSION);
+        out.writeByte(PieceIndexSetCodec.ENCODING_RANGES);
+        out.writeInt(16);
+        out.writeInt(buf.length);
+        out.writeArray(buf, 0, buf.length);
+
+        PieceIndexSetCodec.read(in);
+    }
+
+    @Test
+    public void testReadRanges() throws IOException {
+        byte[] buf = { 0, 10, 10, 5 };
+
+        out.writeInt(-PieceIndexSetCodec.VERSION);
+        out.writeByte(PieceIndexSetCodec.ENCODING_RANGES);
+        out.writeInt(15);
+        out.writeInt(buf.length);
+        out.writeArray(buf, 0, buf.length);
+
+        assertEquals("[0-9,20-24]", PieceIndexSetCodec.read(in).toString());
+    }
+
+}
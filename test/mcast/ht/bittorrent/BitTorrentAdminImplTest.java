@@ -0,0 +1,116 @@
+package mcast.ht.bittorrent;
+
+import static org.junit.Assert.*;
+
+import ibis.ipl.IbisIdentifier;
+import ibis.ipl.impl.Location;
+
+import mcast.ht.admin.PieceIndexSet;
+import mcast.ht.admin.PieceIndexSetFactory;
+import mcast.ht.admin.PieceSelectionPolicy;
+import mcast.ht.admin.RandomPieceSelection;
+import mcast.ht.admin.RarestFirstPieceSelection;
+import mcast.ht.storage.PieceFactory;
+import mcast.p2p.DummyIbisIdentifier;
+
+import org.junit.Test;
+
+/**
+ * Runs multicasts through admins without any networking: every peer has the
+ * pieces whose index modulo the number of peers differs from its own number,
+ * and every requested piece arrives right away.
+ */
+public class BitTorrentAdminImplTest {
+
+    private static final int PEERS = 3;
+    private static final int REQUEST_SIZE = 7;
+
+    private static IbisIdentifier[] createPeers(String prefix) {
+        IbisIdentifier[] peers = new IbisIdentifier[PEERS];
+
+        for (int p = 0; p < PEERS; p++) {
+            peers[p] = new DummyIbisIdentifier("pool",
+                    new Location(prefix + p + "@das3@cs.vu.nl"));
+        }
+
+        return peers;
+    }
+
+    private static BitTorrentAdminImpl multicast(int totalPieces,
+            PieceSelectionPolicy policy, IbisIdentifier[] peers,
+            BitTorrentAdminImpl recycled) {
+        BitTorrentAdminImpl admin = new BitTorrentAdminImpl(totalPieces,
+                PieceIndexSetFactory.createEmptyPieceIndexSet(), policy,
+                recycled);
+
+        for (int p = 0; p < peers.length; p++) {
+            PieceIndexSet possession =
+                PieceIndexSetFactory.createEmptyPieceIndexSet();
+
+            for (int i = 0; i < totalPieces; i++) {
+                if (i % peers.length != p) {
+                    possession.add(i);
+                }
+            }
+
+            admin.addExistence(peers[p], possession);
+        }
+
+        boolean requested = true;
+
+        while (requested) {
+            requested = false;
+
+            for (IbisIdentifier peer: peers) {
+                int[] pieceIndices =
+                    admin.requestDesiredPieceIndices(peer, REQUEST_SIZE);
+
+                for (int i: pieceIndices) {
+                    assertTrue("piece " + i + " is out of range",
+                            i >= 0 && i < totalPieces);
+                    assertFalse("piece " + i + " requested twice",
+                            admin.isPieceReceived(i));
+
+                    admin.setPieceReceived(peer, PieceFactory.createPiece(i));
+                }
+
+                requested |= pieceIndices.length > 0;
+            }
+        }
+
+        return admin;
+    }
+
+    @Test
+    public void testBackToBackMulticasts() {
+        IbisIdentifier[] firstPeers = createPeers("first");
+        IbisIdentifier[] secondPeers = createPeers("second");
+
+        BitTorrentAdminImpl first = multicast(1000,
+                new RandomPieceSelection(), firstPeers, null);
+
+        assertTrue(first.areAllPieceReceived());
+
+        // fewer pieces, so the administration of the first multicast is
+        // reused
+        BitTorrentAdminImpl second = multicast(600,
+                new RarestFirstPieceSelection(), secondPeers, first);
+
+        assertSame(first.interest, second.interest);
+        assertTrue(second.areAllPieceReceived());
+
+        // the peers of the first multicast announced nothing in the second
+        for (IbisIdentifier peer: firstPeers) {
+            assertEquals(0,
+                    second.requestDesiredPieceIndices(peer, REQUEST_SIZE).length);
+        }
+
+        // and the other way around, with the first peers again
+        BitTorrentAdminImpl third = multicast(400,
+                new RandomPieceSelection(), firstPeers, second);
+
+        assertSame(second.interest, third.interest);
+        assertTrue(third.areAllPieceReceived());
+    }
+
+}
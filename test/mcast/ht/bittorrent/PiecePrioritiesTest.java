@@ -0,0 +1,213 @@
+package mcast.ht.bittorrent;
+
+import static org.junit.Assert.*;
+
+import ibis.ipl.IbisIdentifier;
+import ibis.ipl.impl.Location;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import mcast.ht.admin.PieceIndexSet;
+import mcast.ht.admin.PieceIndexSetFactory;
+import mcast.ht.admin.PiecePriorities;
+import mcast.ht.admin.RandomPieceSelection;
+import mcast.ht.admin.SequentialPieceSelection;
+import mcast.ht.robber.RobberAdminImpl;
+import mcast.ht.storage.PieceFactory;
+import mcast.p2p.DummyIbisIdentifier;
+
+import org.junit.Test;
+
+/**
+ * Checks the order in which admins request pieces with priorities and
+ * deadlines. The sequential policy picks the lowest index first, so the
+ * pieces that are not urgent come in a predictable order too.
+ */
+public class PiecePrioritiesTest {
+
+    private static final int TOTAL_PIECES = 100;
+
+    private static IbisIdentifier createPeer(String name) {
+        return new DummyIbisIdentifier("pool",
+                new Location(name + "@das3@cs.vu.nl"));
+    }
+
+    private static PieceIndexSet range(int start, int end) {
+        PieceIndexSet result = PieceIndexSetFactory.createEmptyPieceIndexSet();
+        result.add(start, end);
+        return result;
+    }
+
+    private static BitTorrentAdminImpl createAdmin(IbisIdentifier peer,
+            PieceIndexSet has) {
+        BitTorrentAdminImpl admin = new BitTorrentAdminImpl(TOTAL_PIECES,
+                PieceIndexSetFactory.createEmptyPieceIndexSet(),
+                new SequentialPieceSelection(), null);
+
+        admin.addExistence(peer, has);
+
+        return admin;
+    }
+
+    private static void assertRequested(String expected,
+            BitTorrentAdminImpl admin, IbisIdentifier peer, int amount) {
+        assertEquals(expected, Arrays.toString(
+                admin.requestDesiredPieceIndices(peer, amount)));
+    }
+
+    @Test
+    public void testNoPriorities() {
+        IbisIdentifier peer = createPeer("peer");
+        BitTorrentAdminImpl admin = createAdmin(peer, range(0, TOTAL_PIECES));
+
+        admin.setPiecePriorities(new PiecePriorities());
+
+        assertRequested("[0, 1, 2, 3, 4]", admin, peer, 5);
+    }
+
+    @Test
+    public void testDeadlinesThenPrioritiesThenPolicy() {
+        IbisIdentifier peer = createPeer("peer");
+        BitTorrentAdminImpl admin = createAdmin(peer, range(0, TOTAL_PIECES));
+
+        PiecePriorities priorities = new PiecePriorities();
+        priorities.setPriority(50, 53, 1);
+        priorities.setPriority(80, 82, 5);
+        priorities.setDeadline(90, 92, 2000);
+        priorities.setDeadline(20, 21, 1000);
+        admin.setPiecePriorities(priorities);
+
+        // the earliest deadline first, then the highest priority
+        assertRequested("[20, 90, 91, 80, 81, 50]", admin, peer, 6);
+
+        // the rest of the urgent pieces, then back to the normal policy
+        assertRequested("[51, 52, 0, 1, 2]", admin, peer, 5);
+        assertRequested("[3, 4, 5, 6, 7]", admin, peer, 5);
+    }
+
+    @Test
+    public void testLastAssignmentWins() {
+        IbisIdentifier peer = createPeer("peer");
+        BitTorrentAdminImpl admin = createAdmin(peer, range(0, TOTAL_PIECES));
+
+        PiecePriorities priorities = new PiecePriorities();
+        priorities.setPriority(30, 40, 5);
+        priorities.setDeadline(35, 37, 1000);
+        // normal again
+        priorities.setPriority(32, 35, PiecePriorities.NORMAL);
+        admin.setPiecePriorities(priorities);
+
+        assertRequested("[35, 36, 30, 31, 37, 38, 39, 0]", admin, peer, 8);
+    }
+
+    @Test
+    public void testOnlyPiecesThePeerHas() {
+        IbisIdentifier even = createPeer("even");
+        IbisIdentifier odd = createPeer("odd");
+
+        PieceIndexSet evenPieces =
+            PieceIndexSetFactory.createEmptyPieceIndexSet();
+        PieceIndexSet oddPieces =
+            PieceIndexSetFactory.createEmptyPieceIndexSet();
+
+        for (int i = 0; i < TOTAL_PIECES; i++) {
+            (i % 2 == 0 ? evenPieces : oddPieces).add(i);
+        }
+
+        BitTorrentAdminImpl admin = createAdmin(even, evenPieces);
+        admin.addExistence(odd, oddPieces);
+
+        PiecePriorities priorities = new PiecePriorities();
+        priorities.setPriority(60, 65, 1);
+        admin.setPiecePriorities(priorities);
+
+        assertRequested("[60, 62, 64, 0, 2]", admin, even, 5);
+        assertRequested("[61, 63, 1, 3, 5]", admin, odd, 5);
+    }
+
+    @Test
+    public void testChangedPriorities() {
+        IbisIdentifier peer = createPeer("peer");
+        BitTorrentAdminImpl admin = createAdmin(peer, range(0, TOTAL_PIECES));
+
+        PiecePriorities priorities = new PiecePriorities();
+        priorities.setPriority(10, 12, 1);
+        admin.setPiecePriorities(priorities);
+
+        assertRequested("[10, 11, 0]", admin, peer, 3);
+
+        // pieces that are requested or received already are not requested
+        // again
+        admin.setPieceReceived(peer, PieceFactory.createPiece(41));
+        priorities.setPriority(40, 43, 1);
+        priorities.setPriority(0, 2, 2);
+
+        assertRequested("[1, 40, 42, 2]", admin, peer, 4);
+
+        priorities.clear();
+        priorities.setDeadline(99, 100, 1000);
+
+        assertRequested("[99, 3]", admin, peer, 2);
+    }
+
+    @Test
+    public void testOtherPolicy() {
+        IbisIdentifier peer = createPeer("peer");
+        BitTorrentAdminImpl admin = new BitTorrentAdminImpl(TOTAL_PIECES,
+                PieceIndexSetFactory.createEmptyPieceIndexSet(),
+                new RandomPieceSelection(), null);
+        admin.addExistence(peer, range(0, TOTAL_PIECES));
+
+        PiecePriorities priorities = new PiecePriorities();
+        priorities.setDeadline(70, 73, 1000);
+        admin.setPiecePriorities(priorities);
+
+        int[] requested = admin.requestDesiredPieceIndices(peer, 10);
+
+        assertEquals(10, requested.length);
+        assertEquals(70, requested[0]);
+        assertEquals(71, requested[1]);
+        assertEquals(72, requested[2]);
+
+        // the random policy picks the other pieces
+        PieceIndexSet left = range(0, TOTAL_PIECES);
+
+        for (int i: requested) {
+            assertTrue("piece " + i + " requested twice", left.remove(i));
+        }
+
+        assertEquals(TOTAL_PIECES - 10, left.size());
+    }
+
+    @Test
+    public void testRobberFollowsItsOwnRules() {
+        IbisIdentifier local = createPeer("local");
+        IbisIdentifier global = createPeer("global");
+
+        Set<IbisIdentifier> localPeers = new HashSet<IbisIdentifier>();
+        localPeers.add(local);
+
+        // our work is golden, the rest of the pieces silver
+        RobberAdminImpl admin = new RobberAdminImpl(TOTAL_PIECES,
+                PieceIndexSetFactory.createEmptyPieceIndexSet(), localPeers,
+                range(0, 50), false, new SequentialPieceSelection());
+
+        PiecePriorities priorities = new PiecePriorities();
+        priorities.setPriority(60, 63, 5);
+        priorities.setPriority(10, 12, 1);
+        admin.setPiecePriorities(priorities);
+
+        admin.addExistence(global, range(0, TOTAL_PIECES));
+
+        // only golden pieces from global peers, urgent or not
+        assertRequested("[10, 11, 0, 1]", admin, global, 4);
+
+        admin.addExistence(local, range(50, TOTAL_PIECES));
+
+        // silver pieces from local peers
+        assertRequested("[60, 61, 62, 50]", admin, local, 4);
+    }
+
+}
@@ -0,0 +1,112 @@
+package mcast.ht.bittorrent;
+
+import static org.junit.Assert.*;
+
+import java.util.LinkedList;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+/**
+ * Runs a request pipeline against a simulated link in real time, since the
+ * pipeline measures time with System.nanoTime().
+ */
+public class RequestPipelineTest {
+
+    // the simulated link: a peer that sends PIECES_PER_SEC pieces per second,
+    // in the order in which they were requested, ROUND_TRIP_MILLIS away
+    private static final int PIECES_PER_SEC = 1000;
+    private static final int ROUND_TRIP_MILLIS = 20;
+
+    private static final long SERVICE_NANOS = 1000000000L / PIECES_PER_SEC;
+    private static final long ONE_WAY_NANOS = ROUND_TRIP_MILLIS * 1000000L / 2;
+
+    private static final long RUN_NANOS = 2000000000L;
+    private static final long MEASURE_NANOS = 500000000L;
+
+    // the arrival time of each piece, in the order in which they arrive
+    private final LinkedList<long[]> arrivals = new LinkedList<long[]>();
+    private long peerBusyUntil = 0;
+    private int nextPiece = 0;
+
+    private void request(RequestPipeline pipeline, int count, int pending) {
+        int[] pieceIndices = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            pieceIndices[i] = nextPiece++;
+        }
+
+        pipeline.requested(pieceIndices, pending);
+
+        long now = System.nanoTime();
+
+        for (int pieceIndex: pieceIndices) {
+            long start = Math.max(now + ONE_WAY_NANOS, peerBusyUntil);
+            peerBusyUntil = start + SERVICE_NANOS;
+
+            arrivals.add(new long[] { pieceIndex, peerBusyUntil + ONE_WAY_NANOS });
+        }
+    }
+
+    private static void waitUntil(long time) {
+        for (long now = System.nanoTime(); now < time; now = System.nanoTime()) {
+            LockSupport.parkNanos(time - now);
+        }
+    }
+
+    @Test
+    public void testDepthFollowsBandwidthDelayProduct() {
+        RequestPipeline pipeline = new RequestPipeline(2, 256, 5);
+
+        long begin = System.nanoTime();
+        long measureFrom = begin + RUN_NANOS - MEASURE_NANOS;
+        int measured = 0;
+
+        request(pipeline, pipeline.getDepth(), 0);
+        int pending = pipeline.getDepth();
+
+        while (System.nanoTime() < begin + RUN_NANOS) {
+            long[] arrival = arrivals.removeFirst();
+
+            waitUntil(arrival[1]);
+
+            assertTrue(pipeline.received((int)arrival[0]));
+            pending--;
+
+            if (arrival[1] >= measureFrom) {
+                measured++;
+            }
+
+            int backlog = pipeline.getDepth() - pending;
+
+            if (backlog > 0) {
+                request(pipeline, backlog, pending);
+                pending += backlog;
+            }
+        }
+
+        // twice the bandwidth-delay product of 20 pieces, plus a little for
+        // the time the peer takes to send the probe itself
+        int depth = pipeline.getDepth();
+        assertTrue("depth " + depth, depth >= 30 && depth <= 60);
+
+        double rate = measured / (MEASURE_NANOS / 1e9);
+        assertTrue("rate " + rate, rate >= 0.9 * PIECES_PER_SEC);
+    }
+
+    @Test
+    public void testProbeOnFullPipeline() {
+        RequestPipeline pipeline = new RequestPipeline(2, 256, 5);
+
+        // the first refill finds requests pending already; its first request
+        // must still be measured
+        pipeline.requested(new int[] { 0, 1 }, 3);
+
+        assertEquals(5, pipeline.getDepth());
+
+        pipeline.received(0);
+
+        assertEquals(2, pipeline.getDepth());
+    }
+
+}